@@ -4,6 +4,6 @@ import pers.lyl232.jaapss.program.Program;
 
 public class Main {
     public static void main(String[] args) {
-        Program.getInstance().run();
+        Program.getInstance().run(args);
     }
 }
@@ -7,4 +7,10 @@ import pers.lyl232.jaapss.problem.Schedule;
  */
 public interface Solver {
     Schedule solve() throws Exception;
+
+    /**
+     * 要求正在运行的求解尽快停止, 可以在任意线程中调用, solve返回已经找到的最佳方案;
+     * 在solve之前调用时solve也会尽快返回
+     */
+    void stop();
 }
@@ -0,0 +1,285 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import pers.lyl232.jaapss.data.InstanceGenerator;
+import pers.lyl232.jaapss.problem.*;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 遗传算法热点路径的基准测试: 在不同规模的合成问题上测量解码, 基因修复, 交叉, 适应度计算,
+ * 调度方案验证和输出的单次耗时, 以及不同线程数下整个种群的解码耗时.
+ * 与JMH相同, 每项先预热再分若干轮测量, 输出每次操作的平均耗时和标准差.
+ * <p>
+ * 用法: java -cp JAAPSS.jar pers.lyl232.jaapss.algorithm.ga.Benchmark [选项]
+ * <p>
+ * -sizes 100,10000,100000: 合成问题的任务数
+ * -workers 1,2,4: 种群解码的线程数
+ * -warmup 1000: 每项预热的毫秒数
+ * -time 1000: 每轮测量的毫秒数
+ * -iterations 5: 测量轮数
+ * -filter decode: 只运行名称包含该字符串的项
+ */
+public class Benchmark {
+
+    public static void main(String[] args) throws Exception {
+        Benchmark benchmark = new Benchmark();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-sizes": {
+                    benchmark.sizes = parseInts(args[i + 1]);
+                    break;
+                }
+                case "-workers": {
+                    benchmark.workers = parseInts(args[i + 1]);
+                    break;
+                }
+                case "-warmup": {
+                    benchmark.warmup = Long.parseLong(args[i + 1]);
+                    break;
+                }
+                case "-time": {
+                    benchmark.time = Long.parseLong(args[i + 1]);
+                    break;
+                }
+                case "-iterations": {
+                    benchmark.iterations = Integer.parseInt(args[i + 1]);
+                    break;
+                }
+                case "-filter": {
+                    benchmark.filter = args[i + 1];
+                    break;
+                }
+                default: {
+                    System.out.printf("Error: unknown option: %s\n", args[i]);
+                    return;
+                }
+            }
+        }
+        benchmark.run();
+    }
+
+    /**
+     * 依次运行所有规模的所有测试项
+     */
+    private void run() throws Exception {
+        System.out.printf("%-32s %10s %8s %16s %12s\n",
+                "benchmark", "tasks", "workers", "ns/op", "error");
+        for (int size : sizes) {
+            Problem problem = syntheticProblem(size, SEED);
+            for (ScheduleRule rule : ScheduleRule.values()) {
+                runRule(problem, rule);
+            }
+            runSchedule(problem);
+            runPopulation(problem);
+        }
+    }
+
+    /**
+     * 与解码顺序有关的测试项: 解码, 交叉, 各个适应度计算器
+     */
+    private void runRule(Problem problem, ScheduleRule rule) throws Exception {
+        String suffix = rule == ScheduleRule.FORWARD ? ".forward" : ".backward";
+        Species species = newSpecies(problem, rule, 2, 1);
+        Decoder decoder = Decoder.getCurrentDecoder();
+        Population population = species.population;
+        int n = species.geneLength;
+
+        measure("Decoder.decode" + suffix, n, 1,
+                () -> {
+                    decoder.decode(population.MS, population.OS, 0);
+                    return decoder.taskEnd[0];
+                });
+        Individual individual = population.get(0);
+        measure("Individual.decode" + suffix, n, 1,
+                () -> new Individual(species, individual.MS, individual.OS).decode().assignments.length);
+
+        Population.CrossoverBuffer buffer = new Population.CrossoverBuffer(n);
+        Random random = new Random(SEED);
+        measure("Population.crossover" + suffix, n, 1,
+                () -> {
+                    population.crossover(0, 1, species.parameter.MSCrossoverRepeat, random, buffer);
+                    return population.fitness[0];
+                });
+        // 只做OS交叉和两个子代的解码
+        measure("Population.OSCrossover" + suffix, n, 1,
+                () -> {
+                    population.crossover(0, 1, 0, random, buffer);
+                    return population.fitness[0];
+                });
+
+        decoder.decode(population.MS, population.OS, 0);
+        for (ScheduleStrategy strategy : ScheduleStrategy.values()) {
+            ScheduleEvaluator evaluator = ScheduleEvaluator.get(problem, strategy, rule);
+            measure(evaluator.getClass().getSimpleName() + suffix, n, 1,
+                    () -> evaluator.evaluate(decoder.OSTask, decoder.taskEnd));
+        }
+    }
+
+    /**
+     * 与调度方案有关的测试项: 基因修复, 验证, 输出
+     */
+    private void runSchedule(Problem problem) throws Exception {
+        Species species = newSpecies(problem, ScheduleRule.FORWARD, 1, 1);
+        int n = species.geneLength;
+
+        // 未修复的随机OS基因段
+        int[] shuffled = species.OSGeneTemplate.clone(), OS = new int[n];
+        Random random = new Random(SEED);
+        for (int i = n - 1; i > 0; --i) {
+            int pos = random.nextInt(i + 1), temp = shuffled[pos];
+            shuffled[pos] = shuffled[i];
+            shuffled[i] = temp;
+        }
+        GeneChecker checker = GeneChecker.getCurrentGeneChecker();
+        measure("GeneChecker.fixOSGene", n, 1,
+                () -> {
+                    System.arraycopy(shuffled, 0, OS, 0, n);
+                    checker.fixOSGene(OS);
+                    return OS[0];
+                });
+
+        Schedule schedule = species.population.get(0).decode();
+        Assignment[] assignments = schedule.assignments.clone();
+        // 验证结果会被缓存, 每次都需要构造新的调度方案
+        measure("Schedule.validate", n, 1,
+                () -> new Schedule(problem, assignments.clone()).validate() ? 1 : 0);
+
+        File file = File.createTempFile("jaapss-benchmark", ".csv");
+        file.deleteOnExit();
+        measure("Schedule.toCSV", n, 1,
+                () -> {
+                    schedule.toCSV(file.getPath(), "UTF-8");
+                    return file.length();
+                });
+    }
+
+    /**
+     * 整个种群在线程池中的解码
+     */
+    private void runPopulation(Problem problem) throws Exception {
+        for (int w : workers) {
+            Species species = newSpecies(problem, ScheduleRule.FORWARD, POPULATION, w);
+            Population population = species.population;
+            ForkJoinPool pool = new ForkJoinPool(w,
+                    forkJoinPool -> new Worker(species, forkJoinPool), null, false);
+            try {
+                measure("Population.decode(" + POPULATION + ")", species.geneLength, w,
+                        () -> {
+                            for (int i = 0; i < population.size; ++i) {
+                                population.invalidate(i);
+                            }
+                            DecodeTask task = new DecodeTask(species, 0, population.size);
+                            pool.invoke(task);
+                            return task.fitnessSum;
+                        });
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 构造不使用适应度缓存的物种, 并随机初始化种群
+     */
+    private Species newSpecies(Problem problem, ScheduleRule rule, int population, int workers)
+            throws Exception {
+        Species.Parameter parameter = new Species.Parameter();
+        parameter.seed = SEED;
+        parameter.population = population;
+        parameter.workers = workers;
+        parameter.cacheSize = 0;
+        parameter.scheduleRule = rule;
+        Species species = new Species(problem, parameter);
+        for (int i = 0; i < population; ++i) {
+            species.newRandomIndividual(i);
+        }
+        return species;
+    }
+
+    /**
+     * 测量一项操作: 预热后分若干轮, 每轮在给定时间内尽量多次执行, 输出每次操作的平均耗时
+     *
+     * @param name      测试项名称
+     * @param tasks     问题的任务数
+     * @param workers   线程数
+     * @param operation 被测量的操作, 返回值用于防止被优化掉
+     */
+    private void measure(String name, int tasks, int workers, Operation operation) throws Exception {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+        long deadline = System.nanoTime() + warmup * 1000000L;
+        while (System.nanoTime() < deadline) {
+            sink += operation.run();
+        }
+        double[] results = new double[iterations];
+        for (int k = 0; k < iterations; ++k) {
+            long count = 0, begin = System.nanoTime(), end;
+            deadline = begin + time * 1000000L;
+            do {
+                sink += operation.run();
+                ++count;
+                end = System.nanoTime();
+            } while (end < deadline);
+            results[k] = (double) (end - begin) / count;
+        }
+        double mean = 0, variance = 0;
+        for (double result : results) {
+            mean += result;
+        }
+        mean /= iterations;
+        for (double result : results) {
+            variance += (result - mean) * (result - mean);
+        }
+        double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+        System.out.printf("%-32s %10d %8d %16.1f %12.1f\n", name, tasks, workers, mean, error);
+    }
+
+    /**
+     * 用合成问题生成器构造默认形状的问题
+     *
+     * @param taskCount 任务数
+     * @param seed      随机种子
+     * @return 问题
+     */
+    static Problem syntheticProblem(int taskCount, long seed) throws Exception {
+        InstanceGenerator.Parameter parameter = new InstanceGenerator.Parameter();
+        parameter.tasks = taskCount;
+        parameter.seed = seed;
+        InstanceGenerator generator = new InstanceGenerator(parameter);
+        return new Problem(generator.machineLoader(), generator.taskLoader());
+    }
+
+    /**
+     * 解析逗号分隔的整数列表
+     */
+    private static int[] parseInts(String value) {
+        String[] items = value.split(",");
+        int[] result = new int[items.length];
+        for (int i = 0; i < items.length; ++i) {
+            result[i] = Integer.parseInt(items[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * 被测量的操作
+     */
+    private interface Operation {
+        double run() throws Exception;
+    }
+
+    // 合成问题和随机个体的随机种子, 种群解码测试的种群大小
+    final private static long SEED = 232;
+    final private static int POPULATION = 32;
+
+    private int[] sizes = {100, 10000, 100000}, workers = Runtime.getRuntime().availableProcessors() > 1 ?
+            new int[]{1, Runtime.getRuntime().availableProcessors()} : new int[]{1};
+    private long warmup = 1000, time = 1000;
+    private int iterations = 5;
+    private String filter = null;
+    // 累加每次操作的返回值, 防止被测量的操作被JIT消除
+    private volatile double sink = 0;
+}
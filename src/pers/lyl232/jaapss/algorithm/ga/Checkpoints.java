@@ -0,0 +1,136 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import java.util.Arrays;
+
+/**
+ * 解码检查点: 记录种群中每个个体上一次解码时每个任务的时间, 以及沿解码顺序每隔interval步
+ * 各设备的可用时间. 变异只改变解码顺序中某一步之后的基因, 之前的状态仍然有效,
+ * 解码器可以从变化位置之前最近的检查点继续解码, 不需要从头开始
+ */
+class Checkpoints {
+
+    /**
+     * @param size       种群大小
+     * @param geneLength 基因长度
+     * @param machines   设备数
+     * @param count      每个个体的检查点个数(包括解码开始处), 不超过基因长度
+     */
+    Checkpoints(int size, int geneLength, int machines, int count) {
+        this.geneLength = geneLength;
+        this.machines = machines;
+        this.interval = (geneLength + count - 1) / count;
+        this.count = (geneLength + interval - 1) / interval;
+        times = new double[size * geneLength];
+        machineTimes = new double[size * this.count * machines];
+        earliest = new double[size * this.count];
+        validSteps = new int[size];
+    }
+
+    /**
+     * 基因被整体替换, 所有状态失效
+     *
+     * @param i 个体序号
+     */
+    void invalidate(int i) {
+        validSteps[i] = 0;
+    }
+
+    /**
+     * 解码顺序中第step步及以后的基因发生了变化
+     *
+     * @param i    个体序号
+     * @param step 第一个变化的解码步骤
+     */
+    void changed(int i, int step) {
+        validSteps[i] = Math.min(validSteps[i], step);
+    }
+
+    /**
+     * 个体刚刚完整解码, 所有状态有效
+     *
+     * @param i 个体序号
+     */
+    void decoded(int i) {
+        validSteps[i] = geneLength;
+    }
+
+    /**
+     * 将个体的状态复制到另一份存储的指定位置
+     *
+     * @param from 个体序号
+     * @param to   目标存储
+     * @param at   目标存储中的个体序号
+     */
+    void copyTo(int from, Checkpoints to, int at) {
+        to.validSteps[at] = validSteps[from];
+        if (validSteps[from] == 0) {
+            return;
+        }
+        System.arraycopy(times, from * geneLength, to.times, at * geneLength, geneLength);
+        System.arraycopy(machineTimes, from * count * machines,
+                to.machineTimes, at * count * machines, count * machines);
+        System.arraycopy(earliest, from * count, to.earliest, at * count, count);
+    }
+
+    /**
+     * 可以恢复的最后一个检查点
+     *
+     * @param i 个体序号
+     * @return 检查点序号, 0表示只能从头解码
+     */
+    int resumePoint(int i) {
+        return Math.min(validSteps[i] / interval, count - 1);
+    }
+
+    /**
+     * 恢复检查点处的设备可用时间
+     *
+     * @param i                    个体序号
+     * @param k                    检查点序号
+     * @param machineAvailableTime 输出: 各设备的可用时间
+     */
+    void restore(int i, int k, double[] machineAvailableTime) {
+        if (k == 0) {
+            Arrays.fill(machineAvailableTime, 0.0);
+            return;
+        }
+        System.arraycopy(machineTimes, (i * count + k) * machines,
+                machineAvailableTime, 0, machines);
+    }
+
+    /**
+     * 检查点之前最早的开始时间, 只用于倒排
+     *
+     * @param i 个体序号
+     * @param k 检查点序号
+     * @return 最早的开始时间
+     */
+    double earliest(int i, int k) {
+        return earliest[i * count + k];
+    }
+
+    /**
+     * 记录检查点处的设备可用时间
+     *
+     * @param i                    个体序号
+     * @param k                    检查点序号
+     * @param machineAvailableTime 各设备的可用时间
+     * @param earliest             之前最早的开始时间, 只用于倒排
+     */
+    void save(int i, int k, double[] machineAvailableTime, double earliest) {
+        System.arraycopy(machineAvailableTime, 0, machineTimes,
+                (i * count + k) * machines, machines);
+        this.earliest[i * count + k] = earliest;
+    }
+
+    // 基因长度, 设备数
+    final private int geneLength, machines;
+    // 相邻检查点之间的解码步数, 每个个体的检查点个数
+    final int interval, count;
+    // 每个个体每个任务(稠密下标)的时间: 正排为结束时间, 倒排为调整为非负数之前的开始时间
+    final double[] times;
+    // 每个个体每个检查点处各设备的可用时间, 之前最早的开始时间(倒排)
+    final private double[] machineTimes, earliest;
+    // 每个个体解码顺序中前多少步的状态仍然有效
+    final private int[] validSteps;
+}
@@ -0,0 +1,162 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import pers.lyl232.jaapss.problem.*;
+
+import java.util.Arrays;
+
+/**
+ * 关键路径: 解码后从决定适应度的任务(正排为超时最多的任务, 设备利用率策略为结束最晚的任务;
+ * 倒排为开始最早的任务)出发, 沿着决定其时间的约束(同一设备上相邻的任务或者依赖的任务)回溯得到的任务链.
+ * 链上由设备约束连接的连续任务构成关键块, 局部搜索和禁忌搜索的邻域都在关键路径上产生.
+ * 持有可重用的数组, 不是线程安全的
+ */
+class CriticalPath {
+
+    /**
+     * @param species 所属物种
+     */
+    CriticalPath(Species species) {
+        this.species = species;
+        n = species.geneLength;
+        position = new int[n];
+        machinePrevious = new int[n];
+        chain = new int[n];
+        lastOnMachine = new int[species.problem.machines.length];
+        forward = species.parameter.scheduleRule == ScheduleRule.FORWARD;
+        makespan = species.parameter.scheduleStrategy == ScheduleStrategy.HIGHEST_MACHINE_UTILIZATION;
+    }
+
+    /**
+     * 使用当前线程的解码器解码个体并找出关键路径, 结果保存在chain中,
+     * 同时记录每个任务的OS位置和设备上的相邻任务
+     *
+     * @param MS     存放MS基因段的数组
+     * @param OS     存放OS基因段的数组
+     * @param offset 两段基因在数组中的起始位置
+     * @return 关键路径上的任务数
+     */
+    int find(int[] MS, int[] OS, int offset) {
+        Decoder decoder = Decoder.getCurrentDecoder();
+        decoder.decode(MS, OS, offset);
+        int[] OSTask = decoder.OSTask, taskMachine = decoder.taskMachine;
+        double[] taskBegin = decoder.taskBegin, taskEnd = decoder.taskEnd;
+        boolean[] virtualTask = species.virtualTask;
+        Problem problem = species.problem;
+
+        for (int p = 0; p < n; ++p) {
+            position[OSTask[p]] = p;
+        }
+        // 沿解码顺序, 同一设备上前一个解码的任务
+        Arrays.fill(lastOnMachine, -1);
+        for (int s = 0; s < n; ++s) {
+            int t = OSTask[forward ? s : n - 1 - s];
+            if (virtualTask[t]) {
+                machinePrevious[t] = -1;
+                continue;
+            }
+            machinePrevious[t] = lastOnMachine[taskMachine[t]];
+            lastOnMachine[taskMachine[t]] = t;
+        }
+
+        // 关键路径的起点
+        int target = -1;
+        double worst = Double.NEGATIVE_INFINITY;
+        for (int t = 0; t < n; ++t) {
+            double value;
+            if (!forward) {
+                value = -taskBegin[t];
+            } else if (makespan) {
+                value = taskEnd[t];
+            } else if (problem.tasks[t].expireTime >= 0) {
+                value = taskEnd[t] - problem.tasks[t].expireTime;
+            } else {
+                continue;
+            }
+            if (value > worst) {
+                worst = value;
+                target = t;
+            }
+        }
+
+        length = 0;
+        for (int t = target; t >= 0 && length < n; t = binding(t, decoder)) {
+            chain[length++] = t;
+        }
+        return length;
+    }
+
+    /**
+     * @param k 关键路径上的序号
+     * @return 关键路径上的下一个任务是否为在同一设备上阻塞它的任务(两者在同一个关键块中)
+     */
+    boolean machineLink(int k) {
+        return k + 1 < length && chain[k + 1] == machinePrevious[chain[k]];
+    }
+
+    /**
+     * @return 决定任务时间的任务: 正排为结束时间等于其开始时间的设备前一个任务或者前驱任务,
+     * 倒排为开始时间等于其结束时间的设备后一个任务或者后继任务, 没有时为-1
+     */
+    private int binding(int t, Decoder decoder) {
+        Problem problem = species.problem;
+        double[] taskBegin = decoder.taskBegin, taskEnd = decoder.taskEnd;
+        int m = machinePrevious[t];
+        if (forward) {
+            if (m >= 0 && Math.abs(taskEnd[m] - taskBegin[t]) < EPS) {
+                return m;
+            }
+            for (int k = problem.taskPredecessorBegin[t]; k < problem.taskPredecessorBegin[t + 1]; ++k) {
+                int u = problem.taskPredecessors[k];
+                if (Math.abs(taskEnd[u] - taskBegin[t]) < EPS) {
+                    return u;
+                }
+            }
+        } else {
+            if (m >= 0 && Math.abs(taskBegin[m] - taskEnd[t]) < EPS) {
+                return m;
+            }
+            int s = problem.taskSuccessor[t];
+            if (s >= 0 && Math.abs(taskBegin[s] - taskEnd[t]) < EPS) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 将OS位置from上的基因与to上的交换或者插入到to处, 再修正依赖
+     *
+     * @param OS     存放OS基因段的数组
+     * @param offset OS基因段在数组中的起始位置
+     * @param from   移动的基因位置
+     * @param to     目标位置
+     * @param insert true为插入, false为交换
+     */
+    static void moveOS(int[] OS, int offset, int from, int to, boolean insert) {
+        int gene = OS[offset + from];
+        if (!insert) {
+            OS[offset + from] = OS[offset + to];
+        } else if (from > to) {
+            System.arraycopy(OS, offset + to, OS, offset + to + 1, from - to);
+        } else {
+            System.arraycopy(OS, offset + from + 1, OS, offset + from, to - from);
+        }
+        OS[offset + to] = gene;
+        GeneChecker.getCurrentGeneChecker().fixOSGene(OS, offset);
+    }
+
+    // 比较时间的误差
+    final private static double EPS = 1e-9;
+
+    final private Species species;
+    // 基因长度
+    final private int n;
+    // 是否正排, 是否以最晚结束时间为目标
+    final private boolean forward, makespan;
+    // 结果: 每个任务的OS位置, 沿解码顺序同一设备上的前一个任务, 关键路径(从起点开始回溯)
+    final int[] position, machinePrevious, chain;
+    // 关键路径上的任务数
+    int length;
+    // 重用变量: 每个设备(稠密下标)最近解码的任务
+    final private int[] lastOnMachine;
+}
@@ -0,0 +1,261 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import pers.lyl232.jaapss.problem.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 解码器, 在问题的稠密数组上将MS和OS基因解码为每个任务的开始时间和分配的设备,
+ * 持有可重用的数组, 解码过程中不会分配内存, 其实现并不是线程安全的
+ */
+class Decoder {
+
+    /**
+     * 获取当前线程对应的解码器
+     *
+     * @return 解码器
+     */
+    static Decoder getCurrentDecoder() {
+        return decoderMap.get(Thread.currentThread().getId());
+    }
+
+    /**
+     * 给当前线程新分配一个解码器, 如果已有的解码器属于其他物种, 则替换掉
+     *
+     * @param species 物种引用
+     */
+    static void initializeCurrentDecoder(Species species) {
+        Decoder decoder = decoderMap.get(Thread.currentThread().getId());
+        if (decoder == null || decoder.species != species) {
+            decoderMap.put(Thread.currentThread().getId(), new Decoder(species));
+        }
+    }
+
+    /**
+     * 当一个线程对象被销毁前, 调用这个方法释放专属这个线程的解码器
+     */
+    static void removeCurrentDecoder() {
+        decoderMap.remove(Thread.currentThread().getId());
+    }
+
+    /**
+     * 解码, 结果保存在taskBegin, taskEnd, taskMachine, OSTask中, 直到下一次解码前有效
+     *
+     * @param MS     存放MS基因段的数组
+     * @param OS     存放OS基因段的数组
+     * @param offset 两段基因在数组中的起始位置
+     */
+    void decode(int[] MS, int[] OS, int offset) {
+        decode(MS, OS, offset, null, 0);
+    }
+
+    /**
+     * 解码种群中的个体: 从检查点中仍然有效的最后一个检查点继续解码, 之前的步骤直接由记录的时间恢复,
+     * 解码过程中更新个体的检查点. 从检查点继续解码时只保证OSTask和taskEnd有效, 只用于计算适应度
+     *
+     * @param MS          存放MS基因段的数组
+     * @param OS          存放OS基因段的数组
+     * @param offset      两段基因在数组中的起始位置
+     * @param checkpoints 种群的检查点, 为null时从头解码且不记录检查点
+     * @param slot        个体在种群中的序号
+     */
+    void decode(int[] MS, int[] OS, int offset, Checkpoints checkpoints, int slot) {
+        int resume = 0;
+        if (checkpoints != null) {
+            int k = checkpoints.resumePoint(slot);
+            checkpoints.restore(slot, k, machineAvailableTime);
+            resume = k * checkpoints.interval;
+        } else {
+            Arrays.fill(machineAvailableTime, 0.0);
+        }
+        Arrays.fill(pieceOSCount, 0);
+        if (species.parameter.scheduleRule == ScheduleRule.FORWARD) {
+            decodeForward(MS, OS, offset, resume, checkpoints, slot);
+        } else {
+            decodeBackward(MS, OS, offset, resume, checkpoints, slot);
+        }
+        if (checkpoints != null) {
+            checkpoints.decoded(slot);
+        }
+    }
+
+    /**
+     * 将最近一次解码的结果包装成调度方案
+     *
+     * @return 调度方案
+     */
+    Schedule toSchedule() {
+        Problem problem = species.problem;
+        Assignment[] assignments = new Assignment[OSTask.length];
+        for (int i = 0; i < OSTask.length; ++i) {
+            int t = OSTask[i];
+            assignments[i] = new Assignment(problem.tasks[t],
+                    problem.machines[taskMachine[t]], taskBegin[t]);
+        }
+        return new Schedule(problem, assignments);
+    }
+
+    /**
+     * 正排解码, 前resume步由检查点记录的结束时间恢复
+     */
+    private void decodeForward(int[] MS, int[] OS, int offset, int resume,
+                               Checkpoints checkpoints, int slot) {
+        Problem problem = species.problem;
+        int[] piecesTaskBegin = problem.piecesTaskBegin,
+                predecessorBegin = problem.taskPredecessorBegin,
+                predecessors = problem.taskPredecessors;
+        int[][] taskMachines = problem.taskMachines;
+        double[] requireTime = problem.taskRequireTime;
+        boolean[] virtualTask = species.virtualTask;
+        int n = OSTask.length;
+
+        if (resume > 0) {
+            // 恢复前resume步: 只恢复任务的顺序和结束时间, 继续解码和计算适应度只需要这些
+            System.arraycopy(checkpoints.times, slot * n, taskEnd, 0, n);
+            for (int i = 0; i < resume; ++i) {
+                int pId = OS[offset + i];
+                OSTask[i] = piecesTaskBegin[pId] + pieceOSCount[pId]++;
+            }
+        }
+
+        for (int i = resume; i < n; ++i) {
+            if (checkpoints != null && i % checkpoints.interval == 0) {
+                checkpoints.save(slot, i / checkpoints.interval, machineAvailableTime, 0.0);
+            }
+            int pId = OS[offset + i],
+                    t = piecesTaskBegin[pId] + pieceOSCount[pId]++,
+                    m = taskMachines[t][MS[offset + t]];
+
+            double beginAt = 0.0;
+            for (int k = predecessorBegin[t]; k < predecessorBegin[t + 1]; ++k) {
+                beginAt = Math.max(beginAt, taskEnd[predecessors[k]]);
+            }
+
+            double endAt;
+            if (!virtualTask[t]) {
+                // 不是虚拟设备组的
+                beginAt = Math.max(beginAt, machineAvailableTime[m]);
+                endAt = beginAt + requireTime[t];
+                machineAvailableTime[m] = endAt;
+            } else {
+                // 虚拟设备组不需要考虑机器冲突
+                endAt = beginAt + requireTime[t];
+            }
+            taskBegin[t] = beginAt;
+            taskEnd[t] = endAt;
+            taskMachine[t] = m;
+            OSTask[i] = t;
+        }
+        if (checkpoints != null) {
+            System.arraycopy(taskEnd, 0, checkpoints.times, slot * n, n);
+        }
+    }
+
+    /**
+     * 倒排解码, 从OS基因段的末尾开始, 前resume步由检查点记录的开始时间恢复
+     */
+    private void decodeBackward(int[] MS, int[] OS, int offset, int resume,
+                                Checkpoints checkpoints, int slot) {
+        Problem problem = species.problem;
+        int[] taskSuccessor = problem.taskSuccessor;
+        int[][] taskMachines = problem.taskMachines;
+        double[] requireTime = problem.taskRequireTime;
+        boolean[] virtualTask = species.virtualTask;
+
+        int n = OSTask.length;
+
+        // 最早那个任务的分配时间点(负数)
+        double earliest = 0.0;
+        if (resume > 0) {
+            // 恢复前resume步: 只恢复任务的顺序和调整前的开始时间, 继续解码和计算适应度只需要这些
+            System.arraycopy(checkpoints.times, slot * n, taskBegin, 0, n);
+            earliest = checkpoints.earliest(slot, resume / checkpoints.interval);
+            for (int i = n - 1; i >= n - resume; --i) {
+                int pId = OS[offset + i];
+                OSTask[i] = pieceLastTask[pId] - pieceOSCount[pId]++;
+            }
+        }
+
+        for (int i = n - 1 - resume; i >= 0; --i) {
+            if (checkpoints != null && (n - 1 - i) % checkpoints.interval == 0) {
+                checkpoints.save(slot, (n - 1 - i) / checkpoints.interval,
+                        machineAvailableTime, earliest);
+            }
+            int pId = OS[offset + i],
+                    // 倒排时工件的任务从后往前出现
+                    t = pieceLastTask[pId] - pieceOSCount[pId]++,
+                    m = taskMachines[t][MS[offset + t]];
+
+            double endAt = 0.0;
+            if (taskSuccessor[t] != -1) {
+                endAt = Math.min(endAt, taskBegin[taskSuccessor[t]]);
+            }
+
+            double beginAt;
+            if (!virtualTask[t]) {
+                // 不是虚拟设备组的
+                endAt = Math.min(endAt, machineAvailableTime[m]);
+                beginAt = endAt - requireTime[t];
+                machineAvailableTime[m] = beginAt;
+            } else {
+                // 虚拟设备组不需要考虑机器冲突
+                beginAt = endAt - requireTime[t];
+            }
+            earliest = Math.min(earliest, beginAt);
+            taskBegin[t] = beginAt;
+            taskMachine[t] = m;
+            OSTask[i] = t;
+        }
+        if (checkpoints != null) {
+            System.arraycopy(taskBegin, 0, checkpoints.times, slot * n, n);
+        }
+        // 由于beginAt是负数, 所以需要将其调整为非负数
+        for (int t = 0; t < taskBegin.length; ++t) {
+            taskBegin[t] -= earliest;
+            taskEnd[t] = taskBegin[t] + requireTime[t];
+        }
+    }
+
+    /**
+     * 根据物种的问题规模初始化所需资源
+     *
+     * @param species 物种
+     */
+    private Decoder(Species species) {
+        this.species = species;
+        Problem problem = species.problem;
+        machineAvailableTime = new double[problem.machines.length];
+        pieceOSCount = new int[problem.pieces.size()];
+        pieceLastTask = new int[problem.pieces.size()];
+        for (int p = 0; p < pieceLastTask.length; ++p) {
+            pieceLastTask[p] = problem.piecesTaskBegin[p] + problem.pieces.get(p).taskList.size() - 1;
+        }
+        taskBegin = new double[problem.tasks.length];
+        taskEnd = new double[problem.tasks.length];
+        taskMachine = new int[problem.tasks.length];
+        OSTask = new int[problem.tasks.length];
+    }
+
+    // 所属物种的引用
+    final private Species species;
+
+    // 重用变量: 每个设备(稠密下标)的可用时间
+    final private double[] machineAvailableTime;
+    // 重用变量: 每个工件已经出现的个数
+    final private int[] pieceOSCount;
+    // 缓存变量: 每个工件的最后一个任务的稠密下标
+    final private int[] pieceLastTask;
+
+    // 解码结果: 每个任务(稠密下标)的开始时间, 结束时间, 分配的设备稠密下标
+    final double[] taskBegin, taskEnd;
+    final int[] taskMachine;
+    // 解码结果: OS基因段每个位置对应的任务稠密下标
+    final int[] OSTask;
+    // 重用变量: 查询适应度缓存的键
+    final long[] cacheKey = new long[2];
+
+    // 给每个线程分配一个解码器, 维护线程id->对应的解码器
+    final private static Map<Long, Decoder> decoderMap = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,143 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import pers.lyl232.jaapss.problem.Problem;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * 派工规则启发式: 按正排模拟派工, 每次从前驱任务都已派工的任务中按规则选出优先的任务,
+ * 分配到所需设备组中最早可以开始的设备, 派工顺序编码为OS基因段, 选择的设备编码为MS基因段
+ */
+class Dispatcher {
+
+    /**
+     * 预先计算每个任务的最晚完成时间和剩余工作量
+     *
+     * @param species 物种
+     */
+    Dispatcher(Species species) {
+        this.species = species;
+        Problem problem = species.problem;
+        int n = species.geneLength;
+        int[] successor = problem.taskSuccessor;
+        double[] requireTime = problem.taskRequireTime;
+        due = new double[n];
+        work = new double[n];
+        boolean[] computed = new boolean[n];
+        int[] stack = new int[n];
+        for (int t = 0; t < n; ++t) {
+            // 沿后继任务找到第一个已经计算过的任务, 再倒序计算链上的任务
+            int size = 0;
+            for (int s = t; s >= 0 && !computed[s]; s = successor[s]) {
+                stack[size++] = s;
+            }
+            while (size > 0) {
+                int s = stack[--size], next = successor[s];
+                double expire = problem.tasks[s].expireTime;
+                due[s] = expire >= 0 ? expire : Double.POSITIVE_INFINITY;
+                work[s] = requireTime[s];
+                if (next >= 0) {
+                    due[s] = Math.min(due[s], due[next] - requireTime[next]);
+                    work[s] += work[next];
+                }
+                computed[s] = true;
+            }
+        }
+    }
+
+    /**
+     * 按规则派工并编码到基因数组中, OS基因段满足依赖, 仍然经过基因检测器修正
+     *
+     * @param rule   派工规则
+     * @param MS     存放MS基因段的数组
+     * @param OS     存放OS基因段的数组
+     * @param offset 两段基因在数组中的起始位置
+     */
+    void encode(DispatchingRule rule, int[] MS, int[] OS, int offset) {
+        Problem problem = species.problem;
+        int n = species.geneLength;
+        int[] predecessorBegin = problem.taskPredecessorBegin, successor = problem.taskSuccessor;
+        int[][] taskMachines = problem.taskMachines;
+        double[] requireTime = problem.taskRequireTime;
+
+        // 每个任务剩余未派工的前驱个数, 最早开始时间, 优先级(越小越优先)
+        int[] remain = new int[n];
+        double[] readyAt = new double[n], key = new double[n];
+        double[] machineAvailable = new double[problem.machines.length];
+        // 优先级相同时稠密下标小的优先, 结果确定
+        PriorityQueue<Integer> ready = new PriorityQueue<>(
+                (a, b) -> key[a] != key[b] ? Double.compare(key[a], key[b]) : Integer.compare(a, b));
+        for (int t = 0; t < n; ++t) {
+            remain[t] = predecessorBegin[t + 1] - predecessorBegin[t];
+            if (remain[t] == 0) {
+                key[t] = key(rule, t, 0.0);
+                ready.add(t);
+            }
+        }
+
+        int count = 0;
+        while (!ready.isEmpty()) {
+            int t = ready.poll();
+            double endAt;
+            if (species.virtualTask[t]) {
+                // 虚拟设备组不需要考虑机器冲突
+                MS[offset + t] = 0;
+                endAt = readyAt[t] + requireTime[t];
+            } else {
+                // 最早可以开始的设备, 相同时选择序号小的
+                int[] machines = taskMachines[t];
+                int chosen = 0;
+                double beginAt = Double.POSITIVE_INFINITY;
+                for (int k = 0; k < machines.length; ++k) {
+                    double at = Math.max(readyAt[t], machineAvailable[machines[k]]);
+                    if (at < beginAt) {
+                        beginAt = at;
+                        chosen = k;
+                    }
+                }
+                MS[offset + t] = chosen;
+                endAt = beginAt + requireTime[t];
+                machineAvailable[machines[chosen]] = endAt;
+            }
+            OS[offset + count++] = species.OSGeneTemplate[t];
+
+            int s = successor[t];
+            if (s >= 0) {
+                readyAt[s] = Math.max(readyAt[s], endAt);
+                if (--remain[s] == 0) {
+                    key[s] = key(rule, s, readyAt[s]);
+                    ready.add(s);
+                }
+            }
+        }
+        GeneChecker.getCurrentGeneChecker().fixOSGene(OS, offset);
+    }
+
+    /**
+     * @param rule    派工规则
+     * @param t       任务稠密下标
+     * @param readyAt 任务的最早开始时间
+     * @return 任务的优先级, 越小越优先
+     */
+    private double key(DispatchingRule rule, int t, double readyAt) {
+        double requireTime = species.problem.taskRequireTime[t];
+        switch (rule) {
+            case EDD:
+                return due[t];
+            case SPT:
+                return requireTime;
+            case LPT:
+                return -requireTime;
+            case SLACK:
+                return due[t] - readyAt - requireTime;
+            case MWKR:
+                return -work[t];
+        }
+        return 0;
+    }
+
+    final private Species species;
+    // 每个任务(稠密下标)的最晚完成时间(没有计划完成时间时为正无穷), 到最终任务为止的剩余工作量
+    final private double[] due, work;
+}
@@ -0,0 +1,12 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+/**
+ * 生成初始个体的派工规则: 可以开始的任务中优先派工的任务, 设备都选择所需设备组中最早空闲的设备
+ */
+public enum DispatchingRule {
+    EDD, // 最早交期: 任务的最晚完成时间(由后继任务的计划完成时间倒推)最早的优先
+    SPT, // 最短加工时间优先
+    LPT, // 最长加工时间优先
+    SLACK, // 最小松弛时间: 最晚完成时间 - 最早完成时间最小的优先
+    MWKR // 最多剩余工作量: 到最终任务为止的任务链所需时间之和最大的优先
+}
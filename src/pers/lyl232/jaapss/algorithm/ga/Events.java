@@ -0,0 +1,182 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder事件的公共部分: 事件只在有记录进行时才会被提交, 没有记录时只剩下对象创建,
+ * 通常会被JIT消除. 每一代的阶段事件数量很少, 总是记录; 叶子任务, 解码和OS基因修复的调用非常频繁,
+ * 默认只记录超过1 ms的调用, 可以在jfc配置文件中修改threshold
+ */
+final class Events {
+    private Events() {
+    }
+
+    /**
+     * @return 当前线程在物种线程池中的序号, 不是工作线程时为-1
+     */
+    static int workerId() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker ? ((Worker) thread).getPoolIndex() : -1;
+    }
+
+    /**
+     * @return 当前工作线程所属物种的代数, 不是工作线程时为-1
+     */
+    static int generation() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker ? ((Worker) thread).species.generations : -1;
+    }
+
+    // 事件名的前缀和分类
+    final static String PREFIX = "pers.lyl232.jaapss.";
+    final static String CATEGORY = "JAAPSS";
+    // 阶段名, 下标与SpeciesMetrics的阶段编号一致
+    final static String[] PHASES = {"decode", "selection", "crossover", "mutate", "localSearch"};
+}
+
+/**
+ * 物种线程中一个阶段(种群解码, 选择, 交叉, 变异, 局部搜索)的执行
+ */
+@Name(Events.PREFIX + "Phase")
+@Label("GA Phase")
+@Category({Events.CATEGORY, "GA"})
+@Description("One phase of a generation executed by the species thread and its worker pool")
+@StackTrace(false)
+class PhaseEvent extends Event {
+
+    /**
+     * 创建并开始计时, 处理的个数在阶段结束时设置
+     *
+     * @param species 物种
+     * @param phase   阶段编号
+     */
+    PhaseEvent(Species species, int phase) {
+        this.island = species.island != null ? species.island.index : -1;
+        this.generation = species.generations;
+        this.phase = Events.PHASES[phase];
+        this.workers = species.parameter.workers;
+        begin();
+    }
+
+    @Label("Island")
+    @Description("Island index, -1 without the island model")
+    int island;
+    @Label("Generation")
+    int generation;
+    @Label("Phase")
+    String phase;
+    @Label("Batch Size")
+    @Description("Individuals or crossover pairs processed")
+    int batchSize;
+    @Label("Workers")
+    int workers;
+}
+
+/**
+ * 工作线程执行的一个叶子任务
+ */
+@Name(Events.PREFIX + "Task")
+@Label("GA Task")
+@Category({Events.CATEGORY, "GA"})
+@Description("A leaf task executed by a worker thread")
+@StackTrace(false)
+@Threshold("1 ms")
+class TaskEvent extends Event {
+
+    /**
+     * 创建并开始计时, 在工作线程中调用
+     *
+     * @param species   物种
+     * @param phase     阶段编号
+     * @param batchSize 处理的个体数或交叉配对数
+     */
+    TaskEvent(Species species, int phase, int batchSize) {
+        this.generation = species.generations;
+        this.phase = Events.PHASES[phase];
+        this.worker = Events.workerId();
+        this.batchSize = batchSize;
+        begin();
+    }
+
+    @Label("Generation")
+    int generation;
+    @Label("Phase")
+    String phase;
+    @Label("Worker")
+    int worker;
+    @Label("Batch Size")
+    @Description("Individuals or crossover pairs processed")
+    int batchSize;
+}
+
+/**
+ * 一次解码: 计算适应度时的解码, 或者构造调度方案的解码
+ */
+@Name(Events.PREFIX + "Decode")
+@Label("GA Decode")
+@Category({Events.CATEGORY, "GA"})
+@Description("Decoding one individual")
+@StackTrace(false)
+@Threshold("1 ms")
+class DecodeEvent extends Event {
+
+    /**
+     * 创建并开始计时
+     *
+     * @param species     物种
+     * @param incremental 是否从检查点继续解码
+     * @param schedule    是否构造调度方案
+     */
+    DecodeEvent(Species species, boolean incremental, boolean schedule) {
+        this.generation = species.generations;
+        this.worker = Events.workerId();
+        this.tasks = species.geneLength;
+        this.incremental = incremental;
+        this.schedule = schedule;
+        begin();
+    }
+
+    @Label("Generation")
+    int generation;
+    @Label("Worker")
+    int worker;
+    @Label("Tasks")
+    int tasks;
+    @Label("Incremental")
+    @Description("Resumed from a checkpoint")
+    boolean incremental;
+    @Label("Schedule")
+    @Description("Built a schedule instead of only evaluating the fitness")
+    boolean schedule;
+}
+
+/**
+ * 一次OS基因段修复
+ */
+@Name(Events.PREFIX + "FixOSGene")
+@Label("GA Fix OS Gene")
+@Category({Events.CATEGORY, "GA"})
+@Description("Repairing the piece dependencies of one OS gene sequence")
+@StackTrace(false)
+@Threshold("1 ms")
+class FixOSGeneEvent extends Event {
+
+    /**
+     * 创建并开始计时
+     *
+     * @param tasks OS基因段的长度
+     */
+    FixOSGeneEvent(int tasks) {
+        this.generation = Events.generation();
+        this.worker = Events.workerId();
+        this.tasks = tasks;
+        begin();
+    }
+
+    @Label("Generation")
+    int generation;
+    @Label("Worker")
+    int worker;
+    @Label("Tasks")
+    int tasks;
+}
@@ -0,0 +1,154 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 适应度缓存: 以MS和OS基因段的128位散列为键缓存适应度, 已知的基因不需要再解码.
+ * 容量有限, 表按每组4路划分, 组内使用CLOCK算法淘汰; 按组分段加锁, 所有工作线程可以共享
+ */
+class FitnessCache {
+
+    /**
+     * @param capacity 最多缓存的适应度个数, 会向上取整为2的幂, 至少为一组
+     */
+    FitnessCache(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(WAYS, capacity) - 1) * 2 / WAYS;
+        sets = Math.max(1, sets);
+        setMask = sets - 1;
+        keyHigh = new long[sets * WAYS];
+        keyLow = new long[sets * WAYS];
+        values = new double[sets * WAYS];
+        occupied = new boolean[sets * WAYS];
+        referenced = new boolean[sets * WAYS];
+        hands = new int[sets];
+        locks = new Object[Math.min(sets, LOCKS)];
+        for (int i = 0; i < locks.length; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 计算存放在数组某一段中的MS和OS基因段的128位散列
+     *
+     * @param MS     存放MS基因段的数组
+     * @param OS     存放OS基因段的数组
+     * @param offset 两段基因在数组中的起始位置
+     * @param length 基因长度
+     * @param key    输出: key[0]为高64位, key[1]为低64位
+     */
+    static void hash(int[] MS, int[] OS, int offset, int length, long[] key) {
+        long h1 = 0x9E3779B97F4A7C15L, h2 = 0xC2B2AE3D27D4EB4FL;
+        for (int i = offset; i < offset + length; ++i) {
+            long v = ((long) MS[i] << 32) | (OS[i] & 0xFFFFFFFFL);
+            h1 = Long.rotateLeft(h1 ^ (v * 0x87C37B91114253D5L), 31) * 0x4CF5AD432745937FL;
+            h2 = Long.rotateLeft(h2 + (v * 0x4CF5AD432745937FL), 27) * 0x87C37B91114253D5L + 0x52DCE729;
+        }
+        key[0] = mix(h1 ^ length);
+        key[1] = mix(h2 ^ h1);
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @param key 128位散列
+     * @return 缓存的适应度, 未命中返回NaN
+     */
+    double get(long[] key) {
+        int set = (int) key[0] & setMask, base = set * WAYS;
+        synchronized (locks[set % locks.length]) {
+            for (int w = base; w < base + WAYS; ++w) {
+                if (occupied[w] && keyHigh[w] == key[0] && keyLow[w] == key[1]) {
+                    referenced[w] = true;
+                    hits.increment();
+                    return values[w];
+                }
+            }
+        }
+        misses.increment();
+        return Double.NaN;
+    }
+
+    /**
+     * 加入缓存, 组满时按CLOCK算法淘汰一个最近未被访问的适应度
+     *
+     * @param key   128位散列
+     * @param value 适应度
+     */
+    void put(long[] key, double value) {
+        int set = (int) key[0] & setMask, base = set * WAYS;
+        synchronized (locks[set % locks.length]) {
+            int victim = -1;
+            for (int w = base; w < base + WAYS; ++w) {
+                if (!occupied[w]) {
+                    victim = w;
+                    break;
+                }
+                if (keyHigh[w] == key[0] && keyLow[w] == key[1]) {
+                    // 其他线程已经加入
+                    return;
+                }
+            }
+            if (victim == -1) {
+                // CLOCK: 跳过并清除被访问过的位置, 淘汰第一个未被访问过的位置
+                while (referenced[base + hands[set]]) {
+                    referenced[base + hands[set]] = false;
+                    hands[set] = (hands[set] + 1) % WAYS;
+                }
+                victim = base + hands[set];
+                hands[set] = (hands[set] + 1) % WAYS;
+                evictions.increment();
+            }
+            keyHigh[victim] = key[0];
+            keyLow[victim] = key[1];
+            values[victim] = value;
+            occupied[victim] = true;
+            referenced[victim] = false;
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        long hit = getHits(), total = hit + getMisses();
+        return String.format("fitness cache: hits: %d, misses: %d, evictions: %d, hit rate: %.2f%%",
+                hit, total - hit, getEvictions(), total > 0 ? 100.0 * hit / total : 0.0);
+    }
+
+    /**
+     * 64位散列的最终混合(MurmurHash3 fmix64)
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // 每组的路数, 分段锁的最大个数
+    final private static int WAYS = 4, LOCKS = 64;
+
+    final private int setMask;
+    // 每个位置的键(高64位, 低64位), 适应度, 是否有效, 最近是否被访问过
+    final private long[] keyHigh, keyLow;
+    final private double[] values;
+    final private boolean[] occupied, referenced;
+    // 每组的CLOCK指针
+    final private int[] hands;
+    final private Object[] locks;
+    // 统计: 命中, 未命中, 淘汰次数
+    final private LongAdder hits = new LongAdder(), misses = new LongAdder(),
+            evictions = new LongAdder();
+}
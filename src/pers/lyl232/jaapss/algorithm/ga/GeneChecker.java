@@ -4,6 +4,7 @@ import pers.lyl232.jaapss.problem.Piece;
 import pers.lyl232.jaapss.problem.Problem;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 基因校验器, 验证基因有效性并纠错, 考虑到执行的操作比较频繁, 其实现并不是线程安全的
@@ -20,12 +21,13 @@ public class GeneChecker {
     }
 
     /**
-     * 给当前线程新分配一个基因检测器
+     * 给当前线程新分配一个基因检测器, 如果已有的检测器属于其他问题, 则替换掉
      *
      * @param problem 问题引用
      */
     static void initializeCurrentGeneChecker(Problem problem) {
-        if (geneCheckerMap.get(Thread.currentThread().getId()) == null) {
+        GeneChecker checker = geneCheckerMap.get(Thread.currentThread().getId());
+        if (checker == null || checker.problem != problem) {
             geneCheckerMap.put(Thread.currentThread().getId(), new GeneChecker(problem));
         }
     }
@@ -43,13 +45,24 @@ public class GeneChecker {
      * @param geneSeq 需要校验和修正的OS基因段
      */
     public void fixOSGene(int[] geneSeq) {
+        fixOSGene(geneSeq, 0);
+    }
+
+    /**
+     * 校验并修正存放在数组某一段中的OS基因段, 使得工件间的依赖得以保持
+     *
+     * @param geneSeq 存放OS基因段的数组
+     * @param offset  OS基因段在数组中的起始位置, 长度为问题的任务数
+     */
+    public void fixOSGene(int[] geneSeq, int offset) {
+        FixOSGeneEvent event = new FixOSGeneEvent(problem.tasks.length);
         Arrays.fill(queue, 0);
         System.arraycopy(problem.piecesDependencyCount, 0, remainDependencyCount, 0, remainDependencyCount.length);
 
         // 重排时第一个不确定是否正确的位置
-        int reIndex = 0;
+        int reIndex = offset;
         // 扫描基因错误位置, 将不符合拓扑排序的位置记录到错误队列中
-        for (int i = 0; i < geneSeq.length; ++i) {
+        for (int i = offset; i < offset + problem.tasks.length; ++i) {
             int pId = geneSeq[i];
             // 检测当前工件是否仍有依赖
             if (remainDependencyCount[pId] > 0) {
@@ -82,6 +95,7 @@ public class GeneChecker {
                 }
             }
         }
+        event.commit();
     }
 
     /**
@@ -103,6 +117,6 @@ public class GeneChecker {
     // 重用变量: 每个工件在重排队列中的个数
     final private int[] queue;
     // 为了防止多线程访问检测器冲突, 并且能够在任意地方访问到基因检测器,
-    // 给每个线程分配一个检测器, 维护线程id->对应的检测器
-    final private static Map<Long, GeneChecker> geneCheckerMap = new HashMap<>();
+    // 给每个线程分配一个检测器, 维护线程id->对应的检测器, 线程池的工作线程会并发注册
+    final private static Map<Long, GeneChecker> geneCheckerMap = new ConcurrentHashMap<>();
 }
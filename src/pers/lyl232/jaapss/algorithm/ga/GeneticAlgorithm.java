@@ -1,9 +1,12 @@
 package pers.lyl232.jaapss.algorithm.ga;
 
 import pers.lyl232.jaapss.algorithm.Solver;
+import pers.lyl232.jaapss.data.AssignmentInfo;
 import pers.lyl232.jaapss.problem.Problem;
 import pers.lyl232.jaapss.problem.Schedule;
 
+import java.util.List;
+
 /**
  * 遗传算法
  */
@@ -15,7 +18,13 @@ public class GeneticAlgorithm implements Solver {
      */
     public GeneticAlgorithm(Problem problem, Species.Parameter parameter)
             throws Exception {
-        this.species = new Species(problem, parameter);
+        if (parameter.islands > 1) {
+            this.islandModel = new IslandModel(problem, parameter);
+            this.species = null;
+        } else {
+            this.islandModel = null;
+            this.species = new Species(problem, parameter);
+        }
     }
 
     /**
@@ -27,13 +36,79 @@ public class GeneticAlgorithm implements Solver {
         this.verbose = verbose;
     }
 
+    /**
+     * 设置热启动方案: 初始种群的一部分由之前的调度方案编码得到
+     *
+     * @param previous 之前的调度方案中按开始时间排列的任务分配, null表示不使用
+     */
+    public void setWarmStart(List<AssignmentInfo> previous) {
+        if (this.islandModel != null) {
+            this.islandModel.setWarmStart(previous);
+        } else {
+            this.species.setWarmStart(previous);
+        }
+    }
+
+    /**
+     * 要求正在运行的算法尽快停止, 可以在任意线程中调用, solve返回已经找到的最佳方案
+     */
+    @Override
+    public void stop() {
+        if (this.islandModel != null) {
+            this.islandModel.stop();
+        } else {
+            this.species.stop();
+        }
+    }
+
     @Override
     public Schedule solve() throws Exception {
-        return this.species.start(this.verbose).decode();
+        try {
+            Individual best = this.islandModel != null ?
+                    this.islandModel.start(this.verbose) : this.species.start(this.verbose);
+            this.bestFitness = best.getFitness();
+            return best.decode();
+        } finally {
+            releaseCurrentThread();
+        }
+    }
+
+    /**
+     * 移除当前线程的基因检测器和解码器: 它们引用整个物种, 构造求解器之后没有调用solve(例如加载热启动方案失败)时,
+     * 长期运行的线程应在任务结束时调用, 避免一直持有
+     */
+    public static void releaseCurrentThread() {
+        GeneChecker.removeCurrentGeneChecker();
+        Decoder.removeCurrentDecoder();
+    }
+
+    /**
+     * @return 最近一次求解得到的最佳个体的适应度
+     */
+    public double getBestFitness() {
+        return bestFitness;
+    }
+
+    /**
+     * @return 最近一次求解进行的代数, 岛屿模型中为各岛屿代数的最大值
+     */
+    public int getGenerations() {
+        if (this.islandModel == null) {
+            return this.species.generations;
+        }
+        int generations = 0;
+        for (Species island : this.islandModel.islands) {
+            generations = Math.max(generations, island.generations);
+        }
+        return generations;
     }
 
     // 是否显示算法运行时信息
     private boolean verbose = false;
-    // 种群对象
+    // 最近一次求解得到的最佳适应度
+    private double bestFitness = Double.NaN;
+    // 种群对象, 使用岛屿模型时为null
     final private Species species;
+    // 岛屿模型, 只有一个岛屿时为null
+    final private IslandModel islandModel;
 }
@@ -0,0 +1,147 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import pers.lyl232.jaapss.algorithm.ParameterException;
+import pers.lyl232.jaapss.data.AssignmentInfo;
+import pers.lyl232.jaapss.problem.Problem;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 岛屿模型: 多个互相独立的种群各自在自己的线程中迭代, 代与代之间不需要同步,
+ * 每隔若干代按环形或者随机拓扑将各自的精英个体通过无锁信箱发送给其他岛屿.
+ * 由于岛屿之间异步运行, 迁移到达的时机与线程调度有关, 结果不保证可以复现
+ */
+public class IslandModel {
+
+    /**
+     * 迁移拓扑
+     */
+    public enum Topology {
+        RING, // 环形: 第i个岛屿发送给第i+1个岛屿
+        RANDOM // 随机: 每次迁移随机选择一个其他岛屿
+    }
+
+    /**
+     * @param problem   问题描述对象
+     * @param parameter 算法参数, 线程数在岛屿间平分, 每个岛屿的随机种子由全局随机种子生成
+     */
+    public IslandModel(Problem problem, Species.Parameter parameter) throws Exception {
+        if (parameter.islands < 2) {
+            throw new ParameterException("GA.islands must be greater than 1 in island mode.");
+        }
+        islands = new Species[parameter.islands];
+        Random random = new Random(parameter.seed);
+        for (int k = 0; k < islands.length; ++k) {
+            Species.Parameter islandParameter = new Species.Parameter(parameter);
+            islandParameter.seed = random.nextLong();
+            islandParameter.workers = Math.max(1, parameter.workers / islands.length);
+            islands[k] = new Species(problem, islandParameter);
+            islands[k].island = new Island(this, k, random.nextLong());
+        }
+    }
+
+    /**
+     * 启动所有岛屿并等待它们结束
+     *
+     * @param verbose 是否打印每一代的统计信息
+     * @return 所有岛屿中的最佳个体
+     */
+    public Individual start(boolean verbose) throws Exception {
+        Individual[] results = new Individual[islands.length];
+        Exception[] exceptions = new Exception[islands.length];
+        Thread[] threads = new Thread[islands.length];
+        for (int k = 0; k < islands.length; ++k) {
+            final int index = k;
+            threads[k] = new Thread(() -> {
+                try {
+                    results[index] = islands[index].start(verbose);
+                } catch (Exception exception) {
+                    exceptions[index] = exception;
+                    // 其他岛屿没有必要继续
+                    stopped = true;
+                } finally {
+                    // 岛屿线程结束前移除在start中初始化的非线程安全类, 否则静态表会一直引用物种和种群
+                    GeneChecker.removeCurrentGeneChecker();
+                    Decoder.removeCurrentDecoder();
+                }
+            }, "GA.Island-" + k);
+            threads[k].setDaemon(true);
+            threads[k].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Individual best = null;
+        for (int k = 0; k < islands.length; ++k) {
+            if (exceptions[k] != null) {
+                throw exceptions[k];
+            }
+            if (best == null || best.getFitness() < results[k].getFitness()) {
+                best = results[k];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 给所有岛屿设置相同的热启动方案
+     *
+     * @param previous 之前的调度方案中按开始时间排列的任务分配, null表示不使用
+     */
+    public void setWarmStart(List<AssignmentInfo> previous) {
+        for (Species species : islands) {
+            species.setWarmStart(previous);
+        }
+    }
+
+    /**
+     * 要求所有岛屿尽快停止, 可以在任意线程中调用, start返回所有岛屿已经找到的最佳个体
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    // 所有岛屿
+    final Species[] islands;
+    // 是否有岛屿已经达到目标适应度, 出现异常或者被要求停止, 所有岛屿在下一个个体之前停止
+    volatile boolean stopped = false;
+}
+
+/**
+ * 岛屿: 种群在岛屿模型中的位置和信箱
+ */
+class Island {
+
+    Island(IslandModel model, int index, long seed) {
+        this.model = model;
+        this.index = index;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * 选择迁移的目标岛屿
+     *
+     * @return 目标岛屿的种群
+     */
+    Species target() {
+        Species[] islands = model.islands;
+        Species.Parameter parameter = islands[index].parameter;
+        if (parameter.migrationTopology == IslandModel.Topology.RANDOM) {
+            int k = random.nextInt(islands.length - 1);
+            return islands[k < index ? k : k + 1];
+        }
+        return islands[(index + 1) % islands.length];
+    }
+
+    // 所属岛屿模型
+    final IslandModel model;
+    // 岛屿序号
+    final int index;
+    // 选择随机拓扑目标的随机对象, 只由本岛屿的线程使用
+    final private Random random;
+    // 信箱: 其他岛屿发送来的迁移个体, 无锁队列
+    final Queue<Individual> inbox = new ConcurrentLinkedQueue<>();
+}
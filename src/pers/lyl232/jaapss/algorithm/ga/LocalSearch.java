@@ -0,0 +1,155 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+/**
+ * 局部搜索(模因算法): 在精英个体上沿关键路径进行首次改进的邻域搜索, 结果原地写回种群.
+ * <p>
+ * 邻域: 关键任务在设备组内换用其他设备, 以及与在同一设备上阻塞它的关键任务交换OS位置或者插入到其之前.
+ * 邻域解直接在种群中原地评估, 使用检查点时只从变化位置之前继续解码,
+ * 不被接受时恢复基因和适应度. 每个工作线程持有一个, 不是线程安全的
+ */
+class LocalSearch {
+
+    /**
+     * @param species 所属物种
+     */
+    LocalSearch(Species species) {
+        this.species = species;
+        n = species.geneLength;
+        path = new CriticalPath(species);
+        savedOS = new int[n];
+    }
+
+    /**
+     * 改进当前代的一个个体, 直到邻域中没有更优的解或者评估次数用完
+     *
+     * @param i      个体序号
+     * @param budget 最多评估的邻域解个数
+     */
+    void improve(int i, int budget) {
+        Population population = species.population;
+        int[] MS = population.MS, OS = population.OS, MSRange = species.MSRange,
+                chain = path.chain, position = path.position;
+        int offset = i * n;
+        fitness = population.getFitness(i);
+        evaluations = 0;
+
+        search:
+        while (evaluations < budget && fitness < species.evaluator.getOptimized() - 1e-5) {
+            int length = path.find(MS, OS, offset);
+            for (int k = 0; k < length; ++k) {
+                int t = chain[k];
+                // 在设备组内换用其他设备
+                if (!species.virtualTask[t]) {
+                    int current = MS[offset + t];
+                    for (int d = 1; d < MSRange[t]; ++d) {
+                        if (evaluations >= budget || species.stopping()) {
+                            break search;
+                        }
+                        if (tryMS(i, t, (current + d) % MSRange[t])) {
+                            continue search;
+                        }
+                    }
+                }
+                // 在同一设备上阻塞它的关键任务之前执行: 交换, 插入
+                if (path.machineLink(k)) {
+                    int from = position[t], to = position[chain[k + 1]];
+                    if (evaluations >= budget || species.stopping()) {
+                        break search;
+                    }
+                    if (tryOS(i, from, to, false)) {
+                        continue search;
+                    }
+                    if (Math.abs(from - to) > 1) {
+                        if (evaluations >= budget || species.stopping()) {
+                            break search;
+                        }
+                        if (tryOS(i, from, to, true)) {
+                            continue search;
+                        }
+                    }
+                }
+            }
+            // 邻域中没有更优的解
+            break;
+        }
+    }
+
+    /**
+     * 尝试将任务换用设备组内的另一个设备, 不更优时恢复
+     *
+     * @return 是否接受
+     */
+    private boolean tryMS(int i, int t, int value) {
+        Population population = species.population;
+        int p = i * n + t, old = population.MS[p];
+        population.MS[p] = value;
+        if (accept(i, path.position[t], path.position[t])) {
+            return true;
+        }
+        population.MS[p] = old;
+        return false;
+    }
+
+    /**
+     * 尝试将OS位置from上的基因与to上的交换或者插入到to处, 修正依赖后评估, 不更优时恢复
+     *
+     * @return 是否接受
+     */
+    private boolean tryOS(int i, int from, int to, boolean insert) {
+        int[] OS = species.population.OS;
+        int offset = i * n;
+        System.arraycopy(OS, offset, savedOS, 0, n);
+        CriticalPath.moveOS(OS, offset, from, to, insert);
+
+        // 修正后实际改变的区间
+        int low = 0, high = n - 1;
+        while (low < n && OS[offset + low] == savedOS[low]) {
+            ++low;
+        }
+        if (low == n) {
+            return false;
+        }
+        while (OS[offset + high] == savedOS[high]) {
+            --high;
+        }
+        if (accept(i, low, high)) {
+            return true;
+        }
+        System.arraycopy(savedOS, low, OS, offset + low, high - low + 1);
+        return false;
+    }
+
+    /**
+     * 评估已经在原地修改的个体, 不更优时恢复适应度, 基因由调用者恢复
+     *
+     * @param low  改变的第一个OS位置
+     * @param high 改变的最后一个OS位置
+     * @return 是否更优
+     */
+    private boolean accept(int i, int low, int high) {
+        Population population = species.population;
+        ++evaluations;
+        population.changed(i, low, high);
+        double result = population.getFitness(i);
+        if (result > fitness + EPS) {
+            fitness = result;
+            return true;
+        }
+        population.restore(i, fitness, low, high);
+        return false;
+    }
+
+    // 比较适应度的误差
+    final private static double EPS = 1e-9;
+
+    final private Species species;
+    // 基因长度
+    final private int n;
+    // 本线程的关键路径
+    final private CriticalPath path;
+    // 重用变量: 修改前的OS基因段
+    final private int[] savedOS;
+    // 当前个体的适应度, 本次改进已经评估的邻域解个数
+    private double fitness;
+    private int evaluations;
+}
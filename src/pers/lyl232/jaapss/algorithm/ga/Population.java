@@ -0,0 +1,464 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import pers.lyl232.jaapss.problem.ScheduleRule;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 种群基因存储: 所有个体的MS和OS基因分别连续存放在两个数组中, 第i个个体的基因位于
+ * [i * geneLength, (i + 1) * geneLength), 适应度存放在平行数组中. 持有当前代和下一代两份存储,
+ * 选择过程将当前代复制到下一代后交换, 交叉和变异在当前代上原地进行, 迭代过程中不会分配个体对象
+ */
+class Population {
+
+    /**
+     * 交叉过程所需的重用数组, 每个工作线程持有一个, 不是线程安全的
+     */
+    static class CrossoverBuffer {
+        CrossoverBuffer(int geneLength) {
+            for (int k = 0; k < 2; ++k) {
+                OS[k] = new int[geneLength];
+                MS[k] = new int[geneLength];
+                keptMS[k] = new int[geneLength];
+            }
+            OSStepCount = new int[geneLength];
+            OSStep = new int[geneLength];
+            skip = new boolean[geneLength];
+        }
+
+        // 两个子代的OS基因段
+        final int[][] OS = new int[2][];
+        // 两个尝试中的子代的MS基因段
+        final int[][] MS = new int[2][];
+        // 保留的最优的两个子代的MS基因段, 所使用的OS基因段序号和适应度
+        final int[][] keptMS = new int[2][];
+        final int[] keptOS = new int[2];
+        final double[] keptFitness = new double[2];
+        // OS交叉: 每个工件当前执行到的工序, OS每个位置对应的工序, 直接遗传而需要跳过的任务(稠密下标)
+        final int[] OSStepCount, OSStep;
+        final boolean[] skip;
+    }
+
+    /**
+     * @param species 所属物种
+     * @param size    种群大小
+     */
+    Population(Species species, int size) {
+        this.species = species;
+        this.size = size;
+        this.geneLength = species.geneLength;
+        MS = new int[size * geneLength];
+        OS = new int[size * geneLength];
+        fitness = new double[size];
+        evaluated = new boolean[size];
+        nextMS = new int[size * geneLength];
+        nextOS = new int[size * geneLength];
+        nextFitness = new double[size];
+        nextEvaluated = new boolean[size];
+        int count = species.parameter.checkpoints;
+        if (count > 0) {
+            int machines = species.problem.machines.length;
+            count = Math.min(count, geneLength);
+            checkpoints = new Checkpoints(size, geneLength, machines, count);
+            nextCheckpoints = new Checkpoints(size, geneLength, machines, count);
+        }
+    }
+
+    /**
+     * 获取个体的适应度, 未计算过则使用当前线程的解码器计算并缓存,
+     * 不同线程可以同时计算不同个体的适应度
+     *
+     * @param i 个体序号
+     * @return 适应度
+     */
+    double getFitness(int i) {
+        if (!evaluated[i]) {
+            fitness[i] = evaluate(MS, OS, i * geneLength, i);
+            evaluated[i] = true;
+        }
+        return fitness[i];
+    }
+
+    /**
+     * 复制出一个独立的个体对象, 用于保存最佳个体和输出
+     *
+     * @param i 个体序号
+     * @return 个体
+     */
+    Individual get(int i) {
+        int offset = i * geneLength;
+        return new Individual(species,
+                Arrays.copyOfRange(MS, offset, offset + geneLength),
+                Arrays.copyOfRange(OS, offset, offset + geneLength),
+                getFitness(i));
+    }
+
+    /**
+     * 用一个独立的个体替换当前代的指定位置, 用于岛屿之间的迁移
+     *
+     * @param i          个体序号
+     * @param individual 个体, 基因长度必须一致
+     */
+    void set(int i, Individual individual) {
+        System.arraycopy(individual.MS, 0, MS, i * geneLength, geneLength);
+        System.arraycopy(individual.OS, 0, OS, i * geneLength, geneLength);
+        fitness[i] = individual.getFitness();
+        evaluated[i] = true;
+        if (checkpoints != null) {
+            checkpoints.invalidate(i);
+        }
+    }
+
+    /**
+     * 将当前代的个体复制到下一代的指定位置
+     *
+     * @param from 当前代的个体序号
+     * @param to   下一代的个体序号
+     */
+    void copyToNext(int from, int to) {
+        System.arraycopy(MS, from * geneLength, nextMS, to * geneLength, geneLength);
+        System.arraycopy(OS, from * geneLength, nextOS, to * geneLength, geneLength);
+        nextFitness[to] = fitness[from];
+        nextEvaluated[to] = evaluated[from];
+        if (checkpoints != null) {
+            checkpoints.copyTo(from, nextCheckpoints, to);
+        }
+    }
+
+    /**
+     * 交换当前代和下一代
+     */
+    void swap() {
+        int[] temp = MS;
+        MS = nextMS;
+        nextMS = temp;
+        temp = OS;
+        OS = nextOS;
+        nextOS = temp;
+        double[] tempFitness = fitness;
+        fitness = nextFitness;
+        nextFitness = tempFitness;
+        boolean[] tempEvaluated = evaluated;
+        evaluated = nextEvaluated;
+        nextEvaluated = tempEvaluated;
+        Checkpoints tempCheckpoints = checkpoints;
+        checkpoints = nextCheckpoints;
+        nextCheckpoints = tempCheckpoints;
+    }
+
+    /**
+     * 基因被整体替换后清除缓存的适应度和解码检查点
+     *
+     * @param i 个体序号
+     */
+    void invalidate(int i) {
+        evaluated[i] = false;
+        if (checkpoints != null) {
+            checkpoints.invalidate(i);
+        }
+    }
+
+    /**
+     * 基因局部改变后清除缓存的适应度, OS基因段中[low, high]以外的部分与改变前相同,
+     * 解码顺序中在这个区间之前的检查点仍然有效
+     *
+     * @param i    个体序号
+     * @param low  改变的第一个OS位置
+     * @param high 改变的最后一个OS位置
+     */
+    void changed(int i, int low, int high) {
+        evaluated[i] = false;
+        if (checkpoints != null) {
+            checkpoints.changed(i, species.parameter.scheduleRule == ScheduleRule.FORWARD ?
+                    low : geneLength - 1 - high);
+        }
+    }
+
+    /**
+     * 局部改变被撤销, 基因已经恢复为改变前的基因: 直接恢复适应度,
+     * 检查点中[low, high]之后的部分在评估改变后的基因时已被覆盖, 仍然失效
+     *
+     * @param i       个体序号
+     * @param fitness 改变前的适应度
+     * @param low     改变的第一个OS位置
+     * @param high    改变的最后一个OS位置
+     */
+    void restore(int i, double fitness, int low, int high) {
+        changed(i, low, high);
+        this.fitness[i] = fitness;
+        evaluated[i] = true;
+    }
+
+    /**
+     * MS段变异: 随机选一个MS段的位置修改其值为任务对应设备组所拥有的设备数之内的一个随机值
+     * 不需要检测
+     *
+     * @param i      个体序号
+     * @param random 随机对象
+     */
+    void MSMutate(int i, Random random) {
+        int offset = i * geneLength, pos = random.nextInt(geneLength),
+                value = random.nextInt(species.MSRange[pos]);
+        if (MS[offset + pos] == value) {
+            return;
+        }
+        MS[offset + pos] = value;
+        if (checkpoints == null) {
+            evaluated[i] = false;
+            return;
+        }
+        // 找到任务在OS基因段中的位置: 任务所属工件的第(pos - 工件起始位置)次出现,
+        // 基因模板按稠密任务表排列, 所以OSGeneTemplate[pos]即为任务所属的工件
+        int pId = species.OSGeneTemplate[pos],
+                step = pos - species.problem.piecesTaskBegin[pId], p = offset;
+        while (OS[p] != pId || step-- > 0) {
+            ++p;
+        }
+        changed(i, p - offset, p - offset);
+    }
+
+    /**
+     * OS段变异: 随机选择两个位置交换, 注意有可能导致工件之间的依赖错误, 需要进行检测
+     *
+     * @param i      个体序号
+     * @param random 随机对象
+     */
+    void OSMutate(int i, Random random) {
+        int offset = i * geneLength,
+                pos1 = offset + random.nextInt(geneLength),
+                pos2 = offset + random.nextInt(geneLength),
+                temp = OS[pos1];
+        OS[pos1] = OS[pos2];
+        OS[pos2] = temp;
+        // 交换前的基因满足依赖, 修复只会重排两个交换位置之间的部分
+        GeneChecker.getCurrentGeneChecker().fixOSGene(OS, offset);
+        changed(i, Math.min(pos1, pos2) - offset, Math.max(pos1, pos2) - offset);
+    }
+
+    /**
+     * 两个父代的交叉操作: MS与OS都交叉, OS交叉后会导致基因错误, 需要检错和修复,
+     * 最优的两个子代原地替换两个父代
+     *
+     * @param i             父代1的序号
+     * @param j             父代2的序号
+     * @param MSCrossRepeat MS基因段重复交叉次数
+     * @param random        随机对象
+     * @param buffer        当前线程的交叉重用数组
+     */
+    void crossover(int i, int j, int MSCrossRepeat, Random random, CrossoverBuffer buffer) {
+        int p1 = i * geneLength, p2 = j * geneLength;
+        int[][] childOS = buffer.OS, childMS = buffer.MS, keptMS = buffer.keptMS;
+        int[] keptOS = buffer.keptOS;
+        double[] keptFitness = buffer.keptFitness;
+
+        OSCrossover(p1, p2, childOS[0], childOS[1], random, buffer);
+        // OS交叉操作有可能导致基因排序错误
+        GeneChecker checker = GeneChecker.getCurrentGeneChecker();
+        checker.fixOSGene(childOS[0]);
+        checker.fixOSGene(childOS[1]);
+        MSCrossover(p1, p2, childMS[0], childMS[1], random);
+
+        for (int k = 0; k < 2; ++k) {
+            System.arraycopy(childMS[k], 0, keptMS[k], 0, geneLength);
+            keptOS[k] = k;
+            keptFitness[k] = evaluate(childMS[k], childOS[k], 0, -1);
+        }
+        // 维护适应度: 保留的子代0 >= 保留的子代1
+        if (keptFitness[0] < keptFitness[1]) {
+            swapKept(buffer);
+        }
+
+        // MS段重复交叉(因为开销小), 选择最优的两个子代
+        for (int r = 0; r < MSCrossRepeat; ++r) {
+            MSCrossover(p1, p2, childMS[0], childMS[1], random);
+            for (int k = 0; k < 2; ++k) {
+                double f = evaluate(childMS[k], childOS[k], 0, -1);
+                if (f > keptFitness[0]) {
+                    // 原来最优的变为次优, 次优的被替换
+                    swapKept(buffer);
+                    keep(buffer, 0, k, f);
+                } else if (f > keptFitness[1]) {
+                    keep(buffer, 1, k, f);
+                }
+            }
+        }
+
+        System.arraycopy(keptMS[0], 0, MS, p1, geneLength);
+        System.arraycopy(childOS[keptOS[0]], 0, OS, p1, geneLength);
+        fitness[i] = keptFitness[0];
+        evaluated[i] = true;
+        System.arraycopy(keptMS[1], 0, MS, p2, geneLength);
+        System.arraycopy(childOS[keptOS[1]], 0, OS, p2, geneLength);
+        fitness[j] = keptFitness[1];
+        evaluated[j] = true;
+        if (checkpoints != null) {
+            checkpoints.invalidate(i);
+            checkpoints.invalidate(j);
+        }
+    }
+
+    /**
+     * 计算适应度: 先查询物种的适应度缓存, 未命中时使用当前线程的解码器解码并直接计算适应度
+     *
+     * @param MS     存放MS基因段的数组
+     * @param OS     存放OS基因段的数组
+     * @param offset 两段基因在数组中的起始位置
+     * @param slot   种群中的个体序号, 个体的检查点可用于继续解码; 不在种群中时为-1
+     * @return 适应度
+     */
+    private double evaluate(int[] MS, int[] OS, int offset, int slot) {
+        Decoder decoder = Decoder.getCurrentDecoder();
+        FitnessCache cache = species.fitnessCache;
+        if (cache != null) {
+            FitnessCache.hash(MS, OS, offset, geneLength, decoder.cacheKey);
+            double cached = cache.get(decoder.cacheKey);
+            if (!Double.isNaN(cached)) {
+                species.metrics.evaluated(false);
+                return cached;
+            }
+        }
+        boolean incremental = slot >= 0 && checkpoints != null;
+        DecodeEvent event = new DecodeEvent(species, incremental, false);
+        if (incremental) {
+            decoder.decode(MS, OS, offset, checkpoints, slot);
+        } else {
+            decoder.decode(MS, OS, offset);
+        }
+        double result = species.evaluator.evaluate(decoder.OSTask, decoder.taskEnd);
+        event.commit();
+        species.metrics.evaluated(true);
+        if (cache != null) {
+            cache.put(decoder.cacheKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * 交换保留的两个子代
+     */
+    private static void swapKept(CrossoverBuffer buffer) {
+        int[] tempMS = buffer.keptMS[0];
+        buffer.keptMS[0] = buffer.keptMS[1];
+        buffer.keptMS[1] = tempMS;
+        int tempOS = buffer.keptOS[0];
+        buffer.keptOS[0] = buffer.keptOS[1];
+        buffer.keptOS[1] = tempOS;
+        double tempFitness = buffer.keptFitness[0];
+        buffer.keptFitness[0] = buffer.keptFitness[1];
+        buffer.keptFitness[1] = tempFitness;
+    }
+
+    /**
+     * 将尝试中的子代k保留到位置slot
+     */
+    private void keep(CrossoverBuffer buffer, int slot, int k, double f) {
+        System.arraycopy(buffer.MS[k], 0, buffer.keptMS[slot], 0, geneLength);
+        buffer.keptOS[slot] = k;
+        buffer.keptFitness[slot] = f;
+    }
+
+    /**
+     * MS交叉操作: 每个位置随机交换或者不换
+     */
+    private void MSCrossover(int p1, int p2, int[] c1, int[] c2, Random random) {
+        for (int i = 0; i < geneLength; ++i) {
+            if (random.nextInt(2) == 0) {
+                c1[i] = MS[p1 + i];
+                c2[i] = MS[p2 + i];
+            } else {
+                c1[i] = MS[p2 + i];
+                c2[i] = MS[p1 + i];
+            }
+        }
+    }
+
+    /**
+     * OS交叉操作: 顺序交叉法
+     */
+    private void OSCrossover(int p1, int p2, int[] c1, int[] c2,
+                             Random random, CrossoverBuffer buffer) {
+        int pos1 = random.nextInt(geneLength),
+                pos2 = random.nextInt(geneLength);
+        if (pos1 > pos2) {
+            int temp = pos1;
+            pos1 = pos2;
+            pos2 = temp;
+        }
+        // 填充子代的剩余部分
+        OSCrossoverFill(p1, p2, c1, pos1, pos2, buffer);
+        OSCrossoverFill(p2, p1, c2, pos1, pos2, buffer);
+    }
+
+    /**
+     * OS交叉过程的子代剩余部分填充部分
+     *
+     * @param directParent 直接遗传的父代的OS基因段起始位置
+     * @param fillParent   填充剩余基因的父代的OS基因段起始位置
+     * @param child        子代OS基因段
+     * @param pos1         直接遗传的起始位置
+     * @param pos2         直接遗传的终止位置
+     * @param buffer       重用数组
+     */
+    private void OSCrossoverFill(int directParent, int fillParent, int[] child,
+                                 int pos1, int pos2, CrossoverBuffer buffer) {
+        int[] OSStepCount = buffer.OSStepCount, OSStep = buffer.OSStep,
+                piecesTaskBegin = species.problem.piecesTaskBegin;
+        boolean[] skip = buffer.skip;
+        Arrays.fill(OSStepCount, 0);
+        for (int i = 0; i < geneLength; ++i) {
+            OSStep[i] = (OSStepCount[OS[directParent + i]])++;
+        }
+        // 因为直接遗传避免重复而需要跳过的<工件, 工序>, 即工件对应的任务
+        Arrays.fill(skip, false);
+        // 直接遗传的部分
+        for (int i = pos1; i <= pos2; ++i) {
+            int pId = OS[directParent + i];
+            child[i] = pId;
+            skip[piecesTaskBegin[pId] + OSStep[i]] = true;
+        }
+
+        // 子代下一个需要填充的基因位置
+        int childOSPtr = (pos2 + 1 >= geneLength) ? 0 : pos2 + 1;
+
+        Arrays.fill(OSStepCount, 0);
+
+        // 另一个父代从pos2开始循环填充, 直到遗传了pos2上的基因为止
+        for (int i = pos2 + 1; ; ++i) {
+            // 循环
+            if (i >= geneLength) {
+                i = 0;
+            }
+            int pId = OS[fillParent + i], step = OSStepCount[pId]++,
+                    pieceEnd = pId + 1 < piecesTaskBegin.length ? piecesTaskBegin[pId + 1] : geneLength;
+            // 如果出现了已经直接遗传的<工件, 工序>, 直接跳过; 扫描第二圈时工序超出工件的任务数, 不再跳过
+            if (piecesTaskBegin[pId] + step < pieceEnd && skip[piecesTaskBegin[pId] + step]) {
+                continue;
+            }
+            // 否则遗传这个基因
+            child[childOSPtr++] = pId;
+            if (i == pos2) {
+                // 循环了一圈
+                break;
+            }
+            if (childOSPtr >= geneLength) {
+                childOSPtr = 0;
+            }
+        }
+    }
+
+    // 所属物种
+    final private Species species;
+    // 种群大小, 基因长度
+    final int size, geneLength;
+    // 当前代的基因, 适应度, 适应度是否已经计算
+    int[] MS, OS;
+    double[] fitness;
+    boolean[] evaluated;
+    // 下一代的存储
+    private int[] nextMS, nextOS;
+    private double[] nextFitness;
+    private boolean[] nextEvaluated;
+    // 当前代和下一代的解码检查点, 为null表示不使用检查点
+    private Checkpoints checkpoints, nextCheckpoints;
+}
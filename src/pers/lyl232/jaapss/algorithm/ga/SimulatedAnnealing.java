@@ -0,0 +1,414 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import pers.lyl232.jaapss.algorithm.ParameterException;
+import pers.lyl232.jaapss.algorithm.Solver;
+import pers.lyl232.jaapss.problem.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 并行回火模拟退火: 与遗传算法使用相同的MS/OS编码, 解码器和基因检测器. 若干副本分别在不同的固定温度上
+ * 并行地进行模拟退火(随机换用设备或交换OS位置, 按Metropolis准则接受), 每隔若干步相邻温度的副本按
+ * 交换准则交换温度, 使低温副本既能细致搜索又能从高温副本得到新的区域. 每个副本只占用种群中的一个位置,
+ * 被拒绝的移动原地撤销, 使用检查点时只从变化位置继续解码
+ */
+public class SimulatedAnnealing implements Solver {
+    // 表示算法参数
+    public static class Parameter {
+        // 副本个数, 每个副本使用一个温度; 最大迭代次数(每次迭代后交换一次温度), 每次迭代每个副本的移动次数
+        public int replicas = Math.max(4, Runtime.getRuntime().availableProcessors()),
+                maxIterations = 200, exchangeInterval = 100;
+        // 最高和最低温度, 相对于初始解适应度的绝对值, 副本的温度在两者之间按等比数列分布
+        public double maxTemperature = 0.0001, minTemperature = 0.00001;
+        // 每个副本的解码检查点个数, 0表示不使用
+        public int checkpoints = 8;
+        // 随机种子
+        public long seed = System.currentTimeMillis();
+        public ScheduleStrategy scheduleStrategy = ScheduleStrategy.LEAST_EXCEED_TIME;
+        public ScheduleRule scheduleRule = ScheduleRule.FORWARD;
+        public int workers = Runtime.getRuntime().availableProcessors();
+        // 运行时间上限(秒), 0表示不限制
+        public double timeLimit = 0;
+
+        public Parameter() {
+        }
+
+        /**
+         * 复制参数
+         *
+         * @param other 被复制的参数
+         */
+        public Parameter(Parameter other) {
+            replicas = other.replicas;
+            maxIterations = other.maxIterations;
+            exchangeInterval = other.exchangeInterval;
+            maxTemperature = other.maxTemperature;
+            minTemperature = other.minTemperature;
+            checkpoints = other.checkpoints;
+            seed = other.seed;
+            scheduleStrategy = other.scheduleStrategy;
+            scheduleRule = other.scheduleRule;
+            workers = other.workers;
+            timeLimit = other.timeLimit;
+        }
+    }
+
+    /**
+     * @param problem   问题描述对象
+     * @param parameter 算法参数
+     */
+    public SimulatedAnnealing(Problem problem, Parameter parameter) throws Exception {
+        checkParameters(parameter);
+        this.parameter = parameter;
+        // 物种作为编码环境: 种群的每个位置存放一个副本的当前解
+        Species.Parameter encoding = new Species.Parameter();
+        encoding.population = parameter.replicas;
+        encoding.workers = parameter.workers;
+        encoding.seed = parameter.seed;
+        encoding.checkpoints = Math.min(parameter.checkpoints, problem.tasks.length);
+        encoding.scheduleStrategy = parameter.scheduleStrategy;
+        encoding.scheduleRule = parameter.scheduleRule;
+        species = new Species(problem, encoding);
+        temperatures = new double[parameter.replicas];
+        replicaAt = new int[parameter.replicas];
+        replicas = new Replica[parameter.replicas];
+        for (int r = 0; r < replicas.length; ++r) {
+            replicas[r] = new Replica(this, r, parameter.seed + r);
+        }
+    }
+
+    /**
+     * 设置是否显示算法运行时信息
+     *
+     * @param verbose 是否要显示算法运行时信息
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * 要求正在运行的算法尽快停止, 可以在任意线程中调用, solve返回已经找到的最佳方案
+     */
+    @Override
+    public void stop() {
+        stopRequested = true;
+    }
+
+    @Override
+    public Schedule solve() throws Exception {
+        deadline = System.nanoTime() + (long) (parameter.timeLimit * 1e9);
+        GeneChecker.initializeCurrentGeneChecker(species.problem);
+        Decoder.initializeCurrentDecoder(species);
+        ForkJoinPool pool = new ForkJoinPool(parameter.workers,
+                forkJoinPool -> new Worker(species, forkJoinPool), null, false);
+        try {
+            Replica best = initialize();
+            Random random = new Random(parameter.seed);
+            double optimized = species.evaluator.getOptimized();
+            long exchangeTrials = 0, exchanges = 0;
+            for (iterations = 0; iterations < parameter.maxIterations; ++iterations) {
+                if (stopping() || best.bestFitness > optimized - 1e-5) {
+                    break;
+                }
+                pool.invoke(new AnnealingTask(this, 0, replicas.length, parameter.exchangeInterval));
+
+                // 相邻温度的副本交换温度, 奇偶迭代交替配对
+                for (int k = iterations % 2; k + 1 < replicas.length; k += 2) {
+                    Replica cold = replicas[replicaAt[k]], hot = replicas[replicaAt[k + 1]];
+                    double exponent = (hot.fitness - cold.fitness) / scale *
+                            (1 / temperatures[k] - 1 / temperatures[k + 1]);
+                    ++exchangeTrials;
+                    if (exponent >= 0 || random.nextDouble() < Math.exp(exponent)) {
+                        replicaAt[k] = hot.index;
+                        replicaAt[k + 1] = cold.index;
+                        cold.temperature = temperatures[k + 1];
+                        hot.temperature = temperatures[k];
+                        ++exchanges;
+                    }
+                }
+                for (Replica replica : replicas) {
+                    if (replica.bestFitness > best.bestFitness) {
+                        best = replica;
+                    }
+                }
+                if (verbose) {
+                    System.out.printf("iteration-%d: best fitness: %f, coldest fitness: %f, " +
+                                    "exchange rate: %.2f\n", iterations, best.bestFitness,
+                            replicas[replicaAt[0]].fitness,
+                            exchangeTrials > 0 ? (double) exchanges / exchangeTrials : 0.0);
+                }
+            }
+            if (verbose) {
+                System.out.printf("stopped at iteration-%d, best fitness: %f\n", iterations, best.bestFitness);
+                if (species.fitnessCache != null) {
+                    System.out.println(species.fitnessCache);
+                }
+            }
+            bestFitness = best.bestFitness;
+            return new Individual(species, best.bestMS.clone(), best.bestOS.clone(), best.bestFitness).decode();
+        } finally {
+            pool.shutdownNow();
+            // 当前线程的基因检测器和解码器引用整个物种, 求解结束后移除
+            GeneChecker.removeCurrentGeneChecker();
+            Decoder.removeCurrentDecoder();
+        }
+    }
+
+    /**
+     * @return 最近一次求解得到的最佳适应度
+     */
+    public double getBestFitness() {
+        return bestFitness;
+    }
+
+    /**
+     * @return 最近一次求解进行的迭代次数
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * 是否应当立即停止: 被要求停止或者超过时间上限, 副本在每次移动之前检查
+     */
+    boolean stopping() {
+        return stopRequested || (parameter.timeLimit > 0 && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * 检查各项参数是否配置正确
+     *
+     * @param parameter 参数
+     * @throws ParameterException 参数异常
+     */
+    private static void checkParameters(Parameter parameter) throws ParameterException {
+        if (parameter.replicas < 1) {
+            throw new ParameterException("SA.replicas must be greater than 0.");
+        }
+        if (parameter.maxIterations < 1) {
+            throw new ParameterException("SA.maxIterations must be greater than 0.");
+        }
+        if (parameter.exchangeInterval < 1) {
+            throw new ParameterException("SA.exchangeInterval must be greater than 0.");
+        }
+        if (!(parameter.minTemperature > 0) || !(parameter.maxTemperature >= parameter.minTemperature) ||
+                Double.isInfinite(parameter.maxTemperature)) {
+            throw new ParameterException("SA temperatures must satisfy 0 < SA.minTemperature <= SA.maxTemperature.");
+        }
+        if (parameter.checkpoints < 0) {
+            throw new ParameterException("SA.checkpoints must not be negative.");
+        }
+        if (parameter.workers < 1) {
+            throw new ParameterException("SA.workers must be greater than 0.");
+        }
+        if (!(parameter.timeLimit >= 0) || Double.isInfinite(parameter.timeLimit)) {
+            throw new ParameterException("SA.timeLimit must be a non-negative number of seconds.");
+        }
+    }
+
+    /**
+     * 所有副本都以各派工规则生成的解中最好的一个为初始解, 温度从低到高按等比数列分布
+     *
+     * @return 最低温度的副本
+     */
+    private Replica initialize() {
+        Population population = species.population;
+        int n = species.geneLength, count = replicas.length;
+        Dispatcher dispatcher = new Dispatcher(species);
+        // 借用第一个副本的最佳解数组保存最好的派工规则解
+        Replica first = replicas[0];
+        first.bestFitness = Double.NEGATIVE_INFINITY;
+        for (DispatchingRule rule : DispatchingRule.values()) {
+            dispatcher.encode(rule, population.MS, population.OS, 0);
+            population.invalidate(0);
+            first.fitness = population.getFitness(0);
+            if (verbose) {
+                System.out.printf("initial solution by %s: fitness: %f\n", rule, first.fitness);
+            }
+            if (first.fitness > first.bestFitness) {
+                first.keepBest();
+            }
+        }
+        for (int r = count - 1; r >= 0; --r) {
+            Replica replica = replicas[r];
+            System.arraycopy(first.bestMS, 0, population.MS, r * n, n);
+            System.arraycopy(first.bestOS, 0, population.OS, r * n, n);
+            population.invalidate(r);
+            replica.fitness = population.getFitness(r);
+            replica.keepBest();
+        }
+        // 温度以初始解适应度的绝对值为单位, 与排程策略的适应度量纲无关
+        scale = Math.max(Math.abs(first.fitness), 1e-9);
+        for (int k = 0; k < count; ++k) {
+            temperatures[k] = count == 1 ? parameter.minTemperature : parameter.minTemperature *
+                    Math.pow(parameter.maxTemperature / parameter.minTemperature, (double) k / (count - 1));
+            replicaAt[k] = k;
+            replicas[k].temperature = temperatures[k];
+        }
+        if (verbose) {
+            System.out.printf("%d replicas, initial fitness: %f\n", count, first.fitness);
+        }
+        return first;
+    }
+
+    final private Parameter parameter;
+    // 编码环境, 种群的每个位置存放一个副本的当前解
+    final Species species;
+    // 所有副本, 按温度从低到高排列的温度和所在的副本序号
+    final Replica[] replicas;
+    final private double[] temperatures;
+    final private int[] replicaAt;
+    // 温度的单位: 初始解适应度的绝对值
+    double scale = 1;
+    private double bestFitness = Double.NaN;
+    // 已经进行的迭代次数
+    private int iterations = 0;
+    // 是否显示算法运行时信息
+    private boolean verbose = false;
+    private long deadline;
+    private volatile boolean stopRequested = false;
+}
+
+/**
+ * 一个模拟退火副本: 当前解存放在种群中与副本序号相同的位置, 同一时刻只在一个线程中运行
+ */
+class Replica {
+    // 交换OS位置时两个位置的最大距离, 距离太远时修正依赖会改变大段基因
+    final static int OS_DISTANCE = 32;
+
+    /**
+     * @param search 所属算法
+     * @param index  副本序号, 也是种群中的位置
+     * @param seed   本副本的随机种子, 结果与线程数无关
+     */
+    Replica(SimulatedAnnealing search, int index, long seed) {
+        this.search = search;
+        this.index = index;
+        int n = search.species.geneLength;
+        random = new Random(seed);
+        savedOS = new int[n];
+        bestMS = new int[n];
+        bestOS = new int[n];
+    }
+
+    /**
+     * 在当前温度上进行若干次移动, 在工作线程中调用
+     *
+     * @param moves 移动次数
+     */
+    void anneal(int moves) {
+        Species species = search.species;
+        Population population = species.population;
+        int n = species.geneLength, offset = index * n;
+        int[] MS = population.MS, OS = population.OS, MSRange = species.MSRange;
+        double threshold = temperature * search.scale;
+        for (int m = 0; m < moves && !search.stopping(); ++m) {
+            int low, high, task = -1, oldMachine = 0;
+            if (random.nextBoolean()) {
+                // 换用设备组内的另一个设备
+                task = random.nextInt(n);
+                if (MSRange[task] < 2) {
+                    continue;
+                }
+                oldMachine = MS[offset + task];
+                MS[offset + task] = (oldMachine + 1 + random.nextInt(MSRange[task] - 1)) % MSRange[task];
+                low = high = position(task);
+            } else {
+                // 交换两个相距不远的OS位置, 修正依赖只会重排两者之间的部分
+                int from = random.nextInt(n), to = Math.min(n - 1, from + 1 + random.nextInt(OS_DISTANCE));
+                if (from == to) {
+                    continue;
+                }
+                System.arraycopy(OS, offset + from, savedOS, from, to - from + 1);
+                CriticalPath.moveOS(OS, offset, from, to, false);
+                low = from;
+                high = to;
+            }
+            population.changed(index, low, high);
+            double result = population.getFitness(index), delta = result - fitness;
+            if (delta >= 0 || random.nextDouble() < Math.exp(delta / threshold)) {
+                fitness = result;
+                if (fitness > bestFitness) {
+                    keepBest();
+                }
+                continue;
+            }
+            // 拒绝: 原地撤销
+            if (task >= 0) {
+                MS[offset + task] = oldMachine;
+            } else {
+                System.arraycopy(savedOS, low, OS, offset + low, high - low + 1);
+            }
+            population.restore(index, fitness, low, high);
+        }
+    }
+
+    /**
+     * 记录当前解为本副本的最佳解
+     */
+    void keepBest() {
+        Population population = search.species.population;
+        int n = search.species.geneLength;
+        bestFitness = fitness;
+        System.arraycopy(population.MS, index * n, bestMS, 0, n);
+        System.arraycopy(population.OS, index * n, bestOS, 0, n);
+    }
+
+    /**
+     * @return 任务在当前解OS基因段中的位置: 任务所属工件的第(task - 工件起始位置)次出现
+     */
+    private int position(int task) {
+        Species species = search.species;
+        int[] OS = species.population.OS;
+        int offset = index * species.geneLength, pId = species.OSGeneTemplate[task],
+                step = task - species.problem.piecesTaskBegin[pId], p = offset;
+        while (OS[p] != pId || step-- > 0) {
+            ++p;
+        }
+        return p - offset;
+    }
+
+    final private SimulatedAnnealing search;
+    // 副本序号
+    final int index;
+    final private Random random;
+    // 当前温度(相对值), 当前解的适应度
+    double temperature, fitness;
+    // 本副本找到的最佳解
+    final int[] bestMS, bestOS;
+    double bestFitness = Double.NEGATIVE_INFINITY;
+    // 重用变量: 交换前的OS基因段
+    final private int[] savedOS;
+}
+
+/**
+ * 副本并行退火: 将副本区间二分直到只剩一个副本
+ */
+class AnnealingTask extends RecursiveAction {
+
+    AnnealingTask(SimulatedAnnealing search, int begin, int end, int moves) {
+        this.search = search;
+        this.begin = begin;
+        this.end = end;
+        this.moves = moves;
+    }
+
+    @Override
+    protected void compute() {
+        if (end - begin <= 1) {
+            long busyBegin = System.nanoTime();
+            search.replicas[begin].anneal(moves);
+            search.species.metrics.busy(System.nanoTime() - busyBegin);
+            return;
+        }
+        int mid = (begin + end) >>> 1;
+        invokeAll(new AnnealingTask(search, begin, mid, moves),
+                new AnnealingTask(search, mid, end, moves));
+    }
+
+    final private SimulatedAnnealing search;
+    // 副本区间, 每个副本的移动次数
+    final private int begin, end, moves;
+}
@@ -1,14 +1,11 @@
 package pers.lyl232.jaapss.algorithm.ga;
 
 import pers.lyl232.jaapss.algorithm.ParameterException;
-import javafx.util.Pair;
+import pers.lyl232.jaapss.data.AssignmentInfo;
 import pers.lyl232.jaapss.problem.*;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * 物种类: 管理遗传算法运行
@@ -29,8 +26,66 @@ public class Species {
         public ScheduleStrategy scheduleStrategy = ScheduleStrategy.LEAST_EXCEED_TIME;
         public ScheduleRule scheduleRule = ScheduleRule.FORWARD;
         public int workers = Runtime.getRuntime().availableProcessors();
+        // 适应度缓存的容量, 0表示不使用缓存
+        public int cacheSize = 1 << 16;
+        // 每个个体沿解码顺序记录的检查点个数, 变异后的个体从变化位置之前最近的检查点继续解码,
+        // 需要额外保存每个个体每个任务的时间, 0表示不使用检查点
+        public int checkpoints = 0;
+        // 岛屿模型: 岛屿(独立种群)个数, 每隔多少代迁移一次, 每次迁移的个体数, 迁移拓扑
+        public int islands = 1, migrationInterval = 10, migrants = 2;
+        public IslandModel.Topology migrationTopology = IslandModel.Topology.RING;
+        // 终止条件: 运行时间上限(秒, 0表示不限制), 最佳适应度连续多少代没有提高时停止(0表示不限制),
+        // 目标适应度(最佳适应度不小于它时停止, NaN表示排程策略的极限值)
+        public double timeLimit = 0;
+        public int stagnationGenerations = 0;
+        public double targetFitness = Double.NaN;
+        // 设置了热启动方案时, 由热启动方案(原样一个, 其余为扰动后的副本)生成的初始个体占种群的比例
+        public double warmStartRate = 0.5;
+        // 由派工规则(每个规则原样一个, 其余为扰动后的副本)生成的初始个体占种群的比例, 使用的派工规则
+        public double heuristicRate = 0;
+        public DispatchingRule[] heuristicRules = DispatchingRule.values();
+        // 局部搜索: 每一代对每个直接保留的精英个体沿关键路径搜索时最多评估的邻域解个数, 0表示不进行局部搜索
+        public int localSearch = 0;
         // debug: 每次生成新的种群, 都会检查其是否为可行解, 增加了开销
         public boolean debug = false;
+        // 运行期间是否将运行指标注册为JMX MBean(见SpeciesMetricsMXBean)
+        public boolean jmx = false;
+
+        public Parameter() {
+        }
+
+        /**
+         * 复制参数, 用于给每个岛屿生成各自的参数
+         *
+         * @param other 被复制的参数
+         */
+        public Parameter(Parameter other) {
+            population = other.population;
+            maxGeneration = other.maxGeneration;
+            MSCrossoverRepeat = other.MSCrossoverRepeat;
+            mutateRate = other.mutateRate;
+            crossoverRate = other.crossoverRate;
+            selectBetterRate = other.selectBetterRate;
+            seed = other.seed;
+            scheduleStrategy = other.scheduleStrategy;
+            scheduleRule = other.scheduleRule;
+            workers = other.workers;
+            cacheSize = other.cacheSize;
+            checkpoints = other.checkpoints;
+            islands = other.islands;
+            migrationInterval = other.migrationInterval;
+            migrants = other.migrants;
+            migrationTopology = other.migrationTopology;
+            timeLimit = other.timeLimit;
+            stagnationGenerations = other.stagnationGenerations;
+            targetFitness = other.targetFitness;
+            warmStartRate = other.warmStartRate;
+            heuristicRate = other.heuristicRate;
+            heuristicRules = other.heuristicRules.clone();
+            localSearch = other.localSearch;
+            debug = other.debug;
+            jmx = other.jmx;
+        }
     }
 
     /**
@@ -54,12 +109,8 @@ public class Species {
             throw new DataConsistencyException("Error: No task to assign.");
         }
 
-        MSBegin = new int[problem.pieces.size()];
-        MSBegin[0] = 0;
-
-        for (int i = 1; i < problem.pieces.size(); ++i) {
-            MSBegin[i] = MSBegin[i - 1] + problem.pieces.get(i - 1).taskList.size();
-        }
+        // MS段按问题的稠密任务表排列
+        MSBegin = problem.piecesTaskBegin;
 
         MSRange = new int[geneLength];
         OSGeneTemplate = new int[geneLength];
@@ -72,13 +123,34 @@ public class Species {
             }
         }
 
+        virtualTask = new boolean[geneLength];
+        for (int i = 0; i < geneLength; ++i) {
+            virtualTask[i] = problem.virtualMachineGroups.contains(
+                    problem.tasks[i].machineGroupId);
+        }
+
+        // 初始化非线程安全类, 解码器
+        Decoder.initializeCurrentDecoder(this);
+
         evaluator = ScheduleEvaluator.get(problem, parameter.scheduleStrategy, parameter.scheduleRule);
 
-        individuals = new Individual[parameter.population];
+        fitnessCache = parameter.cacheSize > 0 ? new FitnessCache(parameter.cacheSize) : null;
+
+        metrics = new SpeciesMetrics(parameter.workers);
+
+        population = new Population(this, parameter.population);
+
+        elites = new int[(int) ((double) parameter.population * 0.01)];
+
+        others = new int[parameter.population];
+
+        sortBuffer = new int[parameter.population];
 
         crossovered = new boolean[parameter.population];
 
-        queueCondition = queueLock.newCondition();
+        crossoverPairs = new int[parameter.population];
+
+        crossoverSeeds = new long[parameter.population / 2];
 
     }
 
@@ -88,77 +160,181 @@ public class Species {
      * @param verbose: 是否打印每一代的统计信息:
      */
     public Individual start(boolean verbose) throws Exception {
-        initialize();
+        deadline = System.nanoTime() + (long) (parameter.timeLimit * 1e9);
+        // 岛屿模型中物种在构造线程以外的线程中启动, 需要给当前线程初始化非线程安全类
+        GeneChecker.initializeCurrentGeneChecker(problem);
+        Decoder.initializeCurrentDecoder(this);
+        metrics = new SpeciesMetrics(parameter.workers);
+        metrics.begin();
+        try {
+            initialize(verbose);
+            if (parameter.jmx) {
+                metrics.register(String.format("species-%d%s", SpeciesMetrics.SEQUENCE.getAndIncrement(),
+                        island == null ? "" : "-island-" + island.index));
+            }
+            Individual result = evolve(verbose);
+            if (verbose && fitnessCache != null) {
+                System.out.println(prefix() + fitnessCache);
+            }
+            return result;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+                pool = null;
+            }
+            metrics.unregister();
+        }
+    }
 
-        best = individuals[0];
+    /**
+     * 设置热启动方案: 初始种群的一部分由之前的调度方案编码得到, 用于任务大部分相同的重新排程
+     *
+     * @param previous 之前的调度方案中按开始时间排列的任务分配, null表示不使用
+     */
+    public void setWarmStart(List<AssignmentInfo> previous) {
+        this.warmStart = previous;
+    }
+
+    /**
+     * 要求运行中的算法尽快停止, 可以在任意线程中调用. 正在进行的一代在下一个个体之前中止,
+     * start返回已经找到的最佳个体
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * 迭代种群直到满足终止条件
+     *
+     * @param verbose: 是否打印每一代的统计信息:
+     * @return 最佳个体
+     */
+    private Individual evolve(boolean verbose) throws Exception {
+        best = null;
+        double target = Double.isNaN(parameter.targetFitness) ?
+                evaluator.getOptimized() : parameter.targetFitness;
+        // 到目前为止的最佳适应度, 以及它最后一次提高时的代数
+        double bestFitness = Double.NEGATIVE_INFINITY;
+        int improved = 0;
 
         for (int i = 0; i < parameter.maxGeneration; ++i) {
+            generations = i + 1;
 
+            PhaseEvent event = new PhaseEvent(this, SpeciesMetrics.DECODE);
+            long phaseBegin = System.nanoTime();
             decodeIndividuals();
+            endPhase(SpeciesMetrics.DECODE, population.size, phaseBegin, event);
+            if (stopping()) {
+                // 终止条件: 超过时间上限或者被要求停止, 本代可能没有解码完
+                if (verbose) {
+                    System.out.printf("%sstopped at generation-%d.\n", prefix(), i);
+                }
+                break;
+            }
 
             // 验证best解的可行性
             if (!best.decode().validate()) {
                 // 如果最佳个体解不可行(有bug)
                 best = null;
-                for (int j = 0; j < individuals.length; ++i) {
-                    if (!individuals[j].decode().validate()) {
+                for (int j = 0; j < population.size; ++j) {
+                    Individual individual = population.get(j);
+                    if (!individual.decode().validate()) {
                         // 抛弃无效个体
-                        individuals[i] = newRandomIndividual();
+                        newRandomIndividual(j);
                     } else {
                         // 选择第一个(因为精英策略)有效的个体
-                        best = individuals[i];
+                        best = individual;
                         break;
                     }
                 }
                 if (best == null) {
                     // 所有个体均无效
-                    best = newRandomIndividual();
+                    newRandomIndividual(0);
+                    best = population.get(0);
                 }
             }
 
             if (verbose) {
                 System.out.printf(
-                        "generation-%d: best fitness: %f, average fitness: %f\n",
-                        i, best.getFitness(),
-                        fitnessSum / individuals.length);
+                        "%sgeneration-%d: best fitness: %f, average fitness: %f\n",
+                        prefix(), i, best.getFitness(),
+                        fitnessSum / population.size);
             }
 
-            if (Math.abs(best.getFitness() - evaluator.getOptimized()) < 1e-5) {
-                // 终止条件: 适应度达到极限值
+            if (best.getFitness() > target - 1e-5) {
+                // 终止条件: 适应度达到目标值(默认为极限值)
                 if (verbose) {
-                    System.out.println("best fitness reach limit, stopping.");
+                    System.out.println(prefix() + "best fitness reach limit, stopping.");
+                }
+                if (island != null) {
+                    island.model.stopped = true;
                 }
                 break;
             }
 
+            if (best.getFitness() > bestFitness) {
+                bestFitness = best.getFitness();
+                improved = i;
+            } else if (parameter.stagnationGenerations > 0 &&
+                    i - improved >= parameter.stagnationGenerations) {
+                // 终止条件: 最佳适应度停滞, 岛屿模型中只停止本岛屿
+                if (verbose) {
+                    System.out.printf("%sbest fitness has not improved for %d generations, stopping.\n",
+                            prefix(), i - improved);
+                }
+                break;
+            }
+
+            if (island != null && (i + 1) % parameter.migrationInterval == 0) {
+                migrate();
+            }
+
             Random generationRandom = new Random(globalRandom.nextLong());
+            event = new PhaseEvent(this, SpeciesMetrics.SELECTION);
+            phaseBegin = System.nanoTime();
             selection(generationRandom);
+            endPhase(SpeciesMetrics.SELECTION, population.size, phaseBegin, event);
+            if (parameter.localSearch > 0 && elites.length > 0) {
+                event = new PhaseEvent(this, SpeciesMetrics.LOCAL_SEARCH);
+                phaseBegin = System.nanoTime();
+                localSearch();
+                endPhase(SpeciesMetrics.LOCAL_SEARCH, elites.length, phaseBegin, event);
+            }
+            event = new PhaseEvent(this, SpeciesMetrics.CROSSOVER);
+            phaseBegin = System.nanoTime();
             crossover(generationRandom);
+            endPhase(SpeciesMetrics.CROSSOVER, crossoverPairCount, phaseBegin, event);
+            event = new PhaseEvent(this, SpeciesMetrics.MUTATE);
+            phaseBegin = System.nanoTime();
             mutate(generationRandom);
+            endPhase(SpeciesMetrics.MUTATE, population.size, phaseBegin, event);
+            metrics.endGeneration(generations, fitnessCache);
         }
 
-        if (parameter.workers > 1) {
-            for (int i = 0; i < workers.length; ++i) {
-                workQueue.add(WorkType.EXIT);
+        if (best == null) {
+            // 第一代还没有解码出任何个体就停止了: 在当前线程计算热启动方案和派工规则直接编码的个体的适应度,
+            // 返回其中最好的, 都没有时返回第一个个体
+            if (encodedSeeds.length == 0) {
+                best = population.get(0);
             }
-            queueLock.lock();
-            queueCondition.signalAll();
-            queueLock.unlock();
-
-            for (Worker worker : workers) {
-                worker.join();
+            for (int i : encodedSeeds) {
+                if (best == null || population.getFitness(i) > best.getFitness()) {
+                    best = population.get(i);
+                }
             }
         }
+
         if (!best.decode().validate()) {
             // 如果解不可行
             // 先按适应度由大到小排序
-            Arrays.sort(individuals, (i1, i2) -> {
-                if (i1.getFitness() == i2.getFitness()) {
-                    return 0;
-                }
-                return i1.getFitness() > i2.getFitness() ? -1 : 1;
-            });
-            for (Individual individual : individuals) {
+            Integer[] order = new Integer[population.size];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (i1, i2) -> Double.compare(
+                    population.getFitness(i2), population.getFitness(i1)));
+            for (int i : order) {
+                Individual individual = population.get(i);
                 if (individual.decode().validate()) {
                     // 选择第一个可行解
                     return individual;
@@ -189,6 +365,22 @@ public class Species {
         if (parameter.workers < 1) {
             throw new ParameterException("GA.workers must be greater than 0.");
         }
+        if (parameter.cacheSize < 0) {
+            throw new ParameterException("GA.cacheSize must not be negative.");
+        }
+        if (parameter.checkpoints < 0) {
+            throw new ParameterException("GA.checkpoints must not be negative.");
+        }
+        if (parameter.islands < 1) {
+            throw new ParameterException("GA.islands must be greater than 0.");
+        }
+        if (parameter.migrationInterval < 1) {
+            throw new ParameterException("GA.migrationInterval must be greater than 0.");
+        }
+        if (parameter.islands > 1 &&
+                (parameter.migrants < 0 || parameter.migrants > parameter.population)) {
+            throw new ParameterException("GA.migrants must be in [0, GA.population].");
+        }
         if (parameter.mutateRate < 0 || parameter.mutateRate > 1) {
             throw new ParameterException("GA.MSCrossoverRepeat must be in [0, 1].");
         }
@@ -198,68 +390,112 @@ public class Species {
         if (parameter.selectBetterRate < 0 || parameter.selectBetterRate > 1) {
             throw new ParameterException("GA.selectBetterRate must be in [0, 1].");
         }
+        if (!(parameter.timeLimit >= 0) || Double.isInfinite(parameter.timeLimit)) {
+            throw new ParameterException("GA.timeLimit must be a non-negative number of seconds.");
+        }
+        if (parameter.stagnationGenerations < 0) {
+            throw new ParameterException("GA.stagnationGenerations must not be negative.");
+        }
+        if (parameter.warmStartRate < 0 || parameter.warmStartRate > 1) {
+            throw new ParameterException("GA.warmStartRate must be in [0, 1].");
+        }
+        if (parameter.heuristicRate < 0 || parameter.heuristicRate > 1) {
+            throw new ParameterException("GA.heuristicRate must be in [0, 1].");
+        }
+        if (parameter.heuristicRate > 0 && parameter.heuristicRules.length == 0) {
+            throw new ParameterException("GA.heuristicRules must not be empty.");
+        }
+        if (parameter.localSearch < 0) {
+            throw new ParameterException("GA.localSearch must not be negative.");
+        }
     }
 
     /**
      * 初始化工作
+     *
+     * @param verbose 是否打印热启动和派工规则生成初始个体的信息
      */
-    private void initialize() {
-        // 初始化多线程
-        if (parameter.workers > 1) {
-            workers = new Worker[parameter.workers];
-            for (int i = 0; i < workers.length; ++i) {
-                workers[i] = new Worker(this);
-                workers[i].setDaemon(true);
-                workers[i].start();
+    private void initialize(boolean verbose) {
+        // 初始化工作线程池: 每个工作线程持有自己的基因检测器和解码器
+        pool = new ForkJoinPool(parameter.workers,
+                forkJoinPool -> new Worker(this, forkJoinPool), null, false);
+        // 初始化种群: 先由热启动方案生成, 再由派工规则生成, 其余随机生成
+        int seeded = 0;
+        int[] encoded = new int[1 + parameter.heuristicRules.length];
+        int encodedCount = 0;
+        if (warmStart != null) {
+            seeded = Math.max(1, (int) (parameter.population * parameter.warmStartRate));
+            int matched = newWarmStartIndividual(0);
+            encoded[encodedCount++] = 0;
+            Random random = new Random(globalRandom.nextLong());
+            for (int i = 1; i < seeded; ++i) {
+                perturbedCopy(0, i, random);
+            }
+            if (verbose) {
+                System.out.printf("%swarm start: %d of %d tasks found in the previous schedule, " +
+                        "%d individuals seeded\n", prefix(), matched, geneLength, seeded);
             }
         }
-        // 初始化种群
-        for (int i = 0; i < parameter.population; ++i) {
-            individuals[i] = newRandomIndividual();
+        if (parameter.heuristicRate > 0 && seeded < parameter.population) {
+            int begin = seeded, rules = parameter.heuristicRules.length;
+            seeded = Math.min(parameter.population,
+                    begin + Math.max(1, (int) (parameter.population * parameter.heuristicRate)));
+            Dispatcher dispatcher = new Dispatcher(this);
+            Random random = new Random(globalRandom.nextLong());
+            for (int i = begin; i < seeded; ++i) {
+                if (i - begin < rules) {
+                    dispatcher.encode(parameter.heuristicRules[i - begin],
+                            population.MS, population.OS, i * geneLength);
+                    population.invalidate(i);
+                    encoded[encodedCount++] = i;
+                } else {
+                    perturbedCopy(begin + (i - begin) % rules, i, random);
+                }
+            }
+            if (verbose) {
+                System.out.printf("%sheuristic seeding: %d individuals seeded by %s\n",
+                        prefix(), seeded - begin, Arrays.toString(parameter.heuristicRules));
+            }
         }
+        for (int i = seeded; i < parameter.population; ++i) {
+            newRandomIndividual(i);
+        }
+        encodedSeeds = Arrays.copyOf(encoded, encodedCount);
+    }
+
+    /**
+     * 一个阶段结束: 记录耗时并提交JFR事件
+     *
+     * @param phase     阶段编号
+     * @param batchSize 处理的个体数或交叉配对数
+     * @param begin     阶段开始的System.nanoTime()
+     * @param event     阶段开始时创建的事件
+     */
+    private void endPhase(int phase, int batchSize, long begin, PhaseEvent event) {
+        metrics.phase(phase, System.nanoTime() - begin);
+        event.batchSize = batchSize;
+        event.commit();
     }
 
     /**
      * 种群解码, 并维护统计信息
      */
     private void decodeIndividuals() throws Exception {
-        fitnessSum = 0;
-        if (parameter.workers > 1) {
-            // 多线程
-            assert workQueue.isEmpty();
-            assert infoQueueII.isEmpty();
-            assert infoQueueLII.isEmpty();
-            queueLock.lock();
-            responseRemain.set(workers.length);
-            for (int j = 0; j < workers.length; ++j) {
-                workQueue.add(WorkType.DECODE);
-                infoQueueII.add(new Pair<>(j, workers.length));
-            }
-            queueCondition.signalAll();
-            queueLock.unlock();
-            waitResponse();
-            assert workQueue.isEmpty();
-            assert infoQueueII.isEmpty();
-            assert infoQueueLII.isEmpty();
-        } else {
-            // 单线程
-            for (Individual individual : individuals) {
-                if (best.getFitness() < individual.getFitness()) {
-                    best = individual;
-                }
-                fitnessSum += individual.getFitness();
-            }
+        DecodeTask task = new DecodeTask(this, 0, population.size);
+        pool.invoke(task);
+        if (task.bestIndex >= 0 && (best == null || best.getFitness() < task.bestFitness)) {
+            best = population.get(task.bestIndex);
+        }
+        fitnessSum = task.fitnessSum;
+        if (task.bestIndex >= 0) {
+            metrics.fitness(task.bestFitness, fitnessSum / population.size, task.worstFitness);
         }
 
         if (parameter.debug) {
-            for (Individual individual : individuals) {
+            for (int i = 0; i < population.size; ++i) {
+                Individual individual = population.get(i);
                 Schedule schedule = individual.decode();
                 if (!schedule.validate()) {
-                    if (parameter.workers > 1) {
-                        for (Worker worker : workers) {
-                            worker.interrupt();
-                        }
-                    }
                     throw new Exception(String.format(
                             "Invalid individual generated:\nindividual:\n%s" +
                                     "errorMsg:\n%s\n",
@@ -270,122 +506,166 @@ public class Species {
     }
 
     /**
-     * 等待任务回复
-     *
-     * @throws InterruptedException 中断异常
-     */
-    private void waitResponse() throws InterruptedException {
-        synchronized (responseRemain) {
-            // 等待任务回复
-            while (responseRemain.get() > 0) {
-                responseRemain.wait();
-            }
-        }
-    }
-
-    /**
-     * 选择过程: 使用轮盘策略与精英策略结合: 保留适应度最大的1%,
-     * 按锦标策略选择下一代, 开销较小, 访存频率高, 不适合多线程执行
+     * 选择过程: 使用轮盘策略与精英策略结合: 保留适应度最大的1%到下一代的最前面,
+     * 其余个体中按锦标策略选择下一代, 只复制基因数组. 找出精英和锦标赛都由线程池分块并行执行,
+     * 每块的随机对象由本代随机数确定, 结果与线程调度无关
      */
     private void selection(Random random) {
         // 种群大小, 直接保留的最佳个体数
-        int n = individuals.length, keep = (int) ((double) n * 0.01);
-        Arrays.sort(individuals, (i1, i2) -> {
-            if (i1.getFitness() == i2.getFitness()) {
-                return 0;
-            }
-            return i1.getFitness() > i2.getFitness() ? -1 : 1;
-        });
+        int n = population.size, keep = elites.length;
 
-        Individual[] newGeneration = new Individual[n];
+        // 找出最适应的1%, 按适应度由大到小排列, 适应度相同时序号小的优先
+        if (keep > 0) {
+            EliteTask eliteTask = new EliteTask(this, 0, n, keep);
+            pool.invoke(eliteTask);
+            System.arraycopy(eliteTask.elites, 0, elites, 0, keep);
+        }
+        // 其余个体参与锦标赛, 按适应度由大到小排列, 与对整个种群排序后取前1%以外的部分一致
+        Arrays.fill(crossovered, false);
+        for (int elite : elites) {
+            crossovered[elite] = true;
+        }
+        int count = 0;
+        for (int i = 0; i < n; ++i) {
+            if (!crossovered[i]) {
+                others[count++] = i;
+            }
+        }
+        sortByFitness(others, count);
 
-        // 锦标赛策略
         // 直接保留最适应的1%
         for (int i = 0; i < keep; ++i) {
-            // 保证每个个体都是一个独立的引用, 否则交叉选择等可能会影响到
-            // 不同下标但是是同一个引用的个体
-            newGeneration[i] = new Individual(individuals[i]);
+            population.copyToNext(elites[i], i);
         }
-        for (int i = keep; i < n; ++i) {
-            Individual a = individuals[random.nextInt(n - keep) + keep],
-                    b = individuals[random.nextInt(n - keep) + keep];
-            if (a.getFitness() < b.getFitness()) {
-                // b更优
-                if (random.nextDouble() < parameter.selectBetterRate) {
-                    newGeneration[i] = new Individual(b);
-                } else {
-                    newGeneration[i] = new Individual(a);
+        // 锦标赛策略
+        pool.invoke(new SelectionTask(this, keep, n, random.nextLong()));
+        population.swap();
+    }
+
+    /**
+     * 将序号数组的前count个按适应度由大到小稳定排序(适应度相同时保持原来的顺序), 自底向上归并, 不装箱
+     *
+     * @param indices 个体序号数组
+     * @param count   参与排序的个数
+     */
+    private void sortByFitness(int[] indices, int count) {
+        double[] fitness = population.fitness;
+        int[] from = indices, to = sortBuffer;
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int mid = Math.min(low + width, count), high = Math.min(low + 2 * width, count),
+                        a = low, b = mid, k = low;
+                while (a < mid && b < high) {
+                    to[k++] = fitness[from[b]] > fitness[from[a]] ? from[b++] : from[a++];
                 }
-            } else {
-                // a更优
-                if (random.nextDouble() < parameter.selectBetterRate) {
-                    newGeneration[i] = new Individual(a);
-                } else {
-                    newGeneration[i] = new Individual(b);
+                while (a < mid) {
+                    to[k++] = from[a++];
+                }
+                while (b < high) {
+                    to[k++] = from[b++];
                 }
             }
+            int[] temp = from;
+            from = to;
+            to = temp;
+        }
+        if (from != indices) {
+            System.arraycopy(from, 0, indices, 0, count);
         }
-        individuals = newGeneration;
     }
 
     /**
-     * 交叉过程
+     * 局部搜索: 由线程池并行改进选择后保留在种群最前面的精英个体, 改进后超过最佳个体时替换最佳个体
      */
-    private void crossover(Random random) throws Exception {
-        if (parameter.workers > 1) {
-            assert workQueue.isEmpty();
-            assert infoQueueII.isEmpty();
-            assert infoQueueLII.isEmpty();
-            crossoverMultiThread(random);
-            assert workQueue.isEmpty();
-            assert infoQueueII.isEmpty();
-            assert infoQueueLII.isEmpty();
-        } else {
-            crossoverSingleThread(random);
+    private void localSearch() {
+        int keep = elites.length;
+        pool.invoke(new LocalSearchTask(this, 0, keep));
+        for (int i = 0; i < keep; ++i) {
+            if (population.evaluated[i] && population.fitness[i] > best.getFitness()) {
+                best = population.get(i);
+            }
         }
     }
 
     /**
-     * 交叉过程: 单线程
+     * 岛屿迁移: 将本岛屿适应度最大的若干个体的副本发送到目标岛屿的信箱,
+     * 再用信箱中收到的个体替换本岛屿适应度最小的个体, 只替换比被替换者更优的个体
      */
-    private void crossoverSingleThread(Random random) {
-        Arrays.fill(crossovered, false);
-        int n = individuals.length, keep = (int) ((double) n * 0.01);
-        // 前1%的个体不参与交叉
-        for (int i = keep; i < n; ++i) {
-            if (crossovered[i]) {
-                continue;
+    private void migrate() {
+        int n = population.size;
+        if (parameter.migrants > 0) {
+            EliteTask eliteTask = new EliteTask(this, 0, n, parameter.migrants);
+            pool.invoke(eliteTask);
+            Queue<Individual> inbox = island.target().island.inbox;
+            for (int k = 0; k < eliteTask.count; ++k) {
+                inbox.offer(population.get(eliteTask.elites[k]));
             }
-            for (int j = i + 1; j < n; ++j) {
-                if (crossovered[j]) {
-                    continue;
-                }
-                if (random.nextDouble() >= parameter.crossoverRate) {
-                    crossovered[i] = crossovered[j] = true;
-                    Pair<Individual, Individual> childPair =
-                            Individual.crossover(
-                                    individuals[i], individuals[j],
-                                    parameter.MSCrossoverRepeat, random
-                            );
-                    individuals[i] = childPair.getKey();
-                    individuals[j] = childPair.getValue();
-                    break;
+        }
+        double[] fitness = population.fitness;
+        Individual immigrant;
+        while ((immigrant = island.inbox.poll()) != null) {
+            int worst = 0;
+            for (int i = 1; i < n; ++i) {
+                if (fitness[i] < fitness[worst]) {
+                    worst = i;
                 }
             }
+            if (immigrant.getFitness() <= fitness[worst]) {
+                continue;
+            }
+            population.set(worst, immigrant);
+            if (best.getFitness() < immigrant.getFitness()) {
+                best = population.get(worst);
+            }
+        }
+    }
+
+    /**
+     * 是否应当立即停止: 被要求停止, 超过时间上限, 或者岛屿模型中的其他岛屿要求停止.
+     * 工作线程在解码和交叉每个个体之前检查, 使一代可以在中途停止
+     */
+    boolean stopping() {
+        return stopRequested || (island != null && island.model.stopped) ||
+                (parameter.timeLimit > 0 && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * 岛屿模型中输出信息的前缀
+     */
+    private String prefix() {
+        return island == null ? "" : String.format("island-%d: ", island.index);
+    }
+
+    /**
+     * 锦标赛选择下一代的一个个体, 不同的个体可以在不同线程中同时选择
+     *
+     * @param i      下一代的个体序号
+     * @param random 随机对象
+     */
+    void tournament(int i, Random random) {
+        int n = population.size, keep = elites.length;
+        double[] fitness = population.fitness;
+        int a = others[random.nextInt(n - keep)],
+                b = others[random.nextInt(n - keep)];
+        if (fitness[a] < fitness[b]) {
+            // b更优
+            population.copyToNext(
+                    random.nextDouble() < parameter.selectBetterRate ? b : a, i);
+        } else {
+            // a更优
+            population.copyToNext(
+                    random.nextDouble() < parameter.selectBetterRate ? a : b, i);
         }
     }
 
     /**
-     * 交叉过程: 多线程
+     * 交叉过程: 在当前线程按随机数确定交叉配对和每一对的随机种子, 再由线程池并行交叉,
+     * 结果与线程调度无关
      */
-    private void crossoverMultiThread(Random random) throws Exception {
-        assert workQueue.isEmpty();
-        assert infoQueueII.isEmpty();
-        assert infoQueueLII.isEmpty();
+    private void crossover(Random random) {
         Arrays.fill(crossovered, false);
-        int n = individuals.length, keep = (int) ((double) n * 0.01);
-        List<Pair<Integer, Integer>> workParam = new ArrayList<>();
-        queueLock.lock();
+        int n = population.size, keep = elites.length;
+        crossoverPairCount = 0;
         // 前1%的个体不参与交叉
         for (int i = keep; i < n; ++i) {
             if (crossovered[i]) {
@@ -397,72 +677,150 @@ public class Species {
                 }
                 if (random.nextDouble() >= parameter.crossoverRate) {
                     crossovered[i] = crossovered[j] = true;
-                    workParam.add(new Pair<>(i, j));
-                    if (workParam.size() >= 20) {
-                        // 粗粒度分配: 一次分配20个
-                        infoQueueLII.add(workParam);
-                        workQueue.add(WorkType.CROSSOVER);
-                        workParam = new ArrayList<>();
-                    }
+                    crossoverPairs[crossoverPairCount * 2] = i;
+                    crossoverPairs[crossoverPairCount * 2 + 1] = j;
+                    crossoverSeeds[crossoverPairCount++] = random.nextLong();
                     break;
                 }
             }
         }
-        if (!workParam.isEmpty()) {
-            infoQueueLII.add(workParam);
-            workQueue.add(WorkType.CROSSOVER);
-        }
-        responseRemain.set(infoQueueLII.size());
-        queueCondition.signalAll();
-        queueLock.unlock();
-        waitResponse();
+        pool.invoke(new CrossoverTask(this, 0, crossoverPairCount));
     }
 
     /**
-     * 变异过程: 开销较小, 不适合多线程
+     * 变异过程: 由线程池分块并行执行, 每块的随机对象由本代随机数确定, 结果与线程调度无关
      */
     private void mutate(Random random) {
-        for (Individual individual : individuals) {
-            if (random.nextDouble() < parameter.mutateRate / 2) {
-                // MS段变异
-                individual.MSMutate(random);
-            }
-            if (random.nextDouble() < parameter.mutateRate / 2) {
-                // OS段变异
-                individual.OSMutate(random);
-            }
+        pool.invoke(new MutateTask(this, 0, population.size, random.nextLong()));
+    }
+
+    /**
+     * 个体变异, 不同的个体可以在不同线程中同时变异
+     *
+     * @param i      个体序号
+     * @param random 随机对象
+     */
+    void mutate(int i, Random random) {
+        if (random.nextDouble() < parameter.mutateRate / 2) {
+            // MS段变异
+            population.MSMutate(i, random);
+        }
+        if (random.nextDouble() < parameter.mutateRate / 2) {
+            // OS段变异
+            population.OSMutate(i, random);
         }
     }
 
     /**
-     * 根据这个环境的随机对象创建一个随机的个体
+     * 根据这个环境的随机对象在种群的指定位置创建一个随机的个体
      *
-     * @return 新个体
+     * @param index 个体序号
      */
-    private Individual newRandomIndividual() {
+    void newRandomIndividual(int index) {
         Random thisRandom = new Random(globalRandom.nextLong());
-        int[] OS = new int[geneLength], MS = new int[geneLength];
+        int offset = index * geneLength;
+        int[] OS = population.OS, MS = population.MS;
         // MS基因段
-        for (Piece piece : problem.pieces) {
-            int begin = MSBegin[piece.id];
-            List<Task> taskList = piece.taskList;
-            for (int i = 0; i < taskList.size(); ++i) {
-                MS[begin + i] = thisRandom.nextInt(
-                        taskList.get(i).machineGroup.machines.size());
-            }
+        for (int i = 0; i < geneLength; ++i) {
+            MS[offset + i] = thisRandom.nextInt(MSRange[i]);
         }
         // OS基因段
-        System.arraycopy(OSGeneTemplate, 0, OS, 0, geneLength);
+        System.arraycopy(OSGeneTemplate, 0, OS, offset, geneLength);
         // 打乱数组
         int temp, pos;
         for (int i = geneLength - 1; i > 0; --i) {
-            pos = thisRandom.nextInt(i);
+            pos = offset + thisRandom.nextInt(i);
             temp = OS[pos];
-            OS[pos] = OS[i];
-            OS[i] = temp;
+            OS[pos] = OS[offset + i];
+            OS[offset + i] = temp;
+        }
+        GeneChecker.getCurrentGeneChecker().fixOSGene(OS, offset);
+        population.invalidate(index);
+    }
+
+    /**
+     * 将热启动方案编码到种群的指定位置: OS段按之前的开始时间排列各任务所属的工件,
+     * 新增的任务排在它最晚的已有前驱任务之后(没有时排在最前面), 已删除的任务被忽略,
+     * 再修正工件间的依赖; MS段使用之前分配的设备, 设备不在所需设备组中或者新增的任务随机选择
+     *
+     * @param index 个体序号
+     * @return 在之前的方案中找到的任务数
+     */
+    private int newWarmStartIndividual(int index) {
+        Random thisRandom = new Random(globalRandom.nextLong());
+        int offset = index * geneLength;
+        int[] OS = population.OS, MS = population.MS,
+                predecessorBegin = problem.taskPredecessorBegin,
+                predecessors = problem.taskPredecessors;
+        // 每个任务(稠密下标)在之前的方案中的名次, -1表示没有找到
+        int[] rank = new int[geneLength];
+        Arrays.fill(rank, -1);
+        int matched = 0;
+        for (AssignmentInfo assignment : warmStart) {
+            Task task = problem.taskMap.get(assignment.taskId);
+            if (task == null || rank[task.getIndex()] != -1) {
+                // 已删除的任务或者重复的记录
+                continue;
+            }
+            int t = task.getIndex();
+            rank[t] = matched++;
+            // 所需设备组中设备的稠密下标
+            int[] machines = problem.taskMachines[t];
+            MS[offset + t] = -1;
+            for (int k = 0; k < machines.length; ++k) {
+                if (problem.machines[machines[k]] == assignment.machineId) {
+                    MS[offset + t] = k;
+                    break;
+                }
+            }
+        }
+
+        // 排序键: 高32位为位置(已有任务在2 * 名次 + 2, 新增任务在前驱之后的2 * 名次 + 3或者最前面的0),
+        // 低32位为稠密下标
+        long[] order = new long[geneLength];
+        for (int t = 0; t < geneLength; ++t) {
+            long position;
+            if (rank[t] >= 0) {
+                position = 2L * rank[t] + 2;
+            } else {
+                int latest = -1;
+                for (int k = predecessorBegin[t]; k < predecessorBegin[t + 1]; ++k) {
+                    latest = Math.max(latest, rank[predecessors[k]]);
+                }
+                position = latest >= 0 ? 2L * latest + 3 : 0;
+                MS[offset + t] = -1;
+            }
+            if (MS[offset + t] < 0) {
+                MS[offset + t] = thisRandom.nextInt(MSRange[t]);
+            }
+            order[t] = position << 32 | t;
+        }
+        Arrays.sort(order);
+        // 基因模板按稠密任务表排列, OSGeneTemplate[t]即为任务t所属的工件
+        for (int i = 0; i < geneLength; ++i) {
+            OS[offset + i] = OSGeneTemplate[(int) order[i]];
+        }
+        GeneChecker.getCurrentGeneChecker().fixOSGene(OS, offset);
+        population.invalidate(index);
+        return matched;
+    }
+
+    /**
+     * 将一个个体复制到另一个位置并随机扰动: 两段基因各变异若干次
+     *
+     * @param from   被复制的个体序号
+     * @param to     目标个体序号
+     * @param random 随机对象
+     */
+    private void perturbedCopy(int from, int to, Random random) {
+        System.arraycopy(population.MS, from * geneLength, population.MS, to * geneLength, geneLength);
+        System.arraycopy(population.OS, from * geneLength, population.OS, to * geneLength, geneLength);
+        population.invalidate(to);
+        int times = 1 + random.nextInt(Math.max(1, geneLength / PERTURB_DIVISOR));
+        for (int k = 0; k < times; ++k) {
+            population.MSMutate(to, random);
+            population.OSMutate(to, random);
         }
-        GeneChecker.getCurrentGeneChecker().fixOSGene(OS);
-        return new Individual(this, MS, OS);
     }
 
     final public Problem problem;
@@ -478,33 +836,51 @@ public class Species {
     final int[] OSGeneTemplate;
     // MS基因段对应最大取值范围(不能取到)
     final int[] MSRange;
+    // 缓存变量: 每个任务(稠密下标)是否属于虚拟设备组
+    final boolean[] virtualTask;
+    // 所有工作线程共享的适应度缓存, 为null表示不使用缓存
+    final FitnessCache fitnessCache;
     // 最佳个体
     Individual best;
     // 种群的平均适应度
     double fitnessSum;
-
-    // 多线程:
-    // 发布任务队列
-    final Lock queueLock = new ReentrantLock();
-    final Condition queueCondition;
-    // 参数队列: 两个整数
-    final Queue<Pair<Integer, Integer>> infoQueueII = new LinkedList<>();
-    // 参数队列: 两个整数组成的列表
-    final Queue<List<Pair<Integer, Integer>>> infoQueueLII = new LinkedList<>();
-    // 需要收到的同步回应
-    final AtomicInteger responseRemain = new AtomicInteger(0);
+    // 已经开始的代数
+    int generations = 0;
+    // 运行指标, 每次start重新开始统计
+    SpeciesMetrics metrics;
 
     // 环境所拥有的个体
-    Individual[] individuals;
-    final Queue<WorkType> workQueue = new LinkedList<>();
+    final Population population;
+    // 重用变量: 选择过程中直接保留的个体序号, 参与锦标赛的个体序号
+    final int[] elites, others;
+    // 重用变量: 排序参与锦标赛的个体时的归并缓冲
+    final private int[] sortBuffer;
+    // 本代交叉的配对: 第k对为(crossoverPairs[2k], crossoverPairs[2k + 1])
+    final int[] crossoverPairs;
+    // 本代每一对交叉使用的随机种子
+    final long[] crossoverSeeds;
+    // 本代交叉的配对个数
+    int crossoverPairCount;
     // 算法参数
     final Parameter parameter;
     // 全局随机对象
     final Random globalRandom;
-    // 重用变量: 是否进行过交叉
+    // 重用变量: 是否进行过交叉, 选择过程中用于标记直接保留的个体
     final private boolean[] crossovered;
 
-    // 工作线程
-    private Worker[] workers;
+    // 岛屿模型中所在的岛屿, 单独运行时为null
+    Island island = null;
+
+    // 工作线程池, 只在start期间存在
+    private ForkJoinPool pool;
+    // 热启动方案, null表示不使用
+    private List<AssignmentInfo> warmStart = null;
+    // 初始种群中由热启动方案和派工规则直接编码(未扰动)的个体序号
+    private int[] encodedSeeds;
+    // 扰动副本的变异次数上限为基因长度除以该值
+    final private static int PERTURB_DIVISOR = 20;
+    // 时间上限对应的System.nanoTime(), 是否被要求停止
+    private long deadline;
+    private volatile boolean stopRequested = false;
 
 }
@@ -0,0 +1,311 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 物种运行指标: 工作线程在线程池任务中累加计数和忙碌时间, 物种线程记录各阶段耗时并在每一代结束时汇总.
+ * 额外开销只有每次适应度计算一次累加和每个叶子任务两次计时, 所以总是收集, 只在GA.jmx为true时注册到JMX
+ */
+class SpeciesMetrics implements SpeciesMetricsMXBean {
+
+    /**
+     * @param workers 工作线程数
+     */
+    SpeciesMetrics(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * 运行开始: 在物种线程中调用, 记录物种线程和开始时刻
+     */
+    void begin() {
+        thread(Thread.currentThread());
+        beginNanos = generationNanos = System.nanoTime();
+        lastAllocated = allocatedBytes();
+    }
+
+    /**
+     * 记录需要统计分配字节数的线程
+     */
+    void thread(Thread thread) {
+        threadIds.add(thread.getId());
+    }
+
+    /**
+     * 注册到平台MBeanServer
+     *
+     * @param name ObjectName中name的值
+     * @throws JMException 注册失败
+     */
+    void register(String name) throws JMException {
+        objectName = new ObjectName("pers.lyl232.jaapss:type=Species,name=" + name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    }
+
+    /**
+     * 如果已经注册则注销
+     */
+    void unregister() throws JMException {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+
+    /**
+     * 记录一个阶段的耗时
+     *
+     * @param phase 阶段: DECODE, SELECTION, CROSSOVER, MUTATE, LOCAL_SEARCH
+     * @param nanos 耗时(纳秒)
+     */
+    void phase(int phase, long nanos) {
+        phaseNanos[phase] = nanos;
+        totalPhaseNanos[phase] += nanos;
+    }
+
+    /**
+     * 工作线程在叶子任务中的忙碌时间
+     */
+    void busy(long nanos) {
+        busyNanos.add(nanos);
+    }
+
+    /**
+     * 一次适应度计算
+     *
+     * @param decoded 是否实际解码(没有命中缓存)
+     */
+    void evaluated(boolean decoded) {
+        evaluations.increment();
+        if (decoded) {
+            decodes.increment();
+        }
+    }
+
+    /**
+     * 种群解码后的适应度统计
+     */
+    void fitness(double best, double average, double worst) {
+        bestFitness = best;
+        averageFitness = average;
+        worstFitness = worst;
+    }
+
+    /**
+     * 一代结束: 计算本代的速率和空闲比例
+     *
+     * @param generation 代数
+     * @param cache      适应度缓存, 为null表示不使用缓存
+     */
+    void endGeneration(int generation, FitnessCache cache) {
+        long now = System.nanoTime(), wall = Math.max(1, now - generationNanos);
+        generationNanos = now;
+        this.generation = generation;
+
+        long evaluationCount = evaluations.sum();
+        evaluationsPerSecond = (evaluationCount - lastEvaluations) * 1e9 / wall;
+        lastEvaluations = evaluationCount;
+
+        // 各阶段都在线程池中执行, 线程池时间减去忙碌时间即为空闲时间
+        long poolNanos = 0;
+        for (long nanos : phaseNanos) {
+            poolNanos += nanos;
+        }
+        long busy = busyNanos.sum(), capacity = poolNanos * workers,
+                idle = Math.max(0, capacity - (busy - lastBusy));
+        lastBusy = busy;
+        idleNanos += idle;
+        workerIdleRatio = capacity > 0 ? (double) idle / capacity : 0;
+
+        long allocated = allocatedBytes();
+        if (allocated >= 0) {
+            allocationBytesPerSecond = Math.max(0, allocated - lastAllocated) * 1e9 / wall;
+            lastAllocated = allocated;
+        }
+
+        if (cache != null) {
+            cacheHits = cache.getHits();
+            cacheMisses = cache.getMisses();
+        }
+    }
+
+    /**
+     * @return 记录的线程中仍然存活的线程的累计分配字节数, JVM不支持时为-1
+     */
+    private long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long sum = 0;
+        for (long id : threadIds) {
+            sum += Math.max(0, threads.getThreadAllocatedBytes(id));
+        }
+        return sum;
+    }
+
+    @Override
+    public int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return (System.nanoTime() - beginNanos) / 1000000;
+    }
+
+    @Override
+    public double getBestFitness() {
+        return bestFitness;
+    }
+
+    @Override
+    public double getAverageFitness() {
+        return averageFitness;
+    }
+
+    @Override
+    public double getWorstFitness() {
+        return worstFitness;
+    }
+
+    @Override
+    public double getDecodeMillis() {
+        return phaseNanos[DECODE] / 1e6;
+    }
+
+    @Override
+    public double getSelectionMillis() {
+        return phaseNanos[SELECTION] / 1e6;
+    }
+
+    @Override
+    public double getCrossoverMillis() {
+        return phaseNanos[CROSSOVER] / 1e6;
+    }
+
+    @Override
+    public double getMutateMillis() {
+        return phaseNanos[MUTATE] / 1e6;
+    }
+
+    @Override
+    public double getLocalSearchMillis() {
+        return phaseNanos[LOCAL_SEARCH] / 1e6;
+    }
+
+    @Override
+    public double getTotalDecodeMillis() {
+        return totalPhaseNanos[DECODE] / 1e6;
+    }
+
+    @Override
+    public double getTotalSelectionMillis() {
+        return totalPhaseNanos[SELECTION] / 1e6;
+    }
+
+    @Override
+    public double getTotalCrossoverMillis() {
+        return totalPhaseNanos[CROSSOVER] / 1e6;
+    }
+
+    @Override
+    public double getTotalMutateMillis() {
+        return totalPhaseNanos[MUTATE] / 1e6;
+    }
+
+    @Override
+    public double getTotalLocalSearchMillis() {
+        return totalPhaseNanos[LOCAL_SEARCH] / 1e6;
+    }
+
+    @Override
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    @Override
+    public long getDecodes() {
+        return decodes.sum();
+    }
+
+    @Override
+    public double getEvaluationsPerSecond() {
+        return evaluationsPerSecond;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long total = cacheHits + cacheMisses;
+        return total > 0 ? (double) cacheHits / total : 0;
+    }
+
+    @Override
+    public int getWorkers() {
+        return workers;
+    }
+
+    @Override
+    public double getWorkerIdleMillis() {
+        return idleNanos / 1e6;
+    }
+
+    @Override
+    public double getWorkerIdleRatio() {
+        return workerIdleRatio;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return lastAllocated;
+    }
+
+    @Override
+    public double getAllocationBytesPerSecond() {
+        return allocationBytesPerSecond;
+    }
+
+    // 阶段编号
+    final static int DECODE = 0, SELECTION = 1, CROSSOVER = 2, MUTATE = 3, LOCAL_SEARCH = 4;
+    // 运行的物种序号, 用于生成唯一的ObjectName
+    final static AtomicInteger SEQUENCE = new AtomicInteger();
+
+    final private int workers;
+    // 工作线程累加的计数: 适应度计算次数, 解码次数, 忙碌时间(纳秒)
+    final private LongAdder evaluations = new LongAdder(), decodes = new LongAdder(),
+            busyNanos = new LongAdder();
+    // 需要统计分配字节数的线程id
+    final private Queue<Long> threadIds = new ConcurrentLinkedQueue<>();
+    // 最近一代和累计的各阶段耗时(纳秒), 只由物种线程写入
+    final private long[] phaseNanos = new long[5], totalPhaseNanos = new long[5];
+    // 只由物种线程使用: 开始时刻, 上一代结束时刻, 上一代结束时的计数
+    private long beginNanos, generationNanos, lastEvaluations, lastBusy;
+    // 由物种线程写入, JMX线程读取
+    private volatile int generation;
+    private volatile double bestFitness = Double.NaN, averageFitness = Double.NaN,
+            worstFitness = Double.NaN, evaluationsPerSecond, workerIdleRatio, allocationBytesPerSecond;
+    private volatile long idleNanos, lastAllocated, cacheHits, cacheMisses;
+    // 注册的名字, 未注册时为null
+    private ObjectName objectName;
+}
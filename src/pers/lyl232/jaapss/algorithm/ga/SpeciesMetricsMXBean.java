@@ -0,0 +1,68 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+/**
+ * 物种运行指标的JMX接口, GA.jmx为true时物种在运行期间注册为
+ * pers.lyl232.jaapss:type=Species,name=species-序号(岛屿模型中为species-序号-island-岛屿序号).
+ * 标注"最近一代"的指标在每一代结束时更新, 其余指标为运行开始以来的累计值
+ */
+public interface SpeciesMetricsMXBean {
+    // 当前代数, 运行开始以来的时间(毫秒)
+    int getGeneration();
+
+    long getElapsedMillis();
+
+    // 最近一代的最佳, 平均, 最差适应度
+    double getBestFitness();
+
+    double getAverageFitness();
+
+    double getWorstFitness();
+
+    // 最近一代各阶段的耗时(毫秒)
+    double getDecodeMillis();
+
+    double getSelectionMillis();
+
+    double getCrossoverMillis();
+
+    double getMutateMillis();
+
+    double getLocalSearchMillis();
+
+    // 各阶段的累计耗时(毫秒)
+    double getTotalDecodeMillis();
+
+    double getTotalSelectionMillis();
+
+    double getTotalCrossoverMillis();
+
+    double getTotalMutateMillis();
+
+    double getTotalLocalSearchMillis();
+
+    // 适应度计算次数(包括命中缓存的), 实际解码次数, 最近一代每秒的适应度计算次数
+    long getEvaluations();
+
+    long getDecodes();
+
+    double getEvaluationsPerSecond();
+
+    // 适应度缓存的命中次数, 未命中次数, 命中率, 不使用缓存时均为0
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRate();
+
+    // 工作线程数, 工作线程在线程池任务中的累计空闲时间(毫秒)和最近一代的空闲比例
+    int getWorkers();
+
+    double getWorkerIdleMillis();
+
+    double getWorkerIdleRatio();
+
+    // 物种线程和工作线程的累计分配字节数, 最近一代每秒的分配字节数, JVM不支持时为-1
+    long getAllocatedBytes();
+
+    double getAllocationBytesPerSecond();
+}
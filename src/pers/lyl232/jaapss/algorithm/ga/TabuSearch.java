@@ -0,0 +1,409 @@
+package pers.lyl232.jaapss.algorithm.ga;
+
+import pers.lyl232.jaapss.algorithm.ParameterException;
+import pers.lyl232.jaapss.algorithm.Solver;
+import pers.lyl232.jaapss.problem.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 禁忌搜索: 与遗传算法使用相同的MS/OS编码, 解码器和基因检测器. 初始解为各派工规则生成的解中最好的一个,
+ * 每次迭代在当前解的关键路径上产生邻域(关键任务换用设备组内的其他设备, 关键块内相邻任务交换或插入),
+ * 由线程池并行评估, 移动到最好的非禁忌邻域解; 被禁忌的邻域解优于历史最优解时仍然接受(特赦准则).
+ * 禁忌表记录(任务, 位置)对: 任务离开的OS位置, 或者任务之前使用的设备, 在若干次迭代内不能回到原处
+ */
+public class TabuSearch implements Solver {
+    // 表示算法参数
+    public static class Parameter {
+        // 最大迭代次数, 禁忌期限(迭代次数), 每次迭代最多评估的邻域解个数(邻域更大时随机抽取)
+        public int maxIterations = 1000, tenure = 10, neighbours = 200;
+        // 随机种子
+        public long seed = System.currentTimeMillis();
+        public ScheduleStrategy scheduleStrategy = ScheduleStrategy.LEAST_EXCEED_TIME;
+        public ScheduleRule scheduleRule = ScheduleRule.FORWARD;
+        public int workers = Runtime.getRuntime().availableProcessors();
+        // 运行时间上限(秒), 0表示不限制
+        public double timeLimit = 0;
+
+        public Parameter() {
+        }
+
+        /**
+         * 复制参数
+         *
+         * @param other 被复制的参数
+         */
+        public Parameter(Parameter other) {
+            maxIterations = other.maxIterations;
+            tenure = other.tenure;
+            neighbours = other.neighbours;
+            seed = other.seed;
+            scheduleStrategy = other.scheduleStrategy;
+            scheduleRule = other.scheduleRule;
+            workers = other.workers;
+            timeLimit = other.timeLimit;
+        }
+    }
+
+    /**
+     * @param problem   问题描述对象
+     * @param parameter 算法参数
+     */
+    public TabuSearch(Problem problem, Parameter parameter) throws Exception {
+        checkParameters(parameter);
+        this.parameter = parameter;
+        // 物种作为编码环境: 种群的每个位置存放一个待评估的邻域解
+        Species.Parameter encoding = new Species.Parameter();
+        encoding.population = parameter.neighbours;
+        encoding.workers = parameter.workers;
+        encoding.seed = parameter.seed;
+        encoding.scheduleStrategy = parameter.scheduleStrategy;
+        encoding.scheduleRule = parameter.scheduleRule;
+        species = new Species(problem, encoding);
+        int n = species.geneLength;
+        currentMS = new int[n];
+        currentOS = new int[n];
+        bestMS = new int[n];
+        bestOS = new int[n];
+        tabuKeys = new long[Math.max(1, parameter.tenure * 2)];
+        tabuUntil = new int[tabuKeys.length];
+    }
+
+    /**
+     * 设置是否显示算法运行时信息
+     *
+     * @param verbose 是否要显示算法运行时信息
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * 要求正在运行的算法尽快停止, 可以在任意线程中调用, solve返回已经找到的最佳方案
+     */
+    @Override
+    public void stop() {
+        stopRequested = true;
+    }
+
+    @Override
+    public Schedule solve() throws Exception {
+        long deadline = System.nanoTime() + (long) (parameter.timeLimit * 1e9);
+        GeneChecker.initializeCurrentGeneChecker(species.problem);
+        Decoder.initializeCurrentDecoder(species);
+        ForkJoinPool pool = new ForkJoinPool(parameter.workers,
+                forkJoinPool -> new Worker(species, forkJoinPool), null, false);
+        try {
+            initialize();
+            CriticalPath path = new CriticalPath(species);
+            Random random = new Random(parameter.seed);
+            double optimized = species.evaluator.getOptimized();
+            Arrays.fill(tabuUntil, 0);
+            for (iterations = 0; iterations < parameter.maxIterations; ++iterations) {
+                if (stopRequested || bestFitness > optimized - 1e-5 ||
+                        (parameter.timeLimit > 0 && System.nanoTime() - deadline >= 0)) {
+                    break;
+                }
+                int count = neighbourhood(path, random);
+                if (count == 0) {
+                    break;
+                }
+                pool.invoke(new NeighbourTask(this, 0, count));
+
+                // 最好的非禁忌邻域解, 被禁忌但优于历史最优解的也可以接受; 都被禁忌时选择最好的
+                int chosen = -1, fallback = 0;
+                double[] fitness = species.population.fitness;
+                for (int k = 0; k < count; ++k) {
+                    if (fitness[k] > fitness[fallback]) {
+                        fallback = k;
+                    }
+                    if ((chosen < 0 || fitness[k] > fitness[chosen]) &&
+                            (!tabu(k) || fitness[k] > bestFitness + EPS)) {
+                        chosen = k;
+                    }
+                }
+                move(chosen >= 0 ? chosen : fallback);
+
+                if (currentFitness > bestFitness + EPS) {
+                    bestFitness = currentFitness;
+                    System.arraycopy(currentMS, 0, bestMS, 0, bestMS.length);
+                    System.arraycopy(currentOS, 0, bestOS, 0, bestOS.length);
+                    if (verbose) {
+                        System.out.printf("iteration-%d: best fitness improved: %f\n", iterations, bestFitness);
+                    }
+                } else if (verbose && iterations % VERBOSE_INTERVAL == 0) {
+                    System.out.printf("iteration-%d: current fitness: %f, best fitness: %f\n",
+                            iterations, currentFitness, bestFitness);
+                }
+            }
+            if (verbose) {
+                System.out.printf("stopped at iteration-%d, best fitness: %f\n", iterations, bestFitness);
+                if (species.fitnessCache != null) {
+                    System.out.println(species.fitnessCache);
+                }
+            }
+            return new Individual(species, bestMS.clone(), bestOS.clone(), bestFitness).decode();
+        } finally {
+            pool.shutdownNow();
+            // 当前线程的基因检测器和解码器引用整个物种, 求解结束后移除
+            GeneChecker.removeCurrentGeneChecker();
+            Decoder.removeCurrentDecoder();
+        }
+    }
+
+    /**
+     * @return 最近一次求解得到的最佳适应度
+     */
+    public double getBestFitness() {
+        return bestFitness;
+    }
+
+    /**
+     * @return 最近一次求解进行的迭代次数
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * 检查各项参数是否配置正确
+     *
+     * @param parameter 参数
+     * @throws ParameterException 参数异常
+     */
+    private static void checkParameters(Parameter parameter) throws ParameterException {
+        if (parameter.maxIterations < 1) {
+            throw new ParameterException("TS.maxIterations must be greater than 0.");
+        }
+        if (parameter.tenure < 0) {
+            throw new ParameterException("TS.tenure must not be negative.");
+        }
+        if (parameter.neighbours < 1) {
+            throw new ParameterException("TS.neighbours must be greater than 0.");
+        }
+        if (parameter.workers < 1) {
+            throw new ParameterException("TS.workers must be greater than 0.");
+        }
+        if (!(parameter.timeLimit >= 0) || Double.isInfinite(parameter.timeLimit)) {
+            throw new ParameterException("TS.timeLimit must be a non-negative number of seconds.");
+        }
+    }
+
+    /**
+     * 初始解: 各派工规则生成的解中适应度最大的一个
+     */
+    private void initialize() {
+        Population population = species.population;
+        int n = species.geneLength;
+        Dispatcher dispatcher = new Dispatcher(species);
+        bestFitness = Double.NEGATIVE_INFINITY;
+        for (DispatchingRule rule : DispatchingRule.values()) {
+            dispatcher.encode(rule, population.MS, population.OS, 0);
+            population.invalidate(0);
+            double fitness = population.getFitness(0);
+            if (verbose) {
+                System.out.printf("initial solution by %s: fitness: %f\n", rule, fitness);
+            }
+            if (fitness > bestFitness) {
+                bestFitness = fitness;
+                System.arraycopy(population.MS, 0, bestMS, 0, n);
+                System.arraycopy(population.OS, 0, bestOS, 0, n);
+            }
+        }
+        currentFitness = bestFitness;
+        System.arraycopy(bestMS, 0, currentMS, 0, n);
+        System.arraycopy(bestOS, 0, currentOS, 0, n);
+    }
+
+    /**
+     * 在当前解的关键路径上产生邻域, 超过上限时随机抽取
+     *
+     * @return 邻域解个数
+     */
+    private int neighbourhood(CriticalPath path, Random random) {
+        int[] chain = path.chain, position = path.position, MSRange = species.MSRange;
+        int length = path.find(currentMS, currentOS, 0);
+        moveCount = 0;
+        for (int k = 0; k < length; ++k) {
+            int t = chain[k];
+            // 在设备组内换用其他设备
+            if (!species.virtualTask[t]) {
+                int current = currentMS[t];
+                for (int d = 1; d < MSRange[t]; ++d) {
+                    addMove(MS_MOVE, t, -1, current, (current + d) % MSRange[t]);
+                }
+            }
+            // 关键块内: 在同一设备上阻塞它的关键任务之前执行
+            if (path.machineLink(k)) {
+                int u = chain[k + 1], from = position[t], to = position[u];
+                addMove(SWAP_MOVE, t, u, from, to);
+                if (Math.abs(from - to) > 1) {
+                    addMove(INSERT_MOVE, t, u, from, to);
+                }
+            }
+        }
+        // 随机抽取: 部分Fisher-Yates洗牌
+        int count = Math.min(moveCount, parameter.neighbours);
+        for (int k = 0; k < count && moveCount > parameter.neighbours; ++k) {
+            int j = k + random.nextInt(moveCount - k);
+            for (int f = 0; f < MOVE_FIELDS; ++f) {
+                int temp = moves[k * MOVE_FIELDS + f];
+                moves[k * MOVE_FIELDS + f] = moves[j * MOVE_FIELDS + f];
+                moves[j * MOVE_FIELDS + f] = temp;
+            }
+        }
+        return count;
+    }
+
+    private void addMove(int kind, int task, int other, int from, int to) {
+        if ((moveCount + 1) * MOVE_FIELDS > moves.length) {
+            moves = Arrays.copyOf(moves, moves.length * 2);
+        }
+        int p = moveCount++ * MOVE_FIELDS;
+        moves[p] = kind;
+        moves[p + 1] = task;
+        moves[p + 2] = other;
+        moves[p + 3] = from;
+        moves[p + 4] = to;
+    }
+
+    /**
+     * 将当前解应用第k个移动后写入种群的第k个位置, 在工作线程中调用
+     *
+     * @param k 移动序号, 也是种群中的位置
+     */
+    void applyMove(int k) {
+        Population population = species.population;
+        int n = species.geneLength, offset = k * n, p = k * MOVE_FIELDS;
+        System.arraycopy(currentMS, 0, population.MS, offset, n);
+        System.arraycopy(currentOS, 0, population.OS, offset, n);
+        if (moves[p] == MS_MOVE) {
+            population.MS[offset + moves[p + 1]] = moves[p + 4];
+        } else {
+            CriticalPath.moveOS(population.OS, offset, moves[p + 3], moves[p + 4], moves[p] == INSERT_MOVE);
+        }
+        population.invalidate(k);
+    }
+
+    /**
+     * 移动到第k个邻域解, 并将移动的逆向加入禁忌表
+     */
+    private void move(int k) {
+        Population population = species.population;
+        int n = species.geneLength, p = k * MOVE_FIELDS;
+        System.arraycopy(population.MS, k * n, currentMS, 0, n);
+        System.arraycopy(population.OS, k * n, currentOS, 0, n);
+        currentFitness = population.getFitness(k);
+        if (moves[p] == MS_MOVE) {
+            addTabu(key(MS_MOVE, moves[p + 1], moves[p + 3]));
+        } else {
+            addTabu(key(SWAP_MOVE, moves[p + 1], moves[p + 3]));
+            addTabu(key(SWAP_MOVE, moves[p + 2], moves[p + 4]));
+        }
+    }
+
+    /**
+     * @return 第k个移动是否被禁忌: 使任务回到禁忌表中的设备或者OS位置
+     */
+    private boolean tabu(int k) {
+        int p = k * MOVE_FIELDS;
+        if (moves[p] == MS_MOVE) {
+            return isTabu(key(MS_MOVE, moves[p + 1], moves[p + 4]));
+        }
+        return isTabu(key(SWAP_MOVE, moves[p + 1], moves[p + 4])) ||
+                isTabu(key(SWAP_MOVE, moves[p + 2], moves[p + 3]));
+    }
+
+    /**
+     * @param kind  MS_MOVE: 值为设备序号, 其他: 值为OS位置
+     * @param task  任务稠密下标
+     * @param value 设备序号或者OS位置
+     * @return 禁忌表的键
+     */
+    private static long key(int kind, int task, int value) {
+        return ((long) (kind == MS_MOVE ? 0 : 1) << 62) | ((long) task << 31) | value;
+    }
+
+    private void addTabu(long key) {
+        if (parameter.tenure == 0) {
+            return;
+        }
+        tabuKeys[tabuHead] = key;
+        tabuUntil[tabuHead] = iterations + 1 + parameter.tenure;
+        tabuHead = (tabuHead + 1) % tabuKeys.length;
+    }
+
+    private boolean isTabu(long key) {
+        for (int i = 0; i < tabuKeys.length; ++i) {
+            if (tabuUntil[i] > iterations && tabuKeys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 移动的种类: 换用设备, 交换OS位置, 插入到OS位置
+    final static int MS_MOVE = 0, SWAP_MOVE = 1, INSERT_MOVE = 2;
+    // 每个移动占用的整数个数: 种类, 任务, 另一个任务(换用设备时为-1), 原设备序号或者OS位置, 新设备序号或者OS位置
+    final private static int MOVE_FIELDS = 5;
+    // 输出运行时信息的迭代间隔
+    final private static int VERBOSE_INTERVAL = 100;
+    // 比较适应度的误差
+    final private static double EPS = 1e-9;
+
+    final private Parameter parameter;
+    // 编码环境, 种群存放待评估的邻域解
+    final Species species;
+    // 当前解和历史最优解
+    final private int[] currentMS, currentOS, bestMS, bestOS;
+    private double currentFitness, bestFitness = Double.NaN;
+    // 本次迭代的邻域: 每个移动占用MOVE_FIELDS个整数
+    private int[] moves = new int[MOVE_FIELDS * 64];
+    private int moveCount;
+    // 禁忌表: 循环存放(任务, 位置)键和禁忌结束的迭代次数, 每次迭代最多加入两个键
+    final private long[] tabuKeys;
+    final private int[] tabuUntil;
+    private int tabuHead = 0;
+    // 已经进行的迭代次数
+    private int iterations = 0;
+    // 是否显示算法运行时信息
+    private boolean verbose = false;
+    private volatile boolean stopRequested = false;
+}
+
+/**
+ * 邻域解评估: 将移动区间二分直到足够小, 每个工作线程构造邻域解并解码计算适应度
+ */
+class NeighbourTask extends RecursiveAction {
+    // 每个子任务最多评估的邻域解个数
+    final static int GRAIN = 4;
+
+    NeighbourTask(TabuSearch search, int begin, int end) {
+        this.search = search;
+        this.begin = begin;
+        this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+        Species species = search.species;
+        if (end - begin <= GRAIN) {
+            long busyBegin = System.nanoTime();
+            for (int k = begin; k < end; ++k) {
+                search.applyMove(k);
+                species.population.getFitness(k);
+            }
+            species.metrics.busy(System.nanoTime() - busyBegin);
+            return;
+        }
+        int mid = (begin + end) >>> 1;
+        invokeAll(new NeighbourTask(search, begin, mid),
+                new NeighbourTask(search, mid, end));
+    }
+
+    final private TabuSearch search;
+    final private int begin, end;
+}
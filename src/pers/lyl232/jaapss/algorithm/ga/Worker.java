@@ -1,126 +1,349 @@
 package pers.lyl232.jaapss.algorithm.ga;
 
-import javafx.util.Pair;
-
-import java.util.List;
-import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 
 /**
- * 工作类型, 告诉每个线程该做什么类型的任务
+ * 多线程加速遗传算法: Species线程池的工作线程, 负责维护本线程专用的非线程安全对象,
+ * 任务由工作窃取调度执行
  */
-enum WorkType {
-    DECODE, // 解码新一代的种群个体
-    CROSSOVER, // 交叉操作
-    EXIT, // 退出
+public class Worker extends ForkJoinWorkerThread {
+    Worker(Species species, ForkJoinPool pool) {
+        super(pool);
+        this.species = species;
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        species.metrics.thread(this);
+        // 初始化非线程安全类: 基因检测器, 解码器
+        GeneChecker.initializeCurrentGeneChecker(species.problem);
+        Decoder.initializeCurrentDecoder(species);
+        crossoverBuffer = new Population.CrossoverBuffer(species.geneLength);
+        if (species.parameter.localSearch > 0) {
+            localSearch = new LocalSearch(species);
+        }
+    }
+
+    @Override
+    protected void onTermination(Throwable exception) {
+        if (exception != null) {
+            System.out.printf("GA.Worker-%d:Exception occurs: %s\n",
+                    getPoolIndex(), exception.getMessage());
+            exception.printStackTrace();
+        }
+        // 释放这个线程专用的基因检测器和解码器
+        GeneChecker.removeCurrentGeneChecker();
+        Decoder.removeCurrentDecoder();
+        super.onTermination(exception);
+    }
+
+    final Species species;
+    // 本线程专用的交叉重用数组
+    Population.CrossoverBuffer crossoverBuffer;
+    // 本线程专用的局部搜索, 不进行局部搜索时为null
+    LocalSearch localSearch;
 }
 
 /**
- * 多线程加速遗传算法, 接受来自Species对象发布的任务并执行
+ * 新一代个体解码: 将个体区间二分直到足够小, 统计区间内的最佳个体和适应度之和
  */
-public class Worker extends Thread {
-    public Worker(Species species) {
+class DecodeTask extends RecursiveAction {
+    // 每个子任务最多解码的个体数
+    final static int GRAIN = 4;
+
+    DecodeTask(Species species, int begin, int end) {
         this.species = species;
+        this.begin = begin;
+        this.end = end;
     }
 
     @Override
-    public void run() {
-        // 初始化非线程安全类: 基因检测器
-        GeneChecker.initializeCurrentGeneChecker(species.problem);
-        Queue<WorkType> workQueue = species.workQueue;
-        Lock queueLock = species.queueLock;
-        Condition queueCondition = species.queueCondition;
-        try {
-            while (true) {
-                queueLock.lock();
-                while (workQueue.isEmpty()) {
-                    queueCondition.await();
+    protected void compute() {
+        if (end - begin <= GRAIN) {
+            TaskEvent event = new TaskEvent(species, SpeciesMetrics.DECODE, end - begin);
+            long busyBegin = System.nanoTime();
+            Population population = species.population;
+            for (int i = begin; i < end; ++i) {
+                if (species.stopping()) {
+                    // 中途停止, 只统计已经解码的个体
+                    break;
                 }
-                switch (workQueue.poll()) {
-                    case DECODE: {
-                        decode();
-                        break;
-                    }
-                    case CROSSOVER: {
-                        crossover();
-                        break;
-                    }
-                    case EXIT: {
-                        queueLock.unlock();
-                        return;
-                    }
+                double fitness = population.getFitness(i);
+                if (bestIndex < 0 || bestFitness < fitness) {
+                    bestIndex = i;
+                    bestFitness = fitness;
                 }
+                worstFitness = Math.min(worstFitness, fitness);
+                fitnessSum += fitness;
             }
-        } catch (Exception exception) {
-            System.out.printf("GA.Worker-%d:Exception occurs: %s\n",
-                    Thread.currentThread().getId(), exception.getMessage());
-            exception.printStackTrace();
+            species.metrics.busy(System.nanoTime() - busyBegin);
+            event.commit();
+            return;
         }
-        // 释放这个线程专用的基因检测器
-        GeneChecker.removeCurrentGeneChecker();
+        int mid = (begin + end) >>> 1;
+        DecodeTask left = new DecodeTask(species, begin, mid),
+                right = new DecodeTask(species, mid, end);
+        invokeAll(left, right);
+        // 适应度相同时保留下标较小的个体, 与顺序执行的结果一致
+        DecodeTask better = right.bestIndex >= 0 &&
+                (left.bestIndex < 0 || left.bestFitness < right.bestFitness) ? right : left;
+        bestIndex = better.bestIndex;
+        bestFitness = better.bestFitness;
+        worstFitness = Math.min(left.worstFitness, right.worstFitness);
+        fitnessSum = left.fitnessSum + right.fitnessSum;
     }
 
-    /**
-     * 交叉操作
-     */
-    private void crossover() {
-        // 粗粒度分配
-        List<Pair<Integer, Integer>> workList = species.infoQueueLII.poll();
-        assert workList != null;
-        Random random = new Random(species.globalRandom.nextLong());
-        species.queueLock.unlock();
-        for (Pair<Integer, Integer> info : workList) {
-            int i = info.getKey(), j = info.getValue();
-            Individual[] individuals = species.individuals;
-            Pair<Individual, Individual> childPair = Individual.crossover(
-                    individuals[i], individuals[j],
-                    species.parameter.MSCrossoverRepeat, random
-            );
-            individuals[i] = childPair.getKey();
-            individuals[j] = childPair.getValue();
-        }
+    final private Species species;
+    final private int begin, end;
+    // 结果: 区间内的最佳个体序号(中途停止且没有解码任何个体时为-1), 最佳适应度, 最差适应度, 适应度之和
+    int bestIndex = -1;
+    double bestFitness = Double.NEGATIVE_INFINITY, worstFitness = Double.POSITIVE_INFINITY, fitnessSum = 0;
+}
+
+/**
+ * 交叉操作: 将交叉配对区间二分直到单个配对, 每个配对使用Species预先分配的随机种子
+ */
+class CrossoverTask extends RecursiveAction {
+
+    CrossoverTask(Species species, int begin, int end) {
+        this.species = species;
+        this.begin = begin;
+        this.end = end;
+    }
 
-        // 向主线程回复任务已完成
-        synchronized (species.responseRemain) {
-            if (species.responseRemain.decrementAndGet() == 0) {
-                species.responseRemain.notifyAll();
+    @Override
+    protected void compute() {
+        if (end - begin <= 1) {
+            TaskEvent event = new TaskEvent(species, SpeciesMetrics.CROSSOVER, end - begin);
+            long busyBegin = System.nanoTime();
+            Population.CrossoverBuffer buffer = ((Worker) Thread.currentThread()).crossoverBuffer;
+            for (int k = begin; k < end; ++k) {
+                if (species.stopping()) {
+                    break;
+                }
+                species.population.crossover(
+                        species.crossoverPairs[k * 2], species.crossoverPairs[k * 2 + 1],
+                        species.parameter.MSCrossoverRepeat,
+                        new Random(species.crossoverSeeds[k]), buffer
+                );
             }
+            species.metrics.busy(System.nanoTime() - busyBegin);
+            event.commit();
+            return;
         }
+        int mid = (begin + end) >>> 1;
+        invokeAll(new CrossoverTask(species, begin, mid),
+                new CrossoverTask(species, mid, end));
+    }
 
+    final private Species species;
+    final private int begin, end;
+}
+
+/**
+ * 精英个体的局部搜索: 将个体区间二分直到单个个体, 各个体的搜索互不影响
+ */
+class LocalSearchTask extends RecursiveAction {
+
+    LocalSearchTask(Species species, int begin, int end) {
+        this.species = species;
+        this.begin = begin;
+        this.end = end;
     }
 
-    /**
-     * 新一代个体解码
-     */
-    private void decode() {
-        Pair<Integer, Integer> info = species.infoQueueII.poll();
-        assert info != null;
-        species.queueLock.unlock();
-        Individual[] individuals = species.individuals;
-        Individual best = individuals[0];
-        double fitnessSum = 0;
-        // 解码并更新种群全局数据
-        for (int i = info.getKey(); i < individuals.length; i += info.getValue()) {
-            if (best.getFitness() < individuals[i].getFitness()) {
-                best = individuals[i];
+    @Override
+    protected void compute() {
+        if (end - begin <= 1) {
+            TaskEvent event = new TaskEvent(species, SpeciesMetrics.LOCAL_SEARCH, end - begin);
+            long busyBegin = System.nanoTime();
+            LocalSearch localSearch = ((Worker) Thread.currentThread()).localSearch;
+            for (int i = begin; i < end; ++i) {
+                if (species.stopping()) {
+                    break;
+                }
+                localSearch.improve(i, species.parameter.localSearch);
             }
-            fitnessSum += individuals[i].getFitness();
+            species.metrics.busy(System.nanoTime() - busyBegin);
+            event.commit();
+            return;
         }
+        int mid = (begin + end) >>> 1;
+        invokeAll(new LocalSearchTask(species, begin, mid),
+                new LocalSearchTask(species, mid, end));
+    }
+
+    final private Species species;
+    final private int begin, end;
+}
 
+/**
+ * 找出区间内适应度最大的若干个体: 将区间二分直到足够小, 合并左右两半的结果
+ */
+class EliteTask extends RecursiveAction {
+    // 每个子任务最多扫描的个体数
+    final static int GRAIN = 256;
 
-        synchronized (species.responseRemain) {
-            if (species.responseRemain.decrementAndGet() == 0) {
-                species.responseRemain.notifyAll();
+    EliteTask(Species species, int begin, int end, int keep) {
+        this.species = species;
+        this.begin = begin;
+        this.end = end;
+        this.elites = new int[keep];
+    }
+
+    @Override
+    protected void compute() {
+        double[] fitness = species.population.fitness;
+        int keep = elites.length;
+        if (end - begin <= GRAIN) {
+            TaskEvent event = new TaskEvent(species, SpeciesMetrics.SELECTION, end - begin);
+            long busyBegin = System.nanoTime();
+            for (int i = begin; i < end; ++i) {
+                double f = fitness[i];
+                if (count == keep && f <= fitness[elites[keep - 1]]) {
+                    continue;
+                }
+                int pos = count < keep ? count++ : keep - 1;
+                while (pos > 0 && fitness[elites[pos - 1]] < f) {
+                    elites[pos] = elites[pos - 1];
+                    --pos;
+                }
+                elites[pos] = i;
             }
-            if (species.best.getFitness() < best.getFitness()) {
-                species.best = best;
+            species.metrics.busy(System.nanoTime() - busyBegin);
+            event.commit();
+            return;
+        }
+        int mid = (begin + end) >>> 1;
+        EliteTask left = new EliteTask(species, begin, mid, keep),
+                right = new EliteTask(species, mid, end, keep);
+        invokeAll(left, right);
+        // 归并: 适应度相同时左半(序号较小)优先
+        int l = 0, r = 0;
+        while (count < keep && (l < left.count || r < right.count)) {
+            if (r >= right.count || (l < left.count &&
+                    fitness[left.elites[l]] >= fitness[right.elites[r]])) {
+                elites[count++] = left.elites[l++];
+            } else {
+                elites[count++] = right.elites[r++];
             }
-            species.fitnessSum += fitnessSum;
         }
-
     }
 
     final private Species species;
+    final private int begin, end;
+    // 结果: 按适应度由大到小排列的个体序号和个数
+    final int[] elites;
+    int count = 0;
+}
+
+/**
+ * 将个体区间按固定大小分块并行处理, 每块使用由种子和块的起始位置确定的随机对象,
+ * 分块方式只与区间有关, 所以结果与线程数和调度无关
+ */
+abstract class ChunkTask extends RecursiveAction {
+    // 每块的个体数
+    final static int CHUNK = 32;
+
+    ChunkTask(Species species, int begin, int end, long seed) {
+        this.species = species;
+        this.begin = begin;
+        this.end = end;
+        this.seed = seed;
+    }
+
+    @Override
+    protected void compute() {
+        if (end - begin <= CHUNK) {
+            TaskEvent event = new TaskEvent(species, phase(), end - begin);
+            long busyBegin = System.nanoTime();
+            // 混合种子和块的起始位置(SplitMix64), 避免相邻块的随机序列相关
+            long z = seed + (begin + 1) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            process(new Random(z ^ (z >>> 31)));
+            species.metrics.busy(System.nanoTime() - busyBegin);
+            event.commit();
+            return;
+        }
+        int mid = begin + (end - begin + CHUNK - 1) / CHUNK / 2 * CHUNK;
+        invokeAll(create(begin, mid), create(mid, end));
+    }
+
+    /**
+     * 创建处理子区间的任务
+     */
+    abstract ChunkTask create(int begin, int end);
+
+    /**
+     * @return 所属的阶段编号
+     */
+    abstract int phase();
+
+    /**
+     * 处理一块
+     *
+     * @param random 这一块专用的随机对象
+     */
+    abstract void process(Random random);
+
+    final Species species;
+    final int begin, end;
+    // 本次处理的随机种子
+    final long seed;
+}
+
+/**
+ * 锦标赛选择下一代个体
+ */
+class SelectionTask extends ChunkTask {
+    SelectionTask(Species species, int begin, int end, long seed) {
+        super(species, begin, end, seed);
+    }
+
+    @Override
+    ChunkTask create(int begin, int end) {
+        return new SelectionTask(species, begin, end, seed);
+    }
+
+    @Override
+    int phase() {
+        return SpeciesMetrics.SELECTION;
+    }
+
+    @Override
+    void process(Random random) {
+        for (int i = begin; i < end; ++i) {
+            species.tournament(i, random);
+        }
+    }
+}
+
+/**
+ * 个体变异
+ */
+class MutateTask extends ChunkTask {
+    MutateTask(Species species, int begin, int end, long seed) {
+        super(species, begin, end, seed);
+    }
+
+    @Override
+    ChunkTask create(int begin, int end) {
+        return new MutateTask(species, begin, end, seed);
+    }
+
+    @Override
+    int phase() {
+        return SpeciesMetrics.MUTATE;
+    }
+
+    @Override
+    void process(Random random) {
+        for (int i = begin; i < end; ++i) {
+            species.mutate(i, random);
+        }
+    }
 }
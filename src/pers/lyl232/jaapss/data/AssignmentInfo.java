@@ -0,0 +1,17 @@
+package pers.lyl232.jaapss.data;
+
+/**
+ * 任务分配信息类: 之前输出的调度方案中的一条记录, 只存储数据
+ */
+public class AssignmentInfo {
+    /**
+     * @param taskId    任务id
+     * @param machineId 分配的设备id
+     */
+    public AssignmentInfo(int taskId, int machineId) {
+        this.taskId = taskId;
+        this.machineId = machineId;
+    }
+
+    final public int taskId, machineId;
+}
@@ -0,0 +1,327 @@
+package pers.lyl232.jaapss.data;
+
+import pers.lyl232.jaapss.algorithm.ParameterException;
+import pers.lyl232.jaapss.data.loader.MachineGroupLoader;
+import pers.lyl232.jaapss.data.loader.TaskInfoLoader;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * 合成问题生成器: 生成与CSVTaskLoader和CSVMachineLoader格式一致的任务和设备数据,
+ * 用于离线复现生产规模的问题和测量求解器吞吐量.
+ * <p>
+ * 任务依赖由若干棵依赖树组成, 每棵树从最终任务开始按层生成前驱任务, 每个任务以一定概率
+ * 分叉为多个前驱任务, 树的深度和大小受参数限制. 只有最终任务有预计完成时间.
+ * <p>
+ * 用法: java -cp JAAPSS.jar pers.lyl232.jaapss.data.InstanceGenerator [选项] [任务csv] [设备csv]
+ * <p>
+ * 选项与Parameter的字段同名, 例如: -tasks 100000 -depth 8 -fanIn 3 -groups 20
+ */
+public class InstanceGenerator {
+
+    // 生成参数
+    public static class Parameter {
+        // 任务数
+        public int tasks = 1000;
+        // 依赖树的最大深度(从叶子任务到最终任务的任务个数), 每个任务最多的前驱任务数
+        public int depth = 8, fanIn = 3;
+        // 每个任务分叉(有多个前驱任务)的概率
+        public double branchRate = 0.2;
+        // 每棵依赖树最多的任务数
+        public int maxTreeSize = 200;
+        // 设备组数, 每组的设备数
+        public int groups = 8, groupSize = 4;
+        // 交期松紧度: 最终任务的预计完成时间 = dueTightness * (关键路径长度 + 随机[0, 1) * 平均设备负载),
+        // 越小越紧, 不大于0表示不设置预计完成时间
+        public double dueTightness = 1.0;
+        // 虚拟设备组所占的比例
+        public double virtualRate = 0.0;
+        // 随机种子
+        public long seed = System.currentTimeMillis();
+    }
+
+    /**
+     * 按参数生成问题数据
+     *
+     * @param parameter 生成参数
+     * @throws ParameterException 参数异常
+     */
+    public InstanceGenerator(Parameter parameter) throws ParameterException {
+        checkParameters(parameter);
+        this.parameter = parameter;
+        int n = parameter.tasks;
+        successor = new int[n];
+        group = new int[n];
+        count = new int[n];
+        prepareTime = new int[n];
+        requireTimeEach = new double[n];
+        expireTime = new double[n];
+        Arrays.fill(expireTime, -1);
+
+        Random random = new Random(parameter.seed);
+        int virtualGroups = (int) Math.round(parameter.groups * parameter.virtualRate);
+        virtualMachineGroups = new TreeSet<>();
+        for (int g = parameter.groups - virtualGroups + 1; g <= parameter.groups; ++g) {
+            virtualMachineGroups.add(g);
+        }
+
+        // 依赖树: 按层生成, 前驱任务的下标总是大于后继任务的下标
+        int[] level = new int[n];
+        List<Integer> roots = new ArrayList<>();
+        int generated = 0;
+        while (generated < n) {
+            int root = generated++, end = Math.min(n, root + parameter.maxTreeSize);
+            roots.add(root);
+            successor[root] = -1;
+            level[root] = 1;
+            for (int i = root; i < generated && generated < end; ++i) {
+                if (level[i] >= parameter.depth) {
+                    continue;
+                }
+                int predecessors = parameter.fanIn > 1 && random.nextDouble() < parameter.branchRate ?
+                        2 + random.nextInt(parameter.fanIn - 1) : 1;
+                for (int k = 0; k < predecessors && generated < end; ++k) {
+                    successor[generated] = i;
+                    level[generated++] = level[i] + 1;
+                }
+            }
+        }
+
+        double totalWork = 0;
+        for (int i = 0; i < n; ++i) {
+            group[i] = 1 + random.nextInt(parameter.groups);
+            count[i] = 1 + random.nextInt(5);
+            prepareTime[i] = random.nextInt(31);
+            requireTimeEach[i] = 10 + random.nextInt(51);
+            if (!virtualMachineGroups.contains(group[i])) {
+                totalWork += prepareTime[i] + count[i] * requireTimeEach[i];
+            }
+        }
+
+        if (parameter.dueTightness > 0) {
+            // 关键路径: 从下标大的任务(前驱)向下标小的任务(后继)传播最长路径
+            double[] longest = new double[n];
+            for (int i = n - 1; i >= 0; --i) {
+                longest[i] += prepareTime[i] + count[i] * requireTimeEach[i];
+                if (successor[i] != -1) {
+                    longest[successor[i]] = Math.max(longest[successor[i]], longest[i]);
+                }
+            }
+            int machines = Math.max(1, (parameter.groups - virtualGroups) * parameter.groupSize);
+            double load = totalWork / machines;
+            for (int root : roots) {
+                expireTime[root] = Math.round(parameter.dueTightness *
+                        (longest[root] + random.nextDouble() * load));
+            }
+        }
+    }
+
+    /**
+     * @return 从生成的数据加载任务信息的加载器
+     */
+    public TaskInfoLoader taskLoader() {
+        return () -> {
+            Map<Integer, TaskInfo> taskMap = new HashMap<>();
+            for (int i = 0; i < successor.length; ++i) {
+                taskMap.put(i + 1, new TaskInfo(i + 1, expireTime[i], requireTimeEach[i],
+                        group[i], count[i], successor[i] != -1 ? successor[i] + 1 : -1,
+                        prepareTime[i]));
+            }
+            return taskMap;
+        };
+    }
+
+    /**
+     * @return 从生成的数据加载设备组信息的加载器
+     */
+    public MachineGroupLoader machineLoader() {
+        return () -> {
+            Map<Integer, MachineGroup> groupMap = new HashMap<>();
+            List<Integer> allMachines = new ArrayList<>();
+            for (int g = 1; g <= parameter.groups; ++g) {
+                List<Integer> machines = new ArrayList<>();
+                for (int m = 0; m < parameter.groupSize; ++m) {
+                    machines.add(machineId(g, m));
+                }
+                groupMap.put(g, new MachineGroup(g, Collections.unmodifiableList(machines)));
+                allMachines.addAll(machines);
+            }
+            // 所有设备的id为-1
+            groupMap.put(-1, new MachineGroup(-1, allMachines));
+            return groupMap;
+        };
+    }
+
+    /**
+     * 将生成的数据写入带表头的csv文件, 格式与data/example-task.csv和data/example-machine.csv一致
+     *
+     * @param taskCSV    任务信息csv文件路径
+     * @param machineCSV 设备信息csv文件路径
+     * @param encoding   编码
+     * @throws IOException 写文件异常
+     */
+    public void write(String taskCSV, String machineCSV, String encoding) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(taskCSV), Charset.forName(encoding)), 1 << 16)) {
+            writer.write("任务,预计完成时间,运行时间,设备组,任务数量,后继任务,准备时间\n");
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < successor.length; ++i) {
+                builder.setLength(0);
+                builder.append(i + 1).append(',');
+                if (expireTime[i] >= 0) {
+                    builder.append((long) expireTime[i]);
+                }
+                builder.append(',').append((long) requireTimeEach[i])
+                        .append(',').append(group[i])
+                        .append(',').append(count[i])
+                        .append(',').append(successor[i] != -1 ? successor[i] + 1 : -1)
+                        .append(',').append(prepareTime[i]).append('\n');
+                writer.append(builder);
+            }
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(machineCSV), Charset.forName(encoding)))) {
+            writer.write("设备,设备组,状态(1可用，0不可用)\n");
+            for (int g = 1; g <= parameter.groups; ++g) {
+                for (int m = 0; m < parameter.groupSize; ++m) {
+                    writer.write(String.format("%d,%d,1\n", machineId(g, m), g));
+                }
+            }
+        }
+    }
+
+    /**
+     * 命令行入口: 解析选项, 生成并写入csv文件, 输出需要设置的虚拟设备组
+     */
+    public static void main(String[] args) throws Exception {
+        Parameter parameter = new Parameter();
+        String taskCSV = "./data/generated-task.csv", machineCSV = "./data/generated-machine.csv",
+                encoding = "GBK";
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if (!args[i].startsWith("-")) {
+                files.add(args[i]);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                System.out.printf("Error: option %s requires a value\n", args[i]);
+                return;
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "-tasks": {
+                    parameter.tasks = Integer.parseInt(value);
+                    break;
+                }
+                case "-depth": {
+                    parameter.depth = Integer.parseInt(value);
+                    break;
+                }
+                case "-fanIn": {
+                    parameter.fanIn = Integer.parseInt(value);
+                    break;
+                }
+                case "-branchRate": {
+                    parameter.branchRate = Double.parseDouble(value);
+                    break;
+                }
+                case "-maxTreeSize": {
+                    parameter.maxTreeSize = Integer.parseInt(value);
+                    break;
+                }
+                case "-groups": {
+                    parameter.groups = Integer.parseInt(value);
+                    break;
+                }
+                case "-groupSize": {
+                    parameter.groupSize = Integer.parseInt(value);
+                    break;
+                }
+                case "-dueTightness": {
+                    parameter.dueTightness = Double.parseDouble(value);
+                    break;
+                }
+                case "-virtualRate": {
+                    parameter.virtualRate = Double.parseDouble(value);
+                    break;
+                }
+                case "-seed": {
+                    parameter.seed = Long.parseLong(value);
+                    break;
+                }
+                case "-encoding": {
+                    encoding = value;
+                    break;
+                }
+                default: {
+                    System.out.printf("Error: unknown option: %s\n", args[i - 1]);
+                    return;
+                }
+            }
+        }
+        if (files.size() > 0) {
+            taskCSV = files.get(0);
+        }
+        if (files.size() > 1) {
+            machineCSV = files.get(1);
+        }
+        InstanceGenerator generator = new InstanceGenerator(parameter);
+        generator.write(taskCSV, machineCSV, encoding);
+        System.out.printf("generated %d tasks to %s, %d machines to %s\n",
+                parameter.tasks, taskCSV, parameter.groups * parameter.groupSize, machineCSV);
+        if (!generator.virtualMachineGroups.isEmpty()) {
+            StringBuilder builder = new StringBuilder("set VMG");
+            for (int g : generator.virtualMachineGroups) {
+                builder.append(' ').append(g);
+            }
+            System.out.println(builder.toString());
+        }
+    }
+
+    /**
+     * 设备组g的第m台设备的id
+     */
+    private int machineId(int g, int m) {
+        return (g - 1) * parameter.groupSize + m + 1;
+    }
+
+    /**
+     * 检查各项参数是否配置正确
+     *
+     * @param parameter 参数
+     * @throws ParameterException 参数异常
+     */
+    private static void checkParameters(Parameter parameter) throws ParameterException {
+        if (parameter.tasks < 1 || parameter.tasks > 1000000) {
+            throw new ParameterException("tasks must be in [1, 1000000].");
+        }
+        if (parameter.depth < 1) {
+            throw new ParameterException("depth must be greater than 0.");
+        }
+        if (parameter.fanIn < 1) {
+            throw new ParameterException("fanIn must be greater than 0.");
+        }
+        if (parameter.branchRate < 0 || parameter.branchRate > 1) {
+            throw new ParameterException("branchRate must be in [0, 1].");
+        }
+        if (parameter.maxTreeSize < 1) {
+            throw new ParameterException("maxTreeSize must be greater than 0.");
+        }
+        if (parameter.groups < 1 || parameter.groupSize < 1) {
+            throw new ParameterException("groups and groupSize must be greater than 0.");
+        }
+        if (parameter.virtualRate < 0 || parameter.virtualRate > 1) {
+            throw new ParameterException("virtualRate must be in [0, 1].");
+        }
+    }
+
+    final private Parameter parameter;
+    // 生成的虚拟设备组id, 求解时需要设置为virtualMachineGroups
+    final public Set<Integer> virtualMachineGroups;
+    // 第i个任务(id为i + 1)的后继任务下标(-1表示没有), 设备组, 任务数量, 准备时间
+    final private int[] successor, group, count, prepareTime;
+    // 第i个任务的单位运行时间, 预计完成时间(-1表示没有)
+    final private double[] requireTimeEach, expireTime;
+}
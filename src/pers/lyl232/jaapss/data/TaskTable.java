@@ -0,0 +1,129 @@
+package pers.lyl232.jaapss.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 列式任务信息表: 每个字段存放在一个基本类型数组中, 第i行的各个字段位于各数组的下标i,
+ * 行的顺序与数据文件中记录的顺序一致. 加载完成后各数组的长度恰好等于行数, 只读
+ */
+public class TaskTable {
+
+    /**
+     * @param capacity 初始容量
+     */
+    public TaskTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        id = new int[capacity];
+        machineGroupId = new int[capacity];
+        count = new int[capacity];
+        successorId = new int[capacity];
+        prepareTime = new int[capacity];
+        expireTime = new double[capacity];
+        requireTimeEach = new double[capacity];
+    }
+
+    /**
+     * 按顺序拼接多个表
+     *
+     * @param parts 各部分, 按行的顺序排列
+     * @return 拼接后的表, 各数组长度等于总行数
+     */
+    public static TaskTable concat(List<TaskTable> parts) {
+        int total = 0;
+        for (TaskTable part : parts) {
+            total += part.size;
+        }
+        TaskTable table = new TaskTable(0);
+        table.id = new int[total];
+        table.machineGroupId = new int[total];
+        table.count = new int[total];
+        table.successorId = new int[total];
+        table.prepareTime = new int[total];
+        table.expireTime = new double[total];
+        table.requireTimeEach = new double[total];
+        for (TaskTable part : parts) {
+            int at = table.size, n = part.size;
+            System.arraycopy(part.id, 0, table.id, at, n);
+            System.arraycopy(part.machineGroupId, 0, table.machineGroupId, at, n);
+            System.arraycopy(part.count, 0, table.count, at, n);
+            System.arraycopy(part.successorId, 0, table.successorId, at, n);
+            System.arraycopy(part.prepareTime, 0, table.prepareTime, at, n);
+            System.arraycopy(part.expireTime, 0, table.expireTime, at, n);
+            System.arraycopy(part.requireTimeEach, 0, table.requireTimeEach, at, n);
+            table.size += n;
+        }
+        return table;
+    }
+
+    /**
+     * 追加一行
+     */
+    public void add(int id, double expireTime, double requireTimeEach, int machineGroupId,
+                    int count, int successorId, int prepareTime) {
+        if (size == this.id.length) {
+            grow();
+        }
+        this.id[size] = id;
+        this.expireTime[size] = expireTime;
+        this.requireTimeEach[size] = requireTimeEach;
+        this.machineGroupId[size] = machineGroupId;
+        this.count[size] = count;
+        this.successorId[size] = successorId;
+        this.prepareTime[size] = prepareTime;
+        ++size;
+    }
+
+    /**
+     * 将容量缩减到行数
+     */
+    public void trim() {
+        if (size == id.length) {
+            return;
+        }
+        id = Arrays.copyOf(id, size);
+        machineGroupId = Arrays.copyOf(machineGroupId, size);
+        count = Arrays.copyOf(count, size);
+        successorId = Arrays.copyOf(successorId, size);
+        prepareTime = Arrays.copyOf(prepareTime, size);
+        expireTime = Arrays.copyOf(expireTime, size);
+        requireTimeEach = Arrays.copyOf(requireTimeEach, size);
+    }
+
+    /**
+     * @return 行数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i 行号
+     * @return 第i行的任务信息对象
+     */
+    public TaskInfo get(int i) {
+        return new TaskInfo(id[i], expireTime[i], requireTimeEach[i], machineGroupId[i],
+                count[i], successorId[i], prepareTime[i]);
+    }
+
+    /**
+     * 容量翻倍
+     */
+    private void grow() {
+        int capacity = id.length * 2;
+        id = Arrays.copyOf(id, capacity);
+        machineGroupId = Arrays.copyOf(machineGroupId, capacity);
+        count = Arrays.copyOf(count, capacity);
+        successorId = Arrays.copyOf(successorId, capacity);
+        prepareTime = Arrays.copyOf(prepareTime, capacity);
+        expireTime = Arrays.copyOf(expireTime, capacity);
+        requireTimeEach = Arrays.copyOf(requireTimeEach, capacity);
+    }
+
+    // 任务id, 所需设备组(-1表示未定义), 单位任务数量, 后继任务id(-1表示没有), 准备时间
+    public int[] id, machineGroupId, count, successorId, prepareTime;
+    // 预计完成时间(-1表示没有), 每个单位任务的运行时间
+    public double[] expireTime, requireTimeEach;
+    // 行数
+    private int size = 0;
+}
@@ -0,0 +1,56 @@
+package pers.lyl232.jaapss.data.loader;
+
+import com.csvreader.CsvReader;
+import pers.lyl232.jaapss.data.AssignmentInfo;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 读取之前输出的调度方案csv, 支持默认格式(Schedule.toCSV)和内部格式(Schedule.toCSVInternal),
+ * 由表头区分: 内部格式的第一列表头为Task. 只读取任务id和设备id, 记录的顺序即为按开始时间排列的顺序
+ */
+public class CSVScheduleLoader {
+
+    /**
+     * @param csvFile  调度方案csv文件路径, 必须有表头
+     * @param encoding 编码
+     */
+    public CSVScheduleLoader(String csvFile, String encoding) {
+        this.file = csvFile;
+        this.encoding = encoding;
+    }
+
+    /**
+     * @return 按文件中的顺序(即开始时间的顺序)排列的任务分配信息
+     */
+    public List<AssignmentInfo> load() throws Exception {
+        CsvReader reader = new CsvReader(file, ',', Charset.forName(this.encoding));
+        if (!reader.readHeaders()) {
+            reader.close();
+            throw new DataLoadException(String.format("schedule %s is empty", file));
+        }
+        // 设备id所在的列: 内部格式为Task,Machine,..., 默认格式为任务id,后继任务,计划开始时间,计划结束时间,设备id
+        int machineColumn = "Task".equals(reader.getHeaders()[0].trim()) ? 1 : 4;
+
+        List<AssignmentInfo> assignments = new ArrayList<>();
+        String record = "";
+        try {
+            while (reader.readRecord()) {
+                record = reader.getRawRecord();
+                String[] item = record.split(",");
+                assignments.add(new AssignmentInfo(Integer.parseInt(item[0].trim()),
+                        Integer.parseInt(item[machineColumn].trim())));
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException exception) {
+            throw new DataLoadException(
+                    String.format("schedule record(%s) necessary information invalid", record));
+        } finally {
+            reader.close();
+        }
+        return assignments;
+    }
+
+    final private String file, encoding;
+}
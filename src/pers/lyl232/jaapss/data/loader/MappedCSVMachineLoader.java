@@ -0,0 +1,98 @@
+package pers.lyl232.jaapss.data.loader;
+
+import pers.lyl232.jaapss.data.MachineGroup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * 内存映射的并行csv设备信息加载器: 格式, 错误信息和设备组内设备的顺序与CSVMachineLoader一致.
+ * 编码与ASCII不兼容时退回CSVMachineLoader
+ */
+public class MappedCSVMachineLoader implements MachineGroupLoader {
+
+    /**
+     * @param csvFile   设备信息文件路径
+     * @param hasHeader 是否有表头
+     * @param encoding  编码
+     */
+    public MappedCSVMachineLoader(String csvFile, boolean hasHeader, String encoding) {
+        this.file = csvFile;
+        this.hasHeader = hasHeader;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public Map<Integer, MachineGroup> load() throws Exception {
+        Charset charset = Charset.forName(encoding);
+        if (!MappedCSVReader.supports(charset)) {
+            return new CSVMachineLoader(file, hasHeader, encoding).load();
+        }
+        List<Chunk> chunks = new MappedCSVReader<Chunk>(file, hasHeader, charset, 3) {
+            @Override
+            Chunk newChunk() {
+                return new Chunk();
+            }
+
+            @Override
+            void record(Chunk chunk, ByteBuffer buffer, int[] begin, int[] end) {
+                int machineId = parseInt(buffer, begin[0], end[0]),
+                        // 如果设备组未定义, 则设为设备组0
+                        groupId = parseInt(buffer, begin[1], end[1], 0),
+                        enable = parseInt(buffer, begin[2], end[2], 0);
+                if (enable != 0) {
+                    chunk.add(machineId, groupId);
+                }
+            }
+
+            @Override
+            String errorMessage(String record) {
+                return String.format("machine group record(%s) necessary information invalid",
+                        record);
+            }
+        }.read();
+
+        Map<Integer, List<Integer>> data = new HashMap<>();
+        for (Chunk chunk : chunks) {
+            for (int i = 0; i < chunk.size; ++i) {
+                data.computeIfAbsent(chunk.groupIds[i], key -> new ArrayList<>())
+                        .add(chunk.machineIds[i]);
+            }
+        }
+
+        // 将数据包装成MachineGroup
+        Map<Integer, MachineGroup> groupMap = new HashMap<>();
+        // 所有的设备
+        List<Integer> allMachines = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> entry : data.entrySet()) {
+            groupMap.put(entry.getKey(),
+                    new MachineGroup(entry.getKey(), Collections.unmodifiableList(entry.getValue())));
+            allMachines.addAll(entry.getValue());
+        }
+        // 所有设备的id为-1
+        groupMap.put(-1, new MachineGroup(-1, allMachines));
+
+        return groupMap;
+    }
+
+    /**
+     * 一块中可用设备的id和设备组id
+     */
+    private static class Chunk {
+        void add(int machineId, int groupId) {
+            if (size == machineIds.length) {
+                machineIds = Arrays.copyOf(machineIds, size * 2);
+                groupIds = Arrays.copyOf(groupIds, size * 2);
+            }
+            machineIds[size] = machineId;
+            groupIds[size++] = groupId;
+        }
+
+        int[] machineIds = new int[64], groupIds = new int[64];
+        int size = 0;
+    }
+
+    final private String file, encoding;
+    final private boolean hasHeader;
+}
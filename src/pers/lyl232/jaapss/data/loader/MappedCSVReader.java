@@ -0,0 +1,332 @@
+package pers.lyl232.jaapss.data.loader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 内存映射的并行csv读取器: 将文件映射到内存, 按行边界切分成若干块, 在公共线程池中并行解析,
+ * 直接在字节上切分字段和解析数字, 不构造中间的字符串.
+ * <p>
+ * 只支持与ASCII兼容的编码(GBK, UTF-8等): 数据行中的数字, 逗号和换行符必须是单字节的ASCII字符,
+ * 且多字节字符中不会出现这些字节. 与CsvReader相同, 跳过空行, 不支持引号包围的字段.
+ *
+ * @param <T> 每一块的解析结果
+ */
+abstract class MappedCSVReader<T> {
+
+    /**
+     * @param csvFile   csv文件路径
+     * @param hasHeader 是否有表头
+     * @param charset   编码, 用于输出错误记录
+     * @param fields    需要解析的字段个数, 之后的字段被忽略
+     */
+    MappedCSVReader(String csvFile, boolean hasHeader, Charset charset, int fields) {
+        this.file = csvFile;
+        this.hasHeader = hasHeader;
+        this.charset = charset;
+        this.fields = fields;
+    }
+
+    /**
+     * 编码是否可以使用字节级的解析
+     *
+     * @param charset 编码
+     * @return 数据行中用到的字符是否都编码为相同的ASCII字节
+     */
+    static boolean supports(Charset charset) {
+        return Arrays.equals(ASCII_SAMPLE.getBytes(charset),
+                ASCII_SAMPLE.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 并行解析整个文件
+     *
+     * @return 各块的解析结果, 按块在文件中的顺序排列
+     * @throws IOException       读文件异常
+     * @throws DataLoadException 记录格式错误, 多个块出错时抛出文件中最靠前的错误
+     */
+    List<T> read() throws IOException, DataLoadException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long size = channel.size(), begin = hasHeader ? skipHeader(channel, size) : 0;
+            long chunks = Math.max(Math.min((size - begin) / MIN_CHUNK_SIZE,
+                    ForkJoinPool.getCommonPoolParallelism() * 4L), 1);
+            // 每一块的映射不能超过2GB, 留出一行的余量
+            chunks = Math.max(chunks, (size - begin) / (Integer.MAX_VALUE / 2) + 1);
+            long[] bounds = new long[(int) chunks + 1];
+            bounds[0] = begin;
+            bounds[bounds.length - 1] = size;
+            for (int k = 1; k < chunks; ++k) {
+                bounds[k] = Math.max(bounds[k - 1],
+                        nextLine(channel, begin + (size - begin) * k / chunks, size));
+            }
+
+            List<T> results = new ArrayList<>(bounds.length - 1);
+            DataLoadException[] errors = new DataLoadException[bounds.length - 1];
+            IOException[] ioErrors = new IOException[bounds.length - 1];
+            for (int k = 0; k + 1 < bounds.length; ++k) {
+                results.add(null);
+            }
+            IntStream.range(0, bounds.length - 1).parallel().forEach(k -> {
+                try {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                            bounds[k], bounds[k + 1] - bounds[k]);
+                    results.set(k, parse(buffer));
+                } catch (DataLoadException exception) {
+                    errors[k] = exception;
+                } catch (IOException exception) {
+                    ioErrors[k] = exception;
+                }
+            });
+            for (int k = 0; k < errors.length; ++k) {
+                if (ioErrors[k] != null) {
+                    throw ioErrors[k];
+                }
+                if (errors[k] != null) {
+                    throw errors[k];
+                }
+            }
+            return results;
+        }
+    }
+
+    /**
+     * @return 一块的空结果
+     */
+    abstract T newChunk();
+
+    /**
+     * 解析一条记录
+     *
+     * @param chunk  所在块的解析结果
+     * @param buffer 块的内容
+     * @param begin  各字段的开始位置, 记录中缺少的字段为-1
+     * @param end    各字段的结束位置(不包含)
+     * @throws NumberFormatException 字段格式错误或者缺少字段
+     */
+    abstract void record(T chunk, ByteBuffer buffer, int[] begin, int[] end);
+
+    /**
+     * @return 记录格式错误时的异常信息
+     */
+    abstract String errorMessage(String record);
+
+    /**
+     * 解析一块中的所有记录
+     */
+    private T parse(ByteBuffer buffer) throws DataLoadException {
+        T chunk = newChunk();
+        int[] begin = new int[fields], end = new int[fields];
+        int limit = buffer.limit(), pos = 0;
+        while (pos < limit) {
+            int lineBegin = pos;
+            while (pos < limit && buffer.get(pos) != '\n') {
+                ++pos;
+            }
+            int lineEnd = pos++;
+            if (lineEnd > lineBegin && buffer.get(lineEnd - 1) == '\r') {
+                --lineEnd;
+            }
+            if (lineEnd == lineBegin) {
+                continue;
+            }
+            int count = 0;
+            for (int p = lineBegin, fieldBegin = lineBegin; p <= lineEnd && count < fields; ++p) {
+                if (p == lineEnd || buffer.get(p) == ',') {
+                    begin[count] = fieldBegin;
+                    end[count++] = p;
+                    fieldBegin = p + 1;
+                }
+            }
+            for (int k = count; k < fields; ++k) {
+                begin[k] = end[k] = -1;
+            }
+            try {
+                record(chunk, buffer, begin, end);
+            } catch (NumberFormatException exception) {
+                throw new DataLoadException(errorMessage(text(buffer, lineBegin, lineEnd, charset)));
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * 解析整数字段, 与Integer.parseInt的规则一致
+     *
+     * @param defaultValue 字段为空时的值
+     * @throws NumberFormatException 字段缺失或者格式错误
+     */
+    static int parseInt(ByteBuffer buffer, int begin, int end, int defaultValue) {
+        if (begin >= 0 && begin == end) {
+            return defaultValue;
+        }
+        return parseInt(buffer, begin, end);
+    }
+
+    /**
+     * 解析整数字段, 与Integer.parseInt的规则一致
+     *
+     * @throws NumberFormatException 字段缺失, 为空或者格式错误
+     */
+    static int parseInt(ByteBuffer buffer, int begin, int end) {
+        if (begin < 0 || begin == end) {
+            throw new NumberFormatException();
+        }
+        byte first = buffer.get(begin);
+        boolean negative = first == '-';
+        int pos = first == '-' || first == '+' ? begin + 1 : begin;
+        if (pos == end) {
+            throw new NumberFormatException();
+        }
+        long value = 0;
+        for (; pos < end; ++pos) {
+            int digit = buffer.get(pos) - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException();
+        }
+        return (int) value;
+    }
+
+    /**
+     * 解析浮点数字段, 与Double.parseDouble的结果一致: 不超过15位有效数字的普通小数直接计算,
+     * 其他形式(指数, 空白等)交给Double.parseDouble
+     *
+     * @param defaultValue 字段为空时的值
+     * @throws NumberFormatException 字段缺失或者格式错误
+     */
+    static double parseDouble(ByteBuffer buffer, int begin, int end, double defaultValue) {
+        if (begin >= 0 && begin == end) {
+            return defaultValue;
+        }
+        return parseDouble(buffer, begin, end);
+    }
+
+    /**
+     * 解析浮点数字段, 与Double.parseDouble的结果一致
+     *
+     * @throws NumberFormatException 字段缺失, 为空或者格式错误
+     */
+    static double parseDouble(ByteBuffer buffer, int begin, int end) {
+        if (begin < 0 || begin == end) {
+            throw new NumberFormatException();
+        }
+        byte first = buffer.get(begin);
+        boolean negative = first == '-';
+        int pos = first == '-' || first == '+' ? begin + 1 : begin,
+                digits = 0, fraction = -1;
+        long mantissa = 0;
+        for (; pos < end; ++pos) {
+            byte c = buffer.get(pos);
+            if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else if (c >= '0' && c <= '9' && digits < 15) {
+                mantissa = mantissa * 10 + (c - '0');
+                ++digits;
+                if (fraction >= 0) {
+                    ++fraction;
+                }
+            } else {
+                break;
+            }
+        }
+        if (pos < end || digits == 0) {
+            // 不是简单的小数, 精确的舍入交给标准库
+            return Double.parseDouble(text(buffer, begin, end, StandardCharsets.ISO_8859_1));
+        }
+        // 尾数小于2^53, 10的幂不超过10^15, 都可以精确表示, 一次除法的舍入与标准库相同
+        double value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * 跳过开头的空行和表头行
+     *
+     * @return 第一条数据记录的位置
+     */
+    private static long skipHeader(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long pos = 0;
+        boolean inHeader = false;
+        while (pos < size) {
+            buffer.clear();
+            int read = channel.read(buffer, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; ++i, ++pos) {
+                byte c = buffer.get(i);
+                if (c == '\n') {
+                    if (inHeader) {
+                        return pos + 1;
+                    }
+                } else if (c != '\r') {
+                    inHeader = true;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return 位置from及之后第一个换行符的下一个位置, 没有换行符时为文件末尾
+     */
+    private static long nextLine(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long pos = from;
+        while (pos < size) {
+            buffer.clear();
+            int read = channel.read(buffer, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; ++i, ++pos) {
+                if (buffer.get(i) == '\n') {
+                    return pos + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 将一段字节转换为字符串, 只用于错误信息和少见格式的数字
+     */
+    private static String text(ByteBuffer buffer, int begin, int end, Charset charset) {
+        byte[] bytes = new byte[end - begin];
+        for (int i = begin; i < end; ++i) {
+            bytes[i - begin] = buffer.get(i);
+        }
+        return new String(bytes, charset);
+    }
+
+    // 检查编码是否兼容时使用的字符
+    final private static String ASCII_SAMPLE = "0123456789+-.,eE\r\n";
+    // 每块的最小字节数, 查找行边界的缓冲区大小
+    final private static long MIN_CHUNK_SIZE = 1 << 20;
+    final private static int SCAN_BUFFER_SIZE = 1 << 12;
+    final private static double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    final private String file;
+    final private boolean hasHeader;
+    final private Charset charset;
+    // 每条记录需要解析的字段个数
+    final private int fields;
+}
@@ -0,0 +1,99 @@
+package pers.lyl232.jaapss.data.loader;
+
+import pers.lyl232.jaapss.data.TaskInfo;
+import pers.lyl232.jaapss.data.TaskTable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存映射的并行csv任务信息加载器: 格式和错误信息与CSVTaskLoader一致,
+ * 先并行解析出列式任务信息表, 再构造任务信息对象. 编码与ASCII不兼容时退回CSVTaskLoader
+ */
+public class MappedCSVTaskLoader implements TaskInfoLoader {
+
+    /**
+     * 加载器构造函数
+     *
+     * @param csvFile   csv文件路径
+     * @param hasHeader 是否有表头
+     * @param encoding  编码
+     */
+    public MappedCSVTaskLoader(String csvFile, boolean hasHeader, String encoding) {
+        this.file = csvFile;
+        this.hasHeader = hasHeader;
+        this.encoding = encoding;
+    }
+
+    /**
+     * 从csv中读取初始的任务信息数据结构
+     *
+     * @return 任务id到任务信息的映射
+     */
+    @Override
+    public Map<Integer, TaskInfo> load() throws Exception {
+        Charset charset = Charset.forName(encoding);
+        if (!MappedCSVReader.supports(charset)) {
+            return new CSVTaskLoader(file, hasHeader, encoding).load();
+        }
+        TaskTable table = loadTable();
+        Map<Integer, TaskInfo> taskMap = new HashMap<>(table.size() * 4 / 3 + 1);
+        for (int i = 0; i < table.size(); ++i) {
+            if (taskMap.put(table.id[i], table.get(i)) != null) {
+                throw new DataLoadException("Duplicate task information: id");
+            }
+        }
+        return taskMap;
+    }
+
+    /**
+     * 从csv中读取列式任务信息表, 行的顺序与文件中记录的顺序一致, 不检查重复的任务id.
+     * 编码与ASCII不兼容时行的顺序不确定
+     *
+     * @return 任务信息表
+     */
+    public TaskTable loadTable() throws Exception {
+        Charset charset = Charset.forName(encoding);
+        if (!MappedCSVReader.supports(charset)) {
+            Map<Integer, TaskInfo> taskMap = new CSVTaskLoader(file, hasHeader, encoding).load();
+            TaskTable table = new TaskTable(taskMap.size());
+            for (TaskInfo info : taskMap.values()) {
+                table.add(info.id, info.expireTime, info.requireTimeEach, info.machineGroupId,
+                        info.count, info.successorId, info.prepareTime);
+            }
+            return table;
+        }
+        List<TaskTable> chunks = new MappedCSVReader<TaskTable>(file, hasHeader, charset, 7) {
+            @Override
+            TaskTable newChunk() {
+                return new TaskTable(CHUNK_CAPACITY);
+            }
+
+            @Override
+            void record(TaskTable chunk, ByteBuffer buffer, int[] begin, int[] end) {
+                chunk.add(parseInt(buffer, begin[0], end[0]),
+                        parseDouble(buffer, begin[1], end[1], -1),
+                        parseDouble(buffer, begin[2], end[2]),
+                        parseInt(buffer, begin[3], end[3], -1),
+                        parseInt(buffer, begin[4], end[4]),
+                        parseInt(buffer, begin[5], end[5], -1),
+                        parseInt(buffer, begin[6], end[6]));
+            }
+
+            @Override
+            String errorMessage(String record) {
+                return String.format("task record(%s) necessary information invalid", record);
+            }
+        }.read();
+        return TaskTable.concat(chunks);
+    }
+
+    // 每一块的初始行数
+    final private static int CHUNK_CAPACITY = 1 << 12;
+
+    final private String file, encoding;
+    final private boolean hasHeader;
+}
@@ -25,6 +25,29 @@ public class Problem {
     final public int[] piecesDependencyCount;
     // 每个工件的后继工件, 因为工件的id是从0开始连续的, 所以可以为了提升性能将其放入数组中
     final public Piece[] piecesSuc;
+    // 稠密任务表: 按工件顺序依次排列每个工件的任务, 任务在数组中的下标即为其稠密下标,
+    // 也是其在MS基因段中的位置
+    final public Task[] tasks;
+    // 每个工件的第一个任务的稠密下标
+    final public int[] piecesTaskBegin;
+    // 每个任务的后继任务的稠密下标, 没有后继任务为-1
+    final public int[] taskSuccessor;
+    // 每个任务的前驱任务的稠密下标, 压缩存储:
+    // 任务i的前驱为taskPredecessors[taskPredecessorBegin[i]]到taskPredecessors[taskPredecessorBegin[i + 1] - 1]
+    final public int[] taskPredecessorBegin, taskPredecessors;
+    // 每个任务所需的时间
+    final public double[] taskRequireTime;
+    // 稠密设备表: 设备稠密下标->设备id
+    final public int[] machines;
+    // 每个任务可用设备的稠密下标, 顺序与task.machineGroup.machines一致, 同一设备组的任务共享同一个数组
+    final public int[][] taskMachines;
+    // 稠密设备组表: 设备组稠密下标->设备组id, 每个设备组拥有的设备(稠密下标)集合
+    final int[] groupIds;
+    final BitSet[] groupMachineSet;
+    // 每个任务所需设备组的稠密下标
+    final int[] taskGroup;
+    // 按id排序的设备id及其稠密下标, 用于查询设备的稠密下标
+    final private int[] sortedMachineIds, sortedMachineIndices;
     // 表示工作时间
     final public DayHourMinute workHours;
     final public TimeUnit timeunit;
@@ -70,15 +93,23 @@ public class Problem {
             MachineGroupLoader machineLoader, TaskInfoLoader taskLoader,
             DayHourMinute workHours, TimeUnit timeUnit)
             throws Exception {
-        if (taskLoader == null || machineLoader == null) {
-            throw new DataLoadException("Please define taskLoader and machineLoader");
-        }
+        this(compile(machineLoader, taskLoader), workHours, timeUnit);
+    }
+
+    /**
+     * 由任务依赖图构造问题, 建立工件和稠密表等额外维护信息
+     *
+     * @param graph     任务依赖图
+     * @param workHours 工作时间, 如果为null则表示24小时工作
+     * @param timeUnit  时间单位
+     */
+    Problem(Graph graph, DayHourMinute workHours, TimeUnit timeUnit) {
         this.workHours = workHours;
         this.timeunit = timeUnit;
         // 维护只读属性
-        machineGroupMap = Collections.unmodifiableMap(machineLoader.load());
-        taskMap = Collections.unmodifiableMap(initializeTasks(taskLoader.load()));
-        pieces = Collections.unmodifiableList(initializePieces());
+        machineGroupMap = Collections.unmodifiableMap(graph.machineGroupMap);
+        taskMap = Collections.unmodifiableMap(graph.taskMap);
+        pieces = Collections.unmodifiableList(graph.pieces);
         // 工件额外维护信息
         piecesSuc = new Piece[pieces.size()];
         Arrays.fill(piecesSuc, null);
@@ -90,46 +121,148 @@ public class Problem {
                 piecesDependencyCount[piece.id] += pre.taskList.size();
             }
         }
+        // 稠密任务表
+        tasks = new Task[taskMap.size()];
+        piecesTaskBegin = new int[pieces.size()];
+        int count = 0;
+        for (Piece piece : pieces) {
+            piecesTaskBegin[piece.id] = count;
+            for (Task task : piece.taskList) {
+                task.index = count;
+                tasks[count++] = task;
+            }
+        }
+        taskSuccessor = new int[tasks.length];
+        taskPredecessorBegin = new int[tasks.length + 1];
+        taskRequireTime = new double[tasks.length];
+        count = 0;
+        for (int i = 0; i < tasks.length; ++i) {
+            Task task = tasks[i];
+            taskSuccessor[i] = task.successor != null ? task.successor.index : -1;
+            taskPredecessorBegin[i] = count;
+            count += task.preTasks.size();
+            taskRequireTime[i] = task.requireTime;
+        }
+        taskPredecessorBegin[tasks.length] = count;
+        taskPredecessors = new int[count];
+        for (int i = 0; i < tasks.length; ++i) {
+            int offset = taskPredecessorBegin[i];
+            for (Task pre : tasks[i].preTasks) {
+                taskPredecessors[offset++] = pre.index;
+            }
+        }
+        // 稠密设备表
+        Map<Integer, Integer> machineIndex = new HashMap<>();
+        List<Integer> machineList = new ArrayList<>();
+        Map<Integer, int[]> groupMachines = new HashMap<>();
+        for (MachineGroup group : machineGroupMap.values()) {
+            int[] indices = new int[group.machines.size()];
+            for (int i = 0; i < indices.length; ++i) {
+                Integer machineId = group.machines.get(i);
+                Integer index = machineIndex.get(machineId);
+                if (index == null) {
+                    index = machineList.size();
+                    machineIndex.put(machineId, index);
+                    machineList.add(machineId);
+                }
+                indices[i] = index;
+            }
+            groupMachines.put(group.id, indices);
+        }
+        machines = new int[machineList.size()];
+        for (int i = 0; i < machines.length; ++i) {
+            machines[i] = machineList.get(i);
+        }
+        taskMachines = new int[tasks.length][];
+        for (int i = 0; i < tasks.length; ++i) {
+            taskMachines[i] = groupMachines.get(tasks[i].machineGroup.id);
+        }
+        // 设备id到稠密下标的逆映射: 按id排序后二分查找
+        Integer[] byId = new Integer[machines.length];
+        for (int i = 0; i < byId.length; ++i) {
+            byId[i] = i;
+        }
+        Arrays.sort(byId, Comparator.comparingInt(i -> machines[i]));
+        sortedMachineIds = new int[machines.length];
+        sortedMachineIndices = new int[machines.length];
+        for (int i = 0; i < byId.length; ++i) {
+            sortedMachineIds[i] = machines[byId[i]];
+            sortedMachineIndices[i] = byId[i];
+        }
+        // 稠密设备组表
+        Map<Integer, Integer> groupIndex = new HashMap<>();
+        groupIds = new int[machineGroupMap.size()];
+        groupMachineSet = new BitSet[machineGroupMap.size()];
+        for (MachineGroup group : machineGroupMap.values()) {
+            int g = groupIndex.size();
+            groupIndex.put(group.id, g);
+            groupIds[g] = group.id;
+            groupMachineSet[g] = new BitSet(machines.length);
+            for (int index : groupMachines.get(group.id)) {
+                groupMachineSet[g].set(index);
+            }
+        }
+        taskGroup = new int[tasks.length];
+        for (int i = 0; i < tasks.length; ++i) {
+            taskGroup[i] = groupIndex.get(tasks[i].machineGroup.id);
+        }
     }
 
     /**
-     * 初始化工件
-     *
-     * @return pieces
+     * 任务依赖图: 设备组, 任务和按拓扑排序的工件, 任务和工件之间的引用已经建立
      */
-    private List<Piece> initializePieces() {
-        // 筛掉入度不为0的任务
-        HashSet<Integer> sucTasks = new HashSet<>();
-        for (Task task : taskMap.values()) {
-            for (Task preTask : task.preTasks) {
-                sucTasks.add(preTask.id);
-            }
+    static class Graph {
+        Graph(Map<Integer, MachineGroup> machineGroupMap, Map<Integer, Task> taskMap,
+              List<Piece> pieces) {
+            this.machineGroupMap = machineGroupMap;
+            this.taskMap = taskMap;
+            this.pieces = pieces;
         }
 
-        List<Piece> pieces = new ArrayList<>();
-
-        for (Task task : taskMap.values()) {
-            if (!sucTasks.contains(task.id)) {
-                dfsConvertTask2Piece(pieces, task);
-            }
-        }
+        final Map<Integer, MachineGroup> machineGroupMap;
+        final Map<Integer, Task> taskMap;
+        final List<Piece> pieces;
+    }
 
-        // 维护每个工件的后继工件
-        for (Piece piece : pieces) {
-            for (Piece pre : piece.predecessor) {
-                pre.successor = piece;
-            }
+    /**
+     * 加载数据, 验证任务依赖并分解工件
+     *
+     * @param machineLoader 机器信息加载器
+     * @param taskLoader    任务信息加载器
+     * @return 任务依赖图
+     * @throws Exception 加载异常, 数据一致性异常等
+     */
+    private static Graph compile(MachineGroupLoader machineLoader, TaskInfoLoader taskLoader)
+            throws Exception {
+        if (taskLoader == null || machineLoader == null) {
+            throw new DataLoadException("Please define taskLoader and machineLoader");
         }
+        Map<Integer, MachineGroup> machineGroupMap = machineLoader.load();
+        Map<Integer, Task> taskMap = initializeTasks(machineGroupMap, taskLoader.load());
+        return new Graph(machineGroupMap, taskMap, initializePieces(taskMap));
+    }
 
-        return pieces;
+    /**
+     * 查询设备的稠密下标
+     *
+     * @param machineId 设备id
+     * @return 稠密下标, 设备不存在时为-1
+     */
+    public int getMachineIndex(int machineId) {
+        int index = Arrays.binarySearch(sortedMachineIds, machineId);
+        return index >= 0 ? sortedMachineIndices[index] : -1;
     }
 
     /**
-     * 初始化Task信息
+     * 初始化Task信息: 按taskMap的迭代顺序给任务编号, 在数组上建立前驱后继关系,
+     * 并用拓扑排序验证是否所有任务都能够完成. 前驱任务列表按taskMap的迭代顺序排列
      *
+     * @param machineGroupMap 所有注册的设备组
+     * @param taskInfoMap     任务id到任务信息的映射
      * @return Task Map
      */
-    private Map<Integer, Task> initializeTasks(Map<Integer, TaskInfo> taskInfoMap)
+    private static Map<Integer, Task> initializeTasks(
+            Map<Integer, MachineGroup> machineGroupMap, Map<Integer, TaskInfo> taskInfoMap)
             throws DataConsistencyException {
         Map<Integer, Task> taskMap = new HashMap<>();
         // 注册全局信息
@@ -141,59 +274,54 @@ public class Problem {
             }
             taskMap.put(info.id, new Task(info, group));
         }
-        // 验证是否存在一个拓扑排序, 使得所有任务能够得到完成
-        // 并求每个任务的前驱后继
-
-        // 每个任务的依赖入度 id -> inDegree
-        Map<Integer, Integer> inDegree = new HashMap<>();
-
-        for (Task task : taskMap.values()) {
+        // 按迭代顺序编号, 编号暂存在index中, 建立稠密表时会被覆盖
+        Task[] order = taskMap.values().toArray(new Task[0]);
+        int n = order.length;
+        for (int i = 0; i < n; ++i) {
+            order[i].index = i;
+        }
+        // 每个任务的后继任务编号和依赖入度
+        int[] successor = new int[n], inDegree = new int[n];
+        for (int i = 0; i < n; ++i) {
+            Task task = order[i];
+            successor[i] = -1;
             if (task.successorId != -1) {
-                Task successor = taskMap.get(task.successorId);
-                if (successor == null) {
+                Task suc = taskMap.get(task.successorId);
+                if (suc == null) {
                     throw new DataConsistencyException(String.format(
                             "Cannot find successor of task-%d with id %d",
                             task.id, task.successorId
                     ));
                 }
-                successor.preTasks.add(task);
-                task.successor = successor;
-                Integer in = inDegree.get(successor.id);
-                if (in == null) {
-                    in = 0;
-                }
-                inDegree.put(successor.id, in + 1);
+                successor[i] = suc.index;
+                ++inDegree[suc.index];
+                suc.preTasks.add(task);
+                task.successor = suc;
             }
         }
 
-        // 求拓扑排序
-        Queue<Integer> queue = new LinkedList<>();
-        for (Task task : taskMap.values()) {
-            if (!inDegree.containsKey(task.id)) {
-                queue.add(task.id);
+        // 求拓扑排序: 数组实现的队列, 每个任务最多入队一次
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        for (int i = 0; i < n; ++i) {
+            if (inDegree[i] == 0) {
+                queue[tail++] = i;
             }
         }
-
-        // 可以完成任务集合
-        Set<Integer> finishedSet = new HashSet<>();
-        while (!queue.isEmpty()) {
-            Task task = taskMap.get(queue.poll());
-            assert task != null;
-            finishedSet.add(task.id);
-            if (task.successorId != -1) {
-                int in = inDegree.get(task.successorId);
-                if (in == 1) {
-                    queue.add(task.successorId);
-                }
-                inDegree.put(task.successorId, in - 1);
+        while (head < tail) {
+            int suc = successor[queue[head++]];
+            if (suc != -1 && --inDegree[suc] == 0) {
+                queue[tail++] = suc;
             }
         }
-
-        for (Task task : taskMap.values()) {
-            if (!finishedSet.contains(task.id)) {
-                throw new DataConsistencyException(String.format(
-                        "can not solve: Task-%d has self dependency", task.id
-                ));
+        // 没有入队的任务(入度仍然大于0)在依赖环上或者在依赖环之后
+        if (tail < n) {
+            for (int i = 0; i < n; ++i) {
+                if (inDegree[i] > 0) {
+                    throw new DataConsistencyException(String.format(
+                            "can not solve: Task-%d has self dependency", order[i].id
+                    ));
+                }
             }
         }
 
@@ -201,30 +329,77 @@ public class Problem {
     }
 
     /**
-     * dfs新建并按拓扑排序注册工件
+     * 初始化工件: 从每个最终任务开始沿前驱方向分解依赖树, 用显式栈代替递归, 栈深度与依赖树深度无关.
+     * 每个工件是一串只有一个前驱的任务, 所有前驱工件注册之后才注册该工件, 所以工件按拓扑排序编号
      *
-     * @param pieces 已经注册的工件列表
-     * @param task   新工件的入口任务
-     * @return 新注册的工件
+     * @param taskMap 任务id到任务对象的映射, 任务的前驱后继关系已经建立
+     * @return pieces
      */
-    static Piece dfsConvertTask2Piece(List<Piece> pieces, Task task) {
-        List<Task> piecesTasks = new ArrayList<>();
-        piecesTasks.add(task);
+    private static List<Piece> initializePieces(Map<Integer, Task> taskMap) {
+        Task[] order = taskMap.values().toArray(new Task[0]);
+        int n = order.length;
+        List<Piece> pieces = new ArrayList<>();
+        // 栈中每个工件的最后一个任务(最早执行的任务), 已经处理的前驱个数
+        Task[] stackTail = new Task[n], stackHead = new Task[n];
+        int[] stackNext = new int[n];
+        // 已经注册但还没有交给后继工件的工件
+        Piece[] registered = new Piece[n];
+        int top = -1, registeredCount = 0;
+
+        for (Task root : order) {
+            if (root.successor != null) {
+                continue;
+            }
+            stackHead[++top] = root;
+            stackTail[top] = chainTail(root);
+            stackNext[top] = 0;
+            while (top >= 0) {
+                Task tail = stackTail[top];
+                int preCount = tail.preTasks.size();
+                if (preCount > 1 && stackNext[top] < preCount) {
+                    // 依赖分叉, 先注册下一个前驱工件
+                    Task pre = tail.preTasks.get(stackNext[top]++);
+                    stackHead[++top] = pre;
+                    stackTail[top] = chainTail(pre);
+                    stackNext[top] = 0;
+                    continue;
+                }
+                List<Task> piecesTasks = new ArrayList<>();
+                for (Task task = tail; ; task = task.successor) {
+                    piecesTasks.add(task);
+                    if (task == stackHead[top]) {
+                        break;
+                    }
+                }
+                List<Piece> prePieces = new ArrayList<>();
+                if (preCount > 1) {
+                    registeredCount -= preCount;
+                    prePieces.addAll(Arrays.asList(registered).subList(registeredCount,
+                            registeredCount + preCount));
+                }
+                Piece newOne = new Piece(pieces.size(), piecesTasks, prePieces);
+                for (Piece pre : prePieces) {
+                    pre.successor = newOne;
+                }
+                pieces.add(newOne);
+                registered[registeredCount++] = newOne;
+                --top;
+            }
+            registeredCount = 0;
+        }
+
+        return pieces;
+    }
+
+    /**
+     * @param task 工件的入口任务(最晚执行的任务)
+     * @return 从入口任务沿唯一的前驱走到的最后一个任务
+     */
+    private static Task chainTail(Task task) {
         while (task.preTasks.size() == 1) {
-            piecesTasks.add(task.preTasks.get(0));
             task = task.preTasks.get(0);
         }
-        List<Piece> prePieces = new ArrayList<>();
-        if (task.preTasks.size() > 1) {
-            // 依赖分叉, 说明该工件有前驱工件
-            for (Task dfsTask : task.preTasks) {
-                prePieces.add(dfsConvertTask2Piece(pieces, dfsTask));
-            }
-        }
-        Collections.reverse(piecesTasks);
-        Piece newOne = new Piece(pieces.size(), piecesTasks, prePieces);
-        pieces.add(newOne);
-        return newOne;
+        return task;
     }
 
 }
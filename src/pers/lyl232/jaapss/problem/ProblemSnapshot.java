@@ -0,0 +1,381 @@
+package pers.lyl232.jaapss.problem;
+
+import pers.lyl232.jaapss.data.MachineGroup;
+import pers.lyl232.jaapss.data.TaskInfo;
+import pers.lyl232.jaapss.data.loader.DataLoadException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 问题快照: 将编译好的问题(设备组, 稠密任务表, 任务依赖和工件分解)保存为带版本号的二进制文件,
+ * 加载时通过内存映射按列读出, 不需要重新解析csv, 验证拓扑排序和分解工件.
+ * <p>
+ * 快照只保存问题的结构, 工作时间和时间单位在加载时给出, 虚拟设备组在加载后注册.
+ * 加载得到的问题与保存的问题完全一致, 包括各映射的迭代顺序和前驱任务的顺序.
+ * 快照同时记录编译它的来源(见{@link Source}), 使用者在来源与当前输入一致时才加载快照.
+ * <p>
+ * 文件格式(大端序): 魔数, 版本号, 来源, 然后依次是
+ * 设备组: 个数, 每组的id, 设备个数和设备id;
+ * 任务(按稠密下标): 个数, id, 预计完成时间, 单位运行时间, 设备组id, 数量, 后继任务id, 准备时间各一列;
+ * taskMap的迭代顺序(稠密下标); 前驱任务的压缩存储;
+ * 工件: 个数, 每个工件的第一个任务的稠密下标, 前驱工件的压缩存储
+ */
+public class ProblemSnapshot {
+
+    /**
+     * 快照的来源: 两个输入csv文件的绝对路径, 大小和修改时间, 以及解析csv的参数.
+     * 来源与当前输入不一致时快照已经过期, 需要从csv文件重新编译
+     */
+    public static class Source {
+
+        /**
+         * 记录输入文件当前的状态
+         *
+         * @param taskCSV    任务csv文件路径
+         * @param machineCSV 设备csv文件路径
+         * @param hasHeader  csv文件是否有表头
+         * @param encoding   csv文件编码
+         */
+        public Source(String taskCSV, String machineCSV, boolean hasHeader, String encoding) {
+            File task = new File(taskCSV).getAbsoluteFile(), machine = new File(machineCSV).getAbsoluteFile();
+            this.taskCSV = task.toPath().normalize().toString();
+            this.taskSize = task.length();
+            this.taskModified = task.lastModified();
+            this.machineCSV = machine.toPath().normalize().toString();
+            this.machineSize = machine.length();
+            this.machineModified = machine.lastModified();
+            this.hasHeader = hasHeader;
+            this.encoding = encoding;
+        }
+
+        /**
+         * 从快照文件中读出来源
+         */
+        private Source(ByteBuffer buffer) {
+            taskCSV = getString(buffer);
+            taskSize = buffer.getLong();
+            taskModified = buffer.getLong();
+            machineCSV = getString(buffer);
+            machineSize = buffer.getLong();
+            machineModified = buffer.getLong();
+            hasHeader = buffer.getInt() != 0;
+            encoding = getString(buffer);
+        }
+
+        /**
+         * @return 写入快照文件所需的字节数
+         */
+        private long size() {
+            return 4 * 3 + 8 * 4 + 4 + utf8(taskCSV).length + utf8(machineCSV).length + utf8(encoding).length;
+        }
+
+        private void write(ByteBuffer buffer) {
+            putString(buffer, taskCSV);
+            buffer.putLong(taskSize).putLong(taskModified);
+            putString(buffer, machineCSV);
+            buffer.putLong(machineSize).putLong(machineModified);
+            buffer.putInt(hasHeader ? 1 : 0);
+            putString(buffer, encoding);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Source)) {
+                return false;
+            }
+            Source other = (Source) object;
+            return taskSize == other.taskSize && taskModified == other.taskModified &&
+                    machineSize == other.machineSize && machineModified == other.machineModified &&
+                    hasHeader == other.hasHeader && taskCSV.equals(other.taskCSV) &&
+                    machineCSV.equals(other.machineCSV) && encoding.equals(other.encoding);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(taskCSV, taskSize, taskModified, machineCSV, machineSize, machineModified,
+                    hasHeader, encoding);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("task csv: %s (%d bytes, modified at %d), " +
+                            "machine csv: %s (%d bytes, modified at %d), hasHeader: %s, encoding: %s",
+                    taskCSV, taskSize, taskModified, machineCSV, machineSize, machineModified,
+                    hasHeader, encoding);
+        }
+
+        // 输入csv文件的绝对路径, 编码
+        final private String taskCSV, machineCSV, encoding;
+        // 输入csv文件的大小和修改时间(毫秒)
+        final private long taskSize, taskModified, machineSize, machineModified;
+        // csv文件是否有表头
+        final private boolean hasHeader;
+    }
+
+    /**
+     * 保存问题快照
+     *
+     * @param problem 问题
+     * @param source  编译问题的来源
+     * @param file    快照文件路径
+     * @throws IOException 写文件异常
+     */
+    public static void save(Problem problem, Source source, String file) throws IOException {
+        Task[] tasks = problem.tasks;
+        int n = tasks.length, pieceCount = problem.pieces.size(), predecessorCount = 0;
+        long size = 4 * 3 + source.size();
+        for (MachineGroup group : problem.machineGroupMap.values()) {
+            size += 4 * 2 + 4L * group.machines.size();
+        }
+        size += 4 + (4 * 5 + 8 * 2) * (long) n + 4L * n + 4L * (n + 1) + 4L * problem.taskPredecessors.length;
+        for (Piece piece : problem.pieces) {
+            predecessorCount += piece.predecessor.size();
+        }
+        size += 4 + 4L * (pieceCount + 1) + 4L * (pieceCount + 1) + 4L * predecessorCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("problem is too large for a snapshot");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION);
+        source.write(buffer);
+        buffer.putInt(problem.machineGroupMap.size());
+        for (MachineGroup group : problem.machineGroupMap.values()) {
+            buffer.putInt(group.id).putInt(group.machines.size());
+            for (int machineId : group.machines) {
+                buffer.putInt(machineId);
+            }
+        }
+
+        buffer.putInt(n);
+        for (Task task : tasks) {
+            buffer.putInt(task.id);
+        }
+        for (Task task : tasks) {
+            buffer.putDouble(task.expireTime);
+        }
+        for (Task task : tasks) {
+            buffer.putDouble(task.requireTimeEach);
+        }
+        for (Task task : tasks) {
+            buffer.putInt(task.machineGroupId);
+        }
+        for (Task task : tasks) {
+            buffer.putInt(task.count);
+        }
+        for (Task task : tasks) {
+            buffer.putInt(task.successorId);
+        }
+        for (Task task : tasks) {
+            buffer.putInt(task.prepareTime);
+        }
+        for (Task task : problem.taskMap.values()) {
+            buffer.putInt(task.index);
+        }
+        putInts(buffer, problem.taskPredecessorBegin);
+        putInts(buffer, problem.taskPredecessors);
+
+        buffer.putInt(pieceCount);
+        putInts(buffer, problem.piecesTaskBegin);
+        buffer.putInt(n);
+        int offset = 0;
+        for (Piece piece : problem.pieces) {
+            buffer.putInt(offset);
+            offset += piece.predecessor.size();
+        }
+        buffer.putInt(offset);
+        for (Piece piece : problem.pieces) {
+            for (Piece pre : piece.predecessor) {
+                buffer.putInt(pre.id);
+            }
+        }
+        assert !buffer.hasRemaining();
+
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * 读出快照记录的来源, 不加载问题
+     *
+     * @param file 快照文件路径
+     * @return 快照的来源, 文件不存在或者是旧版本的快照(没有记录来源)时为null
+     * @throws IOException       读文件异常
+     * @throws DataLoadException 文件不是快照或者内容不完整
+     */
+    public static Source source(String file) throws IOException, DataLoadException {
+        MappedByteBuffer buffer;
+        try {
+            buffer = map(file);
+        } catch (NoSuchFileException exception) {
+            return null;
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new DataLoadException(String.format("%s is not a problem snapshot", file));
+            }
+            return buffer.getInt() == VERSION ? new Source(buffer) : null;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException exception) {
+            throw new DataLoadException(String.format("problem snapshot %s is truncated or corrupted", file));
+        }
+    }
+
+    /**
+     * 加载问题快照
+     *
+     * @param file      快照文件路径
+     * @param workHours 工作时间, 如果为null则表示24小时工作
+     * @param timeUnit  时间单位
+     * @return 问题
+     * @throws IOException       读文件异常
+     * @throws DataLoadException 文件不是快照, 版本不匹配或者内容不完整
+     */
+    public static Problem load(String file, DayHourMinute workHours, TimeUnit timeUnit)
+            throws IOException, DataLoadException {
+        MappedByteBuffer buffer = map(file);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new DataLoadException(String.format("%s is not a problem snapshot", file));
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new DataLoadException(String.format(
+                        "Unsupported problem snapshot version %d, expected %d", version, VERSION));
+            }
+            // 来源由使用者在加载前检查
+            new Source(buffer);
+            return new Problem(readGraph(buffer), workHours, timeUnit);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException exception) {
+            throw new DataLoadException(String.format("problem snapshot %s is truncated or corrupted", file));
+        }
+    }
+
+    private static MappedByteBuffer map(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * 按保存的顺序重建设备组, 任务和工件之间的引用
+     */
+    private static Problem.Graph readGraph(ByteBuffer buffer) throws DataLoadException {
+        // 按原来的迭代顺序插入, 得到相同的迭代顺序
+        int groupCount = buffer.getInt();
+        Map<Integer, MachineGroup> machineGroupMap = new HashMap<>();
+        for (int g = 0; g < groupCount; ++g) {
+            int id = buffer.getInt();
+            int[] machineIds = getInts(buffer, buffer.getInt());
+            List<Integer> machines = new ArrayList<>(machineIds.length);
+            for (int machineId : machineIds) {
+                machines.add(machineId);
+            }
+            machineGroupMap.put(id, new MachineGroup(id, Collections.unmodifiableList(machines)));
+        }
+
+        int n = buffer.getInt();
+        int[] id = getInts(buffer, n);
+        double[] expireTime = getDoubles(buffer, n), requireTimeEach = getDoubles(buffer, n);
+        int[] machineGroupId = getInts(buffer, n), count = getInts(buffer, n),
+                successorId = getInts(buffer, n), prepareTime = getInts(buffer, n);
+        int[] order = getInts(buffer, n),
+                predecessorBegin = getInts(buffer, n + 1),
+                predecessors = getInts(buffer, predecessorBegin[n]);
+
+        Task[] tasks = new Task[n];
+        for (int i = 0; i < n; ++i) {
+            MachineGroup group = machineGroupMap.get(machineGroupId[i]);
+            if (group == null) {
+                throw new DataLoadException(String.format("MachineGroup-%d not found",
+                        machineGroupId[i]));
+            }
+            tasks[i] = new Task(new TaskInfo(id[i], expireTime[i], requireTimeEach[i],
+                    machineGroupId[i], count[i], successorId[i], prepareTime[i]), group);
+        }
+        for (int i = 0; i < n; ++i) {
+            Task task = tasks[i];
+            for (int k = predecessorBegin[i]; k < predecessorBegin[i + 1]; ++k) {
+                task.preTasks.add(tasks[predecessors[k]]);
+                tasks[predecessors[k]].successor = task;
+            }
+        }
+        Map<Integer, Task> taskMap = new HashMap<>(n * 4 / 3 + 1);
+        for (int i : order) {
+            taskMap.put(tasks[i].id, tasks[i]);
+        }
+
+        int pieceCount = buffer.getInt();
+        int[] taskBegin = getInts(buffer, pieceCount + 1),
+                pieceBegin = getInts(buffer, pieceCount + 1),
+                piecePredecessors = getInts(buffer, pieceBegin[pieceCount]);
+        List<Piece> pieces = new ArrayList<>(pieceCount);
+        for (int p = 0; p < pieceCount; ++p) {
+            List<Piece> predecessor = new ArrayList<>(pieceBegin[p + 1] - pieceBegin[p]);
+            for (int k = pieceBegin[p]; k < pieceBegin[p + 1]; ++k) {
+                predecessor.add(pieces.get(piecePredecessors[k]));
+            }
+            Piece piece = new Piece(p, Arrays.asList(tasks).subList(taskBegin[p], taskBegin[p + 1]),
+                    predecessor);
+            for (Piece pre : predecessor) {
+                pre.successor = piece;
+            }
+            pieces.add(piece);
+        }
+        return new Problem.Graph(machineGroupMap, taskMap, pieces);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = utf8(value);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int length) {
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * length);
+        return values;
+    }
+
+    private static double[] getDoubles(ByteBuffer buffer, int length) {
+        double[] values = new double[length];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * length);
+        return values;
+    }
+
+    // 文件开头的魔数"JAPS", 格式版本号, 格式改变时递增(版本2增加了来源)
+    final private static int MAGIC = 0x4A415053, VERSION = 2;
+}
@@ -1,10 +1,9 @@
 package pers.lyl232.jaapss.problem;
 
-import com.csvreader.CsvWriter;
 import pers.lyl232.jaapss.data.MachineGroup;
 
 import java.nio.charset.Charset;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
 import java.util.*;
 
 /**
@@ -38,7 +37,8 @@ public class Schedule {
         HashMap<Integer, List<Assignment>> machineAssignment = new HashMap<>();
         HashMap<Integer, Assignment> task2Assignment = new HashMap<>();
         // 设备视角:
-        for (Assignment assignment : assignments) {
+        for (int i : orderByBeginAt()) {
+            Assignment assignment = assignments[i];
             if (!machineAssignment.containsKey(assignment.machine)) {
                 machineAssignment.put(assignment.machine, new ArrayList<>());
             }
@@ -78,7 +78,8 @@ public class Schedule {
             }
         }
         builder.append("Task view:\n");
-        for (Assignment assignment : assignments) {
+        for (int i : orderByBeginAt()) {
+            Assignment assignment = assignments[i];
             if (assignment.task.getSuccessor() == null) {
                 builder.append(dfsGetTaskAssignmentDes(task2Assignment, assignment.task)).
                         append("------------------------\n");
@@ -96,176 +97,156 @@ public class Schedule {
      */
     public void toCSVInternal(String path, String encoding)
             throws Exception {
-        CsvWriter writer = new CsvWriter(path, ',', Charset.forName(encoding));
-        String[] header = {"Task", "Machine", "Piece", "beginAt", "endAt"};
-        writer.writeRecord(header);
-        HashMap<Integer, Integer> task2Piece = new HashMap<>();
+        int[] taskPiece = new int[problem.tasks.length];
         for (Piece piece : problem.pieces) {
             for (Task task : piece.taskList) {
-                task2Piece.put(task.id, piece.id);
+                taskPiece[task.getIndex()] = piece.id;
             }
         }
-        String[] record = new String[5];
-        for (Assignment assignment : assignments) {
-            record[0] = String.valueOf(assignment.task.id);
-            record[1] = String.valueOf(assignment.machine);
-            record[2] = String.valueOf(task2Piece.get(assignment.task.id));
-            record[3] = String.valueOf(assignment.getBeginAt());
-            record[4] = String.valueOf(assignment.getEndAt());
-            writer.writeRecord(record);
+        try (ScheduleWriter writer = new ScheduleWriter(path, Charset.forName(encoding))) {
+            writer.field("Task").field("Machine").field("Piece").field("beginAt").field("endAt");
+            writer.endRecord();
+            for (int i : orderByBeginAt()) {
+                Assignment assignment = assignments[i];
+                writer.field(assignment.task.id)
+                        .field(assignment.machine)
+                        .field(taskPiece[assignment.task.getIndex()])
+                        .field(assignment.getBeginAt())
+                        .field(assignment.getEndAt());
+                writer.endRecord();
+            }
         }
-        writer.close();
     }
 
     /**
-     * 向目的路径输出调度安排(默认表示)
+     * 向目的路径输出调度安排(默认表示), 从明天开工的时间开始按工作时间换算成实际的时间
      *
      * @param path     路径
      * @param encoding 编码
      * @throws Exception IO异常
      */
     public void toCSV(String path, String encoding) throws Exception {
-        CsvWriter writer = new CsvWriter(path, ',', Charset.forName(encoding));
-        String[] header = {"任务id", "后继任务", "计划开始时间", "计划结束时间", "设备id"};
-        writer.writeRecord(header);
-
-        DayHourMinute workHours = problem.workHours;
-
-        Calendar calendar = Calendar.getInstance();
-        // 获取明天开工的时间
-        calendar.add(Calendar.DATE, 1);
-        calendar.set(Calendar.HOUR, 0);
-        calendar.set(Calendar.MINUTE, 0);
-        calendar.set(Calendar.SECOND, 0);
-
-        // 任务开始时间戳
-        long beginTimestamp = calendar.getTime().getTime(),
-                // 每天开始工作的时间相对于当天0点的偏移(毫秒)
-                onWorkOffset = (workHours.hour1 * 60 + workHours.minute1) * 60 * 1000,
-                // 每天的工作时长(毫秒)
-                workHoursTime = workHours.getWorkTime(),
-                // 时间单位长度(毫秒)
-                timeunit = 1;
-        switch (problem.timeunit) {
-            case DAY:
-                timeunit *= 24;
-            case HOUR:
-                timeunit *= 60;
-            case MINUTE:
-                timeunit *= 60;
-            case SECOND:
-                timeunit *= 1000;
-        }
-
-
-        String[] record = new String[5];
-        for (Assignment assignment : assignments) {
-            record[0] = String.valueOf(assignment.task.id);
-            record[1] = assignment.task.getSuccessor() != null ?
-                    String.valueOf(assignment.task.successor.id) : "";
-            record[2] = getAssignedDate(
-                    assignment.getBeginAt(), timeunit,
-                    beginTimestamp, workHoursTime, onWorkOffset, true);
-            record[3] = getAssignedDate(
-                    assignment.getEndAt(), timeunit,
-                    beginTimestamp, workHoursTime, onWorkOffset, false);
-            record[4] = String.valueOf(assignment.machine);
-            writer.writeRecord(record);
+        ZoneId zone = ZoneId.systemDefault();
+        WorkCalendar calendar = new WorkCalendar(problem.workHours, problem.timeunit,
+                WorkCalendar.firstDayTimestamp(zone, System.currentTimeMillis()), zone);
+        try (ScheduleWriter writer = new ScheduleWriter(path, Charset.forName(encoding))) {
+            writer.field("任务id").field("后继任务").field("计划开始时间").field("计划结束时间").field("设备id");
+            writer.endRecord();
+            for (int i : orderByBeginAt()) {
+                Assignment assignment = assignments[i];
+                Task successor = assignment.task.getSuccessor();
+                writer.field(assignment.task.id);
+                if (successor != null) {
+                    writer.field(successor.id);
+                } else {
+                    writer.field("");
+                }
+                writer.field(calendar, assignment.getBeginAt(), true)
+                        .field(calendar, assignment.getEndAt(), false)
+                        .field(assignment.machine);
+                writer.endRecord();
+            }
         }
-        writer.close();
     }
 
     /**
-     * 分析该调度安排是否合法, 该方法开销较高
+     * 分析该调度安排是否合法, 不会改变assignments的顺序. 在稠密数组上检查:
+     * 每个任务恰好被分配一次且分配到所需设备组的设备上, 每个任务在其前驱任务完成后开始,
+     * 以及同一设备(虚拟设备组除外)上的任务时间不重叠. 每个设备的任务按分配顺序分桶,
+     * 桶内已经按开始时间有序时(解码得到的调度都是如此)不需要排序, 总开销为O(n)
      */
     public boolean validate() {
         if (isValid != -1) {
             return isValid == 1;
         }
 
-        if (assignments.length < problem.taskMap.keySet().size()) {
+        int n = problem.tasks.length;
+        if (assignments.length < n) {
             // 仍有任务没有被分配
             error = "Not all tasks are assigned";
             isValid = 0;
             return false;
         }
 
-        // 干扰测试, 测试检验算法是否能够判断出错误的样例
-//        for (int i = 0; i < assignments.length; ++i) {
-//            Random random = new Random();
-//            Assignment newOne = new Assignment(
-//                    assignments[i].task,
-//                    assignments[i].machine,
-//                    assignments[i].getBeginAt() * (0.5 + random.nextDouble())
-//            );
-//            assignments[i] = newOne;
-//        }
-
-        // 按开始时间排序
-        Arrays.sort(assignments, (a1, a2) -> {
-            if (a1.getBeginAt() == a2.getBeginAt()) {
-                return 0;
-            }
-            return a1.getBeginAt() > a2.getBeginAt() ? 1 : -1;
-        });
-
-        // 已经完成的任务, 用于判断依赖
-        HashMap<Integer, Double> finishedTask = new HashMap<>();
-        // 每个机器分配到的任务信息
-        Map<Integer, List<Assignment>> machineAssignments = new HashMap<>();
-
-        // 判断每个任务的依赖是否满足, 且任务是否被分配到了指定的设备组里
-        for (Assignment assignment : assignments) {
+        // 每个任务(稠密下标)的分配: 在assignments中的下标, 分配的设备稠密下标
+        int[] assignmentOf = new int[n], machineOf = new int[n];
+        Arrays.fill(assignmentOf, -1);
+        for (int i = 0; i < assignments.length; ++i) {
+            Assignment assignment = assignments[i];
             Task task = assignment.task;
-            if (!task.machineGroup.machineSet.contains(assignment.machine)) {
+            int t = task.getIndex(), m = problem.getMachineIndex(assignment.machine);
+            if (m == -1 || !problem.groupMachineSet[problem.taskGroup[t]].get(m)) {
                 error = String.format("Task-%d is assigned to a wrong machine-%d",
                         task.id, assignment.machine);
                 isValid = 0;
                 return false;
             }
-            for (Task preTask : task.preTasks) {
-                Double finishTime = finishedTask.get(preTask.id);
-                if (finishTime == null || finishTime - assignment.getBeginAt() > 1e-5) {
-                    error = String.format("Task-%d is assigned with unfinished " +
-                            "preTask-%d", task.id, preTask.id);
-                    isValid = 0;
-                    return false;
-                }
+            if (assignmentOf[t] != -1) {
+                error = String.format("Task-%d is assigned more than once", task.id);
+                isValid = 0;
+                return false;
             }
+            assignmentOf[t] = i;
+            machineOf[t] = m;
+        }
 
-            if (problem.virtualMachineGroups.contains(task.machineGroupId)) {
-                // 虚拟设备组的任务不必考虑机器是否冲突
-                finishedTask.put(task.id, assignment.getEndAt());
-                continue;
+        // 判断每个任务的依赖是否满足: 前驱任务的结束时间不晚于后继任务的开始时间
+        int[] taskSuccessor = problem.taskSuccessor;
+        for (int t = 0; t < n; ++t) {
+            if (assignmentOf[t] == -1) {
+                error = "Not all tasks are assigned";
+                isValid = 0;
+                return false;
             }
-            if (!machineAssignments.containsKey(assignment.machine)) {
-                machineAssignments.put(assignment.machine, new ArrayList<>());
+        }
+        for (int t = 0; t < n; ++t) {
+            int suc = taskSuccessor[t];
+            if (suc != -1 && assignments[assignmentOf[t]].getEndAt() -
+                    assignments[assignmentOf[suc]].getBeginAt() > 1e-5) {
+                error = String.format("Task-%d is assigned with unfinished " +
+                        "preTask-%d", problem.tasks[suc].id, problem.tasks[t].id);
+                isValid = 0;
+                return false;
+            }
+        }
+
+        // 每个设备的任务区间索引: 按设备分桶, 桶内保持在assignments中的顺序
+        boolean[] virtualGroup = new boolean[problem.groupIds.length];
+        for (int g = 0; g < virtualGroup.length; ++g) {
+            virtualGroup[g] = problem.virtualMachineGroups.contains(problem.groupIds[g]);
+        }
+        int machineCount = problem.machines.length;
+        int[] bucketBegin = new int[machineCount + 1], bucket = new int[assignments.length];
+        for (int t = 0; t < n; ++t) {
+            if (!virtualGroup[problem.taskGroup[t]]) {
+                ++bucketBegin[machineOf[t] + 1];
+            }
+        }
+        for (int m = 0; m < machineCount; ++m) {
+            bucketBegin[m + 1] += bucketBegin[m];
+        }
+        int[] fill = Arrays.copyOf(bucketBegin, machineCount);
+        for (int i = 0; i < assignments.length; ++i) {
+            int t = assignments[i].task.getIndex();
+            if (!virtualGroup[problem.taskGroup[t]]) {
+                bucket[fill[machineOf[t]]++] = i;
             }
-            machineAssignments.get(assignment.machine).add(assignment);
-            finishedTask.put(task.id, assignment.getEndAt());
         }
 
         // 判断每台机器是否有冲突分配
-        for (List<Assignment> assignments : machineAssignments.values()) {
-            assignments.sort((a1, a2) -> {
-                if (a1.getBeginAt() == a2.getBeginAt()) {
-                    return 0;
-                }
-                return a1.getBeginAt() > a2.getBeginAt() ? 1 : -1;
-            });
+        for (int m = 0; m < machineCount; ++m) {
+            int begin = bucketBegin[m], end = bucketBegin[m + 1];
+            sortByBeginAt(bucket, begin, end);
             double lastFinished = 0.0;
-            for (Assignment assignment : assignments) {
+            for (int k = begin; k < end; ++k) {
+                Assignment assignment = assignments[bucket[k]];
                 // 精度
                 if (assignment.getBeginAt() - lastFinished < -1e-5) {
                     StringBuilder builder = new StringBuilder();
-                    for (Assignment aa : assignments) {
-                        if (aa.machine == assignment.machine) {
-                            builder.append(aa).append('\n');
-                            builder.append(aa.task).append('\n');
-                        }
-                        if (aa == assignment) {
-                            break;
-                        }
+                    for (int l = begin; l <= k; ++l) {
+                        Assignment aa = assignments[bucket[l]];
+                        builder.append(aa).append('\n');
+                        builder.append(aa.task).append('\n');
                     }
                     error = String.format("Task-%d is assigned to a busy Machine-%d\n%s",
                             assignment.task.id, assignment.machine, builder.toString());
@@ -281,39 +262,63 @@ public class Schedule {
     }
 
     /**
-     * 将相对偏移单位的时间转换成真正安排的工作时间
+     * 将下标区间按对应分配的开始时间稳定排序, 已经有序时只需要一次扫描
      *
-     * @param offsetUnits    相对任务开始时偏移单位
-     * @param timeunit       每个偏移单位对应的毫秒数
-     * @param beginTimestamp 开始任务的时间毫秒戳
-     * @param workHoursTime  每天的工作时间长度(毫秒)
-     * @param onWorkOffset   每天开始工作的时间位移
-     * @param delay          如果时间点正好在一天的开始或者结束时间点上, 是否将其拖延到后一天
-     * @return 真正安排的时间字符串
+     * @param indices 分配在assignments中的下标
+     * @param begin   区间起始位置
+     * @param end     区间终止位置(不包含)
      */
-    static private String getAssignedDate(
-            double offsetUnits, double timeunit, long beginTimestamp,
-            double workHoursTime, double onWorkOffset, boolean delay) {
-        // 相对开始时, 总偏移(ms), 偏移天数, 当天内偏移(ms)
-        double offset, day, inDayOffset;
-        offset = offsetUnits * timeunit;
-        day = Math.floor(offset / workHoursTime);
-        inDayOffset = offset - day * workHoursTime;
-        if (inDayOffset == 0) {
-            if (!delay) {
-                inDayOffset = workHoursTime;
-                if (workHoursTime + onWorkOffset < 24 * 3600 * 1000 - 1) {
-                    // 当天内偏移如果正好等于一天的毫秒数(不可能大于)
-                    // 那么会自动将24:00:00换成00:00:00, 此时 day-=1 的日期就不对了,
-                    day -= 1;
+    private void sortByBeginAt(int[] indices, int begin, int end) {
+        for (int k = begin + 1; k < end; ++k) {
+            if (assignments[indices[k]].getBeginAt() < assignments[indices[k - 1]].getBeginAt()) {
+                Integer[] boxed = new Integer[end - begin];
+                for (int l = begin; l < end; ++l) {
+                    boxed[l - begin] = indices[l];
                 }
+                Arrays.sort(boxed, (i1, i2) -> {
+                    double b1 = assignments[i1].getBeginAt(), b2 = assignments[i2].getBeginAt();
+                    if (b1 == b2) {
+                        return 0;
+                    }
+                    return b1 > b2 ? 1 : -1;
+                });
+                for (int l = begin; l < end; ++l) {
+                    indices[l] = boxed[l - begin];
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按开始时间排列的分配, 开始时间相同时保持在assignments中的顺序
+     *
+     * @return 新的分配数组
+     */
+    public Assignment[] assignmentsByBeginAt() {
+        int[] order = orderByBeginAt();
+        Assignment[] result = new Assignment[order.length];
+        for (int i = 0; i < order.length; ++i) {
+            result[i] = assignments[order[i]];
+        }
+        return result;
+    }
 
+    /**
+     * 按开始时间排列的分配下标, 开始时间相同时保持在assignments中的顺序, 用于输出
+     *
+     * @return 分配在assignments中的下标
+     */
+    private int[] orderByBeginAt() {
+        if (beginOrder == null) {
+            int[] order = new int[assignments.length];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = i;
             }
+            sortByBeginAt(order, 0, order.length);
+            beginOrder = order;
         }
-        return (new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")).format(
-                beginTimestamp + (long) day * 24 * 3600 * 1000 +
-                        (long) onWorkOffset + (long) inDayOffset
-        );
+        return beginOrder;
     }
 
     /**
@@ -337,6 +342,9 @@ public class Schedule {
 
     final private Problem problem;
 
+    // 缓存: 按开始时间排列的分配下标
+    private int[] beginOrder = null;
+
     private String error = "";
     // 是否合法: -1:未验证, 0:非法, 1:合法
     private int isValid = -1;
@@ -16,7 +16,26 @@ public abstract class ScheduleEvaluator {
      * @param schedule 调度得分
      * @return 适应度
      */
-    public abstract double evaluate(Schedule schedule);
+    public double evaluate(Schedule schedule) {
+        int[] order = new int[schedule.assignments.length];
+        double[] taskEnd = new double[problem.tasks.length];
+        for (int i = 0; i < order.length; ++i) {
+            Assignment assignment = schedule.assignments[i];
+            order[i] = assignment.task.getIndex();
+            taskEnd[order[i]] = assignment.getEndAt();
+        }
+        return evaluate(order, taskEnd);
+    }
+
+    /**
+     * 直接根据解码得到的每个任务的结束时间计算得分, 不需要构造调度方案对象,
+     * 计算过程中不分配内存
+     *
+     * @param order   累计得分时访问任务的顺序(任务稠密下标)
+     * @param taskEnd 每个任务(稠密下标)的结束时间
+     * @return 适应度
+     */
+    public abstract double evaluate(int[] order, double[] taskEnd);
 
     /**
      * 最优化指标(提前终止条件)
@@ -62,13 +81,13 @@ class LeastExceedTimeFitness extends ScheduleEvaluator {
     }
 
     @Override
-    public double evaluate(Schedule schedule) {
+    public double evaluate(int[] order, double[] taskEnd) {
         double sum = 0, std = 0;
         int expireTasks = 0;
-        for (Assignment assignment : schedule.assignments) {
-            Task task = assignment.task;
+        for (int t : order) {
+            Task task = problem.tasks[t];
             if (task.expireTime >= 0) {
-                double exceed = assignment.getEndAt() - task.expireTime;
+                double exceed = taskEnd[t] - task.expireTime;
                 if (exceed > 1e-5) {
                     sum -= exceed;
                     std += exceed * exceed;
@@ -100,12 +119,12 @@ class LeastExpiredTaskFitness extends ScheduleEvaluator {
     }
 
     @Override
-    public double evaluate(Schedule schedule) {
+    public double evaluate(int[] order, double[] taskEnd) {
         double result = 0;
-        for (Assignment assignment : schedule.assignments) {
-            Task task = assignment.task;
+        for (int t : order) {
+            Task task = problem.tasks[t];
             if (task.expireTime >= 0 &&
-                    assignment.getEndAt() - task.expireTime > 1e-5) {
+                    taskEnd[t] - task.expireTime > 1e-5) {
                 result -= 1;
             }
         }
@@ -128,13 +147,13 @@ class HighestMachineUtilizationFitness extends ScheduleEvaluator {
     }
 
     @Override
-    public double evaluate(Schedule schedule) {
+    public double evaluate(int[] order, double[] taskEnd) {
         // 这里的设备利用率是指每个设备的使用时间与整个调度的时长之比的和?, 如果是这样
         // 所有设备的使用时间一定(由任务决定) 那么调度时长越小, 设备利用率越高, 直接返回
         // 时长即可(取负数)
         double res = 0;
-        for (Assignment assignment : schedule.assignments) {
-            res = Math.min(res, -1 * assignment.getEndAt());
+        for (int t : order) {
+            res = Math.min(res, -1 * taskEnd[t]);
         }
         return res;
     }
@@ -0,0 +1,210 @@
+package pers.lyl232.jaapss.problem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 流式csv输出器: 字段直接写入字符缓冲区, 批量编码到1MB的字节缓冲区后写入文件通道.
+ * 输出与CsvWriter逐行输出的字节一致: 逗号分隔, 行分隔符为系统的line.separator,
+ * 无法编码的字符被替换. 只用于输出不含逗号, 引号, 换行符且首尾没有空白的字段, 不需要转义
+ */
+class ScheduleWriter implements AutoCloseable {
+
+    /**
+     * @param path    输出文件路径, 已经存在时被覆盖
+     * @param charset 编码
+     * @throws IOException 打开文件异常
+     */
+    ScheduleWriter(String path, Charset charset) throws IOException {
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * 输出一个字符串字段
+     */
+    ScheduleWriter field(String value) throws IOException {
+        separate(value.length());
+        if (value.length() > chars.length - length) {
+            // 超长字段直接编码
+            flushChars(false);
+            CharBuffer in = CharBuffer.wrap(value);
+            encode(in, false);
+            return this;
+        }
+        value.getChars(0, value.length(), chars, length);
+        length += value.length();
+        return this;
+    }
+
+    /**
+     * 输出一个整数字段
+     */
+    ScheduleWriter field(int value) throws IOException {
+        separate(11);
+        long remain = value;
+        if (remain < 0) {
+            chars[length++] = '-';
+            remain = -remain;
+        }
+        int end = length + digits(remain);
+        for (int pos = end - 1; pos >= length; --pos) {
+            chars[pos] = (char) ('0' + remain % 10);
+            remain /= 10;
+        }
+        length = end;
+        return this;
+    }
+
+    /**
+     * 输出一个浮点数字段, 格式与String.valueOf(double)一致
+     */
+    ScheduleWriter field(double value) throws IOException {
+        long integer = (long) value;
+        if (integer == value && Math.abs(value) < 1e7 && (value != 0 || 1 / value > 0)) {
+            // 整数值的常见情况: "123.0"
+            separate(12);
+            if (integer < 0) {
+                chars[length++] = '-';
+                integer = -integer;
+            }
+            int end = length + digits(integer);
+            for (int pos = end - 1; pos >= length; --pos) {
+                chars[pos] = (char) ('0' + integer % 10);
+                integer /= 10;
+            }
+            length = end;
+            chars[length++] = '.';
+            chars[length++] = '0';
+            return this;
+        }
+        return field(String.valueOf(value));
+    }
+
+    /**
+     * 输出一个时间字段
+     *
+     * @param calendar    工作日历
+     * @param offsetUnits 相对任务开始时偏移单位
+     * @param delay       如果时间点正好在一天的开始或者结束时间点上, 是否将其拖延到后一天
+     */
+    ScheduleWriter field(WorkCalendar calendar, double offsetUnits, boolean delay) throws IOException {
+        separate(MAX_DATE_LENGTH);
+        length = calendar.format(offsetUnits, delay, chars, length);
+        return this;
+    }
+
+    /**
+     * 结束一条记录
+     */
+    void endRecord() throws IOException {
+        ensure(LINE_SEPARATOR.length());
+        LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), chars, length);
+        length += LINE_SEPARATOR.length();
+        firstField = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushChars(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 在字段前输出分隔符, 并保证缓冲区有足够的空间
+     *
+     * @param size 字段的最大长度
+     */
+    private void separate(int size) throws IOException {
+        ensure(Math.min(size + 1, chars.length));
+        if (!firstField) {
+            chars[length++] = ',';
+        }
+        firstField = false;
+    }
+
+    private void ensure(int size) throws IOException {
+        if (chars.length - length < size) {
+            flushChars(false);
+        }
+    }
+
+    /**
+     * 将字符缓冲区编码到字节缓冲区, 字节缓冲区满时写入文件
+     *
+     * @param endOfInput 是否没有更多的字符
+     */
+    private void flushChars(boolean endOfInput) throws IOException {
+        CharBuffer in = CharBuffer.wrap(chars, 0, length);
+        encode(in, endOfInput);
+        // 被拆开的代理对等待下一批字符
+        int remaining = in.remaining();
+        System.arraycopy(chars, in.position(), chars, 0, remaining);
+        length = remaining;
+    }
+
+    private void encode(CharBuffer in, boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(in, bytes, endOfInput);
+            if (result.isOverflow()) {
+                writeBytes();
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    /**
+     * @return 非负整数的十进制位数
+     */
+    private static int digits(long value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            ++count;
+        }
+        return count;
+    }
+
+    // 记录分隔符, 与CsvWriter相同
+    final private static String LINE_SEPARATOR = System.getProperty("line.separator");
+    // 时间字段的最大长度, 非常规的时间可能比WorkCalendar.DATE_LENGTH长
+    final private static int MAX_DATE_LENGTH = 64;
+
+    final private FileChannel channel;
+    final private CharsetEncoder encoder;
+    // 待编码的字符, 待写入的字节
+    final private char[] chars = new char[1 << 16];
+    final private ByteBuffer bytes = ByteBuffer.allocate(1 << 20);
+    private int length = 0;
+    // 下一个字段是否是一条记录的第一个字段
+    private boolean firstField = true;
+}
@@ -23,7 +23,14 @@ public class Task {
      * @return 前驱任务列表
      */
     public List<Task> getPreTasks() {
-        return Collections.unmodifiableList(preTasks);
+        return preTasksView;
+    }
+
+    /**
+     * @return 任务在问题稠密任务表中的下标
+     */
+    public int getIndex() {
+        return index;
     }
 
     @Override
@@ -75,5 +82,10 @@ public class Task {
     final List<Task> preTasks = new ArrayList<>();
     // 后继任务
     Task successor = null;
+    // 在问题稠密任务表中的下标
+    int index = -1;
+
+    // 前驱任务列表的只读视图, 避免每次访问都新建包装对象
+    final private List<Task> preTasksView = Collections.unmodifiableList(preTasks);
 
 }
@@ -0,0 +1,174 @@
+package pers.lyl232.jaapss.problem;
+
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+
+/**
+ * 工作日历: 将相对排程开始时刻的时间单位数转换为实际安排的时间字符串"yyyy-MM-dd HH:mm:ss".
+ * 每一天的日期字符串只计算一次并按天缓存, 时区偏移在两次时区变化之间缓存,
+ * 每个时间点只需要常数次整数运算, 不需要创建日期格式化对象
+ */
+class WorkCalendar {
+
+    /**
+     * @param workHours      每天的工作时间
+     * @param timeunit       任务中时间的时间单位
+     * @param beginTimestamp 排程开始那天0点(见firstDayTimestamp)的毫秒时间戳
+     * @param zone           输出时间的时区
+     */
+    WorkCalendar(DayHourMinute workHours, TimeUnit timeunit, long beginTimestamp, ZoneId zone) {
+        this.beginTimestamp = beginTimestamp;
+        this.onWorkOffset = (workHours.hour1 * 60 + workHours.minute1) * 60 * 1000;
+        this.workHoursTime = workHours.getWorkTime();
+        long unit = 1;
+        switch (timeunit) {
+            case DAY:
+                unit *= 24;
+            case HOUR:
+                unit *= 60;
+            case MINUTE:
+                unit *= 60;
+            case SECOND:
+                unit *= 1000;
+        }
+        this.timeunit = unit;
+        this.rules = zone.getRules();
+        this.firstEpochDay = Math.floorDiv(beginTimestamp + offsetMillis(beginTimestamp), DAY_MILLIS);
+    }
+
+    /**
+     * 排程从明天开始: 与原先基于Calendar的计算一致, 在当前时刻上加一天后将12小时制的小时,
+     * 分和秒置为0, 毫秒保留, 所以下午计算时实际从明天12:00开始
+     *
+     * @param zone      时区
+     * @param timestamp 当前时刻的毫秒时间戳
+     * @return 排程开始的毫秒时间戳
+     */
+    static long firstDayTimestamp(ZoneId zone, long timestamp) {
+        ZonedDateTime now = Instant.ofEpochMilli(timestamp).atZone(zone);
+        return now.plusDays(1).withHour(now.getHour() < 12 ? 0 : 12)
+                .withMinute(0).withSecond(0).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 将相对偏移单位的时间转换成真正安排的工作时间
+     *
+     * @param offsetUnits 相对任务开始时偏移单位
+     * @param delay       如果时间点正好在一天的开始或者结束时间点上, 是否将其拖延到后一天
+     * @param out         输出: 时间字符串
+     * @param at          输出的开始位置
+     * @return 输出的结束位置, 输出的长度至少为DATE_LENGTH
+     */
+    int format(double offsetUnits, boolean delay, char[] out, int at) {
+        // 相对开始时, 总偏移(ms), 偏移天数, 当天内偏移(ms)
+        double offset = offsetUnits * timeunit, day = Math.floor(offset / workHoursTime),
+                inDayOffset = offset - day * workHoursTime;
+        if (inDayOffset == 0) {
+            if (!delay) {
+                inDayOffset = workHoursTime;
+                if (workHoursTime + onWorkOffset < 24 * 3600 * 1000 - 1) {
+                    // 当天内偏移如果正好等于一天的毫秒数(不可能大于)
+                    // 那么会自动将24:00:00换成00:00:00, 此时 day-=1 的日期就不对了,
+                    day -= 1;
+                }
+            }
+        }
+        long millis = beginTimestamp + (long) day * 24 * 3600 * 1000 +
+                (long) onWorkOffset + (long) inDayOffset;
+        if (millis < 0 || millis > MAX_MILLIS) {
+            // 非常规的工作时间(如工作时长为0)产生的极端时间, 按原来的方式输出
+            String text = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(millis);
+            text.getChars(0, text.length(), out, at);
+            return at + text.length();
+        }
+
+        long local = millis + offsetMillis(millis), epochDay = Math.floorDiv(local, DAY_MILLIS);
+        int secondOfDay = (int) ((local - epochDay * DAY_MILLIS) / 1000);
+        System.arraycopy(date(epochDay), 0, out, at, 10);
+        out[at + 10] = ' ';
+        twoDigits(secondOfDay / 3600, out, at + 11);
+        out[at + 13] = ':';
+        twoDigits(secondOfDay / 60 % 60, out, at + 14);
+        out[at + 16] = ':';
+        twoDigits(secondOfDay % 60, out, at + 17);
+        return at + DATE_LENGTH;
+    }
+
+    /**
+     * @return 某一天的日期字符串"yyyy-MM-dd", 排程开始之后的日期被缓存
+     */
+    private char[] date(long epochDay) {
+        long index = epochDay - firstEpochDay;
+        if (index < 0 || index >= MAX_CACHED_DAYS) {
+            return formatDate(epochDay);
+        }
+        if (index >= days.length) {
+            days = Arrays.copyOf(days, (int) Math.min(MAX_CACHED_DAYS, Math.max(index + 1, days.length * 2L)));
+        }
+        if (days[(int) index] == null) {
+            days[(int) index] = formatDate(epochDay);
+        }
+        return days[(int) index];
+    }
+
+    private static char[] formatDate(long epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        StringBuilder builder = new StringBuilder(10);
+        int year = date.getYear();
+        for (int digits = 1000; digits > 1 && year < digits; digits /= 10) {
+            builder.append('0');
+        }
+        builder.append(year).append('-');
+        char[] chars = new char[2];
+        twoDigits(date.getMonthValue(), chars, 0);
+        builder.append(chars).append('-');
+        twoDigits(date.getDayOfMonth(), chars, 0);
+        builder.append(chars);
+        return builder.toString().toCharArray();
+    }
+
+    private static void twoDigits(int value, char[] out, int at) {
+        out[at] = (char) ('0' + value / 10);
+        out[at + 1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * 时刻所在时区的偏移, 在两次时区变化之间缓存
+     */
+    private long offsetMillis(long millis) {
+        if (millis < validFrom || millis >= validTo) {
+            Instant instant = Instant.ofEpochMilli(millis);
+            offset = rules.getOffset(instant).getTotalSeconds() * 1000L;
+            ZoneOffsetTransition previous = rules.previousTransition(instant.plusMillis(1)),
+                    next = rules.nextTransition(instant);
+            validFrom = previous != null ? previous.toEpochSecond() * 1000 : Long.MIN_VALUE;
+            validTo = next != null ? next.toEpochSecond() * 1000 : Long.MAX_VALUE;
+        }
+        return offset;
+    }
+
+    // 时间字符串的长度, 一天的毫秒数, 最多缓存的天数
+    final static int DATE_LENGTH = 19;
+    final private static long DAY_MILLIS = 24 * 3600 * 1000L;
+    final private static int MAX_CACHED_DAYS = 1 << 20;
+    // 按天计算的时间戳上限(约5000年), 1970年以前和超出上限的时间按原来的方式输出
+    final private static long MAX_MILLIS = 100000000000000L;
+
+    // 排程开始那天0点的时间戳, 每天开始工作的时间相对于当天0点的偏移(毫秒), 每天的工作时长(毫秒),
+    // 时间单位长度(毫秒)
+    final private long beginTimestamp;
+    final private double onWorkOffset, workHoursTime, timeunit;
+    // 输出时间的时区规则
+    final private ZoneRules rules;
+    // 排程开始那天的日期序号, 从排程开始那天起每天的日期字符串
+    final private long firstEpochDay;
+    private char[][] days = new char[64][];
+    // 缓存的时区偏移(毫秒)及其有效范围[validFrom, validTo)
+    private long offset, validFrom = 0, validTo = 0;
+}
@@ -1,18 +1,29 @@
 package pers.lyl232.jaapss.program;
 
 import pers.lyl232.jaapss.algorithm.Solver;
+import pers.lyl232.jaapss.algorithm.ga.DispatchingRule;
 import pers.lyl232.jaapss.algorithm.ga.GeneticAlgorithm;
+import pers.lyl232.jaapss.algorithm.ga.IslandModel;
+import pers.lyl232.jaapss.algorithm.ga.SimulatedAnnealing;
 import pers.lyl232.jaapss.algorithm.ga.Species;
-import pers.lyl232.jaapss.data.loader.CSVMachineLoader;
-import pers.lyl232.jaapss.data.loader.CSVTaskLoader;
+import pers.lyl232.jaapss.algorithm.ga.TabuSearch;
+import pers.lyl232.jaapss.data.loader.CSVScheduleLoader;
+import pers.lyl232.jaapss.data.loader.MappedCSVMachineLoader;
+import pers.lyl232.jaapss.data.loader.MappedCSVTaskLoader;
 import pers.lyl232.jaapss.data.loader.DataLoadException;
 import pers.lyl232.jaapss.problem.*;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public interface Command {
     /**
@@ -36,10 +47,21 @@ class HelpCommand implements Command {
                 "start: start solving the problem.\n" +
                 "set [parameter name] [value]...: set program parameter value.\n" +
                 "SP as showParameters: show program parameter values.\n" +
+                "serve [port] [solvers]: serve solve sessions on a local port, solvers: concurrent solves, default: 2. " +
+                "Sessions use the commands above plus 'upload [task|machine] [line count]' followed by the csv lines, " +
+                "'set outputCSV -' returns the result in the session.\n" +
+                "sweep [summary csv or -] [parameter name]=[value],[value]... ...: solve every combination " +
+                "of the values concurrently and summarize best fitness, generations and time, " +
+                "':' separates multiple set arguments in a value, example: 'sweep - GA.population=100,200 SS=0,1 GA.seed=1,2'\n" +
                 "\nGeneral Parameters:\n" +
                 "taskCSV: task info csv data file, default: ./data/example-task.csv\n" +
                 "machineCSV: machine info csv data file, default: ./data/example-machine.csv\n" +
                 "hasHeader: whether data csv files have header, default: true\n" +
+                "problemSnapshot: compiled problem file, reused while the csv files, hasHeader and encoding " +
+                "it was compiled from are unchanged, " +
+                "'none' to disable, default: none\n" +
+                "warmStart: previous output csv used to seed the initial population for re-planning, " +
+                "'none' to disable, default: none\n" +
                 "outputCSV: output csv file, default: ./data/output.csv\n" +
                 "encoding: input output file encoding, default: GBK\n" +
                 "verbose: whether show runtime information, default: false\n" +
@@ -49,7 +71,7 @@ class HelpCommand implements Command {
                 "SS as scheduleStrategy: default: 'LEAST_EXCEED_TIME', " +
                 "optional:['0' or 'LEAST_EXCEED_TIME', '1' or 'LEAST_EXPIRED_TASK'," +
                 " '2' : 'HIGHEST_MACHINE_UTILIZATION']\n" +
-                "algorithm: default: 'GA', optional:['GA': Genetic Algorithm]\n" +
+                "algorithm: default: 'GA', optional:['GA': Genetic Algorithm, 'TS': Tabu Search, 'SA': Parallel Tempering Simulated Annealing]\n" +
                 "VMG as virtualMachineGroups: virtual machine group id set, default: {}," +
                 " example: 'set virtualMachineGroups 58 59'\n" +
                 "\nGA Algorithm Parameters:\n" +
@@ -60,7 +82,39 @@ class HelpCommand implements Command {
                 "GA.crossoverRate: default: 0.6\n" +
                 "GA.selectBetterRate: default: 0.8\n" +
                 "GA.seed: default: current timestamp\n" +
-                "GA.workers: default: available cpus";
+                "GA.workers: default: available cpus\n" +
+                "GA.cacheSize: fitness cache capacity, 0 to disable, default: 65536\n" +
+                "GA.checkpoints: decode checkpoints per individual for re-evaluation after mutation, 0 to disable, default: 0\n" +
+                "GA.islands: number of independent populations, default: 1\n" +
+                "GA.migrationInterval: generations between migrations, default: 10\n" +
+                "GA.migrants: individuals sent per migration, default: 2\n" +
+                "GA.migrationTopology: 0 or RING, 1 or RANDOM, default: RING\n" +
+                "GA.timeLimit: wall-clock seconds before returning the best so far, 0 for unlimited, default: 0\n" +
+                "GA.stagnationGenerations: stop when the best has not improved for n generations, 0 to disable, default: 0\n" +
+                "GA.targetFitness: stop when the best fitness reaches it, optimum for the schedule strategy limit, default: optimum\n" +
+                "GA.warmStartRate: share of the initial population seeded from warmStart, default: 0.5\n" +
+                "GA.heuristicRate: share of the initial population seeded by dispatching rules, default: 0\n" +
+                "GA.heuristicRules: dispatching rules for heuristic seeding, optional: " +
+                "['EDD', 'SPT', 'LPT', 'SLACK', 'MWKR'], default: all, example: 'set GA.heuristicRules EDD MWKR'\n" +
+                "GA.localSearch: critical path neighbours evaluated per elite per generation, 0 to disable, default: 0\n" +
+                "GA.jmx: publish per-phase run metrics as a JMX MBean while solving, default: false\n" +
+                "\nTS Algorithm Parameters:\n" +
+                "TS.maxIterations: default: 1000\n" +
+                "TS.tenure: iterations a reverted move stays tabu, default: 10\n" +
+                "TS.neighbours: critical path neighbours evaluated per iteration, sampled when more, default: 200\n" +
+                "TS.seed: default: current timestamp\n" +
+                "TS.workers: default: available cpus\n" +
+                "TS.timeLimit: wall-clock seconds before returning the best so far, 0 for unlimited, default: 0\n" +
+                "\nSA Algorithm Parameters:\n" +
+                "SA.replicas: annealing replicas, one temperature each, default: max(4, available cpus)\n" +
+                "SA.maxIterations: replica exchange rounds, default: 200\n" +
+                "SA.exchangeInterval: moves per replica between exchanges, default: 100\n" +
+                "SA.maxTemperature: hottest temperature relative to the initial fitness, default: 0.0001\n" +
+                "SA.minTemperature: coldest temperature relative to the initial fitness, default: 0.00001\n" +
+                "SA.checkpoints: decode checkpoints per replica, 0 to disable, default: 8\n" +
+                "SA.seed: default: current timestamp\n" +
+                "SA.workers: default: available cpus\n" +
+                "SA.timeLimit: wall-clock seconds before returning the best so far, 0 for unlimited, default: 0";
     }
 }
 
@@ -83,15 +137,23 @@ class SetCommand implements Command {
         try {
             switch (args[1]) {
                 case "taskCSV": {
-                    program.taskCSV = args[2];
+                    program.taskCSV = program.filePath(args[2]);
                     break;
                 }
                 case "machineCSV": {
-                    program.machineCSV = args[2];
+                    program.machineCSV = program.filePath(args[2]);
                     break;
                 }
                 case "outputCSV": {
-                    program.outputCSV = args[2];
+                    program.outputCSV = "-".equals(args[2]) ? args[2] : program.filePath(args[2]);
+                    break;
+                }
+                case "problemSnapshot": {
+                    program.problemSnapshot = "none".equals(args[2]) ? null : program.filePath(args[2]);
+                    break;
+                }
+                case "warmStart": {
+                    program.warmStart = "none".equals(args[2]) ? null : program.filePath(args[2]);
                     break;
                 }
                 case "hasHeader": {
@@ -149,9 +211,9 @@ class SetCommand implements Command {
                     break;
                 }
                 case "algorithm": {
-                    if (!args[2].equals("GA")) {
+                    if (!args[2].equals("GA") && !args[2].equals("TS") && !args[2].equals("SA")) {
                         return String.format("invalid parameter algorithm: %s, " +
-                                "optional: ['GA']", args[2]);
+                                "optional: ['GA', 'TS', 'SA']", args[2]);
                     }
                     program.algorithm = args[2];
                     break;
@@ -242,6 +304,142 @@ class SetCommand implements Command {
                     program.GAParameter.workers = Integer.parseInt(args[2]);
                     break;
                 }
+                case "GA.cacheSize": {
+                    program.GAParameter.cacheSize = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "GA.checkpoints": {
+                    program.GAParameter.checkpoints = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "GA.islands": {
+                    program.GAParameter.islands = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "GA.migrationInterval": {
+                    program.GAParameter.migrationInterval = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "GA.migrants": {
+                    program.GAParameter.migrants = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "GA.migrationTopology": {
+                    switch (args[2]) {
+                        case "0":
+                        case "RING": {
+                            program.GAParameter.migrationTopology = IslandModel.Topology.RING;
+                            break;
+                        }
+                        case "1":
+                        case "RANDOM": {
+                            program.GAParameter.migrationTopology = IslandModel.Topology.RANDOM;
+                            break;
+                        }
+                        default: {
+                            return String.format("Error: unknown migrationTopology: %s",
+                                    args[2]);
+                        }
+                    }
+                    break;
+                }
+                case "GA.timeLimit": {
+                    program.GAParameter.timeLimit = Double.parseDouble(args[2]);
+                    break;
+                }
+                case "GA.stagnationGenerations": {
+                    program.GAParameter.stagnationGenerations = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "GA.jmx": {
+                    program.GAParameter.jmx = Boolean.parseBoolean(args[2]);
+                    break;
+                }
+                case "GA.heuristicRate": {
+                    program.GAParameter.heuristicRate = Double.parseDouble(args[2]);
+                    break;
+                }
+                case "GA.heuristicRules": {
+                    DispatchingRule[] rules = new DispatchingRule[args.length - 2];
+                    for (int i = 2; i < args.length; ++i) {
+                        rules[i - 2] = DispatchingRule.valueOf(args[i].toUpperCase());
+                    }
+                    program.GAParameter.heuristicRules = rules;
+                    break;
+                }
+                case "GA.localSearch": {
+                    program.GAParameter.localSearch = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "GA.warmStartRate": {
+                    program.GAParameter.warmStartRate = Double.parseDouble(args[2]);
+                    break;
+                }
+                case "GA.targetFitness": {
+                    program.GAParameter.targetFitness = args[2].equals("optimum") ?
+                            Double.NaN : Double.parseDouble(args[2]);
+                    break;
+                }
+                case "TS.maxIterations": {
+                    program.TSParameter.maxIterations = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "TS.tenure": {
+                    program.TSParameter.tenure = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "TS.neighbours": {
+                    program.TSParameter.neighbours = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "TS.seed": {
+                    program.TSParameter.seed = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "TS.workers": {
+                    program.TSParameter.workers = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "TS.timeLimit": {
+                    program.TSParameter.timeLimit = Double.parseDouble(args[2]);
+                    break;
+                }
+                case "SA.replicas": {
+                    program.SAParameter.replicas = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "SA.maxIterations": {
+                    program.SAParameter.maxIterations = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "SA.exchangeInterval": {
+                    program.SAParameter.exchangeInterval = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "SA.maxTemperature": {
+                    program.SAParameter.maxTemperature = Double.parseDouble(args[2]);
+                    break;
+                }
+                case "SA.minTemperature": {
+                    program.SAParameter.minTemperature = Double.parseDouble(args[2]);
+                    break;
+                }
+                case "SA.checkpoints": {
+                    program.SAParameter.checkpoints = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "SA.seed": {
+                    program.SAParameter.seed = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "SA.workers": {
+                    program.SAParameter.workers = Integer.parseInt(args[2]);
+                    break;
+                }
+                case "SA.timeLimit": {
+                    program.SAParameter.timeLimit = Double.parseDouble(args[2]);
+                    break;
+                }
                 case "OF":
                 case "outputFormat": {
                     program.outputFormat = Integer.parseInt(args[2]);
@@ -279,6 +477,10 @@ class ShowParametersCommand implements Command {
         builder.append(String.format("taskCSV: %s\n", program.taskCSV));
         builder.append(String.format("machineCSV: %s\n", program.machineCSV));
         builder.append(String.format("hasHeader: %s\n", program.hasHeader));
+        builder.append(String.format("problemSnapshot: %s\n",
+                program.problemSnapshot != null ? program.problemSnapshot : "none"));
+        builder.append(String.format("warmStart: %s\n",
+                program.warmStart != null ? program.warmStart : "none"));
         builder.append(String.format("outputCSV: %s\n", program.outputCSV));
         builder.append(String.format("encoding: %s\n", program.encoding));
         builder.append(String.format("verbose: %s\n", program.verbose));
@@ -299,7 +501,41 @@ class ShowParametersCommand implements Command {
             builder.append(String.format("GA.crossoverRate: %s\n", program.GAParameter.crossoverRate));
             builder.append(String.format("GA.selectBetterRate: %s\n", program.GAParameter.selectBetterRate));
             builder.append(String.format("GA.seed: %s\n", program.GAParameter.seed));
-            builder.append(String.format("GA.workers: %s", program.GAParameter.workers));
+            builder.append(String.format("GA.workers: %s\n", program.GAParameter.workers));
+            builder.append(String.format("GA.cacheSize: %s\n", program.GAParameter.cacheSize));
+            builder.append(String.format("GA.checkpoints: %s\n", program.GAParameter.checkpoints));
+            builder.append(String.format("GA.islands: %s\n", program.GAParameter.islands));
+            builder.append(String.format("GA.migrationInterval: %s\n", program.GAParameter.migrationInterval));
+            builder.append(String.format("GA.migrants: %s\n", program.GAParameter.migrants));
+            builder.append(String.format("GA.migrationTopology: %s\n", program.GAParameter.migrationTopology));
+            builder.append(String.format("GA.timeLimit: %s\n", program.GAParameter.timeLimit));
+            builder.append(String.format("GA.stagnationGenerations: %s\n", program.GAParameter.stagnationGenerations));
+            builder.append(String.format("GA.targetFitness: %s\n", Double.isNaN(program.GAParameter.targetFitness) ?
+                    "optimum" : program.GAParameter.targetFitness));
+            builder.append(String.format("GA.warmStartRate: %s\n", program.GAParameter.warmStartRate));
+            builder.append(String.format("GA.heuristicRate: %s\n", program.GAParameter.heuristicRate));
+            builder.append(String.format("GA.heuristicRules: %s\n", Arrays.toString(program.GAParameter.heuristicRules)));
+            builder.append(String.format("GA.localSearch: %s\n", program.GAParameter.localSearch));
+            builder.append(String.format("GA.jmx: %s", program.GAParameter.jmx));
+        } else if (program.algorithm.equals("TS")) {
+            builder.append("\nTS Algorithm Parameters:\n");
+            builder.append(String.format("TS.maxIterations: %s\n", program.TSParameter.maxIterations));
+            builder.append(String.format("TS.tenure: %s\n", program.TSParameter.tenure));
+            builder.append(String.format("TS.neighbours: %s\n", program.TSParameter.neighbours));
+            builder.append(String.format("TS.seed: %s\n", program.TSParameter.seed));
+            builder.append(String.format("TS.workers: %s\n", program.TSParameter.workers));
+            builder.append(String.format("TS.timeLimit: %s", program.TSParameter.timeLimit));
+        } else if (program.algorithm.equals("SA")) {
+            builder.append("\nSA Algorithm Parameters:\n");
+            builder.append(String.format("SA.replicas: %s\n", program.SAParameter.replicas));
+            builder.append(String.format("SA.maxIterations: %s\n", program.SAParameter.maxIterations));
+            builder.append(String.format("SA.exchangeInterval: %s\n", program.SAParameter.exchangeInterval));
+            builder.append(String.format("SA.maxTemperature: %s\n", program.SAParameter.maxTemperature));
+            builder.append(String.format("SA.minTemperature: %s\n", program.SAParameter.minTemperature));
+            builder.append(String.format("SA.checkpoints: %s\n", program.SAParameter.checkpoints));
+            builder.append(String.format("SA.seed: %s\n", program.SAParameter.seed));
+            builder.append(String.format("SA.workers: %s\n", program.SAParameter.workers));
+            builder.append(String.format("SA.timeLimit: %s", program.SAParameter.timeLimit));
         }
 
         return builder.toString();
@@ -321,13 +557,16 @@ class StartCommand implements Command {
     @Override
     public String execute(String[] args) {
         try {
-            Problem problem = new Problem(
-                    new CSVMachineLoader(program.machineCSV, program.hasHeader, program.encoding),
-                    new CSVTaskLoader(program.taskCSV, program.hasHeader, program.encoding),
-                    program.workHours, program.timeunit);
-            // 注册虚拟设备组
-            problem.virtualMachineGroups.clear();
-            problem.virtualMachineGroups.addAll(program.virtualMachineGroups);
+            Problem problem;
+            if (program.problemCache != null) {
+                // 服务模式或者批量运行: 使用缓存的问题, 缓存的问题已经注册了虚拟设备组, 只读
+                problem = program.problemCache.get(program, () -> loadProblem(program));
+            } else {
+                problem = loadProblem(program);
+                // 注册虚拟设备组
+                problem.virtualMachineGroups.clear();
+                problem.virtualMachineGroups.addAll(program.virtualMachineGroups);
+            }
 
             Solver solver;
             if ("GA".equals(program.algorithm)) {
@@ -336,23 +575,45 @@ class StartCommand implements Command {
                 parameter.scheduleStrategy = program.scheduleStrategy;
                 GeneticAlgorithm ga = new GeneticAlgorithm(problem, parameter);
                 ga.setVerbose(program.verbose);
+                if (program.warmStart != null) {
+                    ga.setWarmStart(new CSVScheduleLoader(program.warmStart, program.encoding).load());
+                }
                 solver = ga;
+            } else if ("TS".equals(program.algorithm)) {
+                TabuSearch.Parameter parameter = program.TSParameter;
+                parameter.scheduleRule = program.scheduleRule;
+                parameter.scheduleStrategy = program.scheduleStrategy;
+                TabuSearch ts = new TabuSearch(problem, parameter);
+                ts.setVerbose(program.verbose);
+                solver = ts;
+            } else if ("SA".equals(program.algorithm)) {
+                SimulatedAnnealing.Parameter parameter = program.SAParameter;
+                parameter.scheduleRule = program.scheduleRule;
+                parameter.scheduleStrategy = program.scheduleStrategy;
+                SimulatedAnnealing sa = new SimulatedAnnealing(problem, parameter);
+                sa.setVerbose(program.verbose);
+                solver = sa;
             } else {
                 return String.format("Error: unknown algorithm %s",
                         program.algorithm);
             }
-            Schedule result = solver.solve();
-            if (program.verbose) {
-                System.out.println("result:");
-                System.out.println(result);
-                printScheduleMetrics(result);
-                System.out.println("outputting...");
-            }
-            // 输出
-            if (program.outputFormat == 1) {
-                result.toCSVInternal(program.outputCSV, program.encoding);
-            } else {
-                result.toCSV(program.outputCSV, program.encoding);
+            program.attach(solver);
+            try {
+                Schedule result = solver.solve();
+                if (program.verbose) {
+                    System.out.println("result:");
+                    System.out.println(result);
+                    printScheduleMetrics(result);
+                    System.out.println("outputting...");
+                }
+                // 输出
+                if (program.outputFormat == 1) {
+                    result.toCSVInternal(program.outputCSV, program.encoding);
+                } else {
+                    result.toCSV(program.outputCSV, program.encoding);
+                }
+            } finally {
+                program.detach(solver);
             }
 
         } catch (IOException | DataConsistencyException | DataLoadException exception) {
@@ -361,10 +622,40 @@ class StartCommand implements Command {
             exception.printStackTrace();
             return String.format("Solve Error: unknown exception %s",
                     exception.getMessage());
+        } finally {
+            // 服务模式下求解线程长期运行, 构造之后没有运行到solve时也要移除基因检测器和解码器
+            GeneticAlgorithm.releaseCurrentThread();
         }
         return null;
     }
 
+    /**
+     * 加载问题: 设置了问题快照且快照记录的来源(两个csv文件的路径, 大小, 修改时间, hasHeader和encoding)
+     * 与当前输入完全一致时直接加载快照, 否则从csv文件编译问题, 并在设置了问题快照时保存快照
+     *
+     * @param program 程序参数
+     * @return 问题
+     */
+    static Problem loadProblem(Program program) throws Exception {
+        ProblemSnapshot.Source source = null;
+        if (program.problemSnapshot != null) {
+            // 在解析之前记录来源, 解析期间csv文件被修改时下次会重新编译
+            source = new ProblemSnapshot.Source(program.taskCSV, program.machineCSV,
+                    program.hasHeader, program.encoding);
+            if (source.equals(ProblemSnapshot.source(program.problemSnapshot))) {
+                return ProblemSnapshot.load(program.problemSnapshot, program.workHours, program.timeunit);
+            }
+        }
+        Problem problem = new Problem(
+                new MappedCSVMachineLoader(program.machineCSV, program.hasHeader, program.encoding),
+                new MappedCSVTaskLoader(program.taskCSV, program.hasHeader, program.encoding),
+                program.workHours, program.timeunit);
+        if (source != null) {
+            ProblemSnapshot.save(problem, source, program.problemSnapshot);
+        }
+        return problem;
+    }
+
     /**
      * 打印出调度方案的各项指标
      *
@@ -375,7 +666,7 @@ class StartCommand implements Command {
         double timeCost = 0;
         // 超时的分配列表
         List<Assignment> expireAssignments = new ArrayList<>();
-        for (Assignment assignment : schedule.assignments) {
+        for (Assignment assignment : schedule.assignmentsByBeginAt()) {
             Task task = assignment.task;
             timeCost = Math.max(timeCost, assignment.getEndAt());
             if (task.expireTime > 0 && assignment.getEndAt() - task.expireTime > 1e-5) {
@@ -394,3 +685,213 @@ class StartCommand implements Command {
 
     final private Program program;
 }
+
+
+/**
+ * 服务命令: serve [端口] [同时求解个数(可选)]
+ * return 监听的地址(正常) 或者 异常信息(不正常)
+ */
+class ServeCommand implements Command {
+    ServeCommand(Program program) {
+        this.program = program;
+    }
+
+    @Override
+    public String execute(String[] args) {
+        if (program.server != null) {
+            return String.format("Error: already serving on %s", program.server.address());
+        }
+        if (args.length < 2) {
+            return "Error: invalid serve command: serve [port] [solvers]";
+        }
+        try {
+            int port = Integer.parseInt(args[1]),
+                    solvers = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SOLVERS;
+            if (solvers < 1) {
+                return "Error: solvers must be greater than 0.";
+            }
+            Server server = new Server(port, solvers);
+            server.start();
+            program.server = server;
+            program.problemCache = server.problemCache;
+            return String.format("serving on %s", server.address());
+        } catch (NumberFormatException exception) {
+            return String.format("Error: invalid number: %s", exception.getMessage());
+        } catch (IOException | IllegalArgumentException exception) {
+            return String.format("Error: serve failed: %s", exception.getMessage());
+        }
+    }
+
+    // 默认同时进行的求解个数
+    final private static int DEFAULT_SOLVERS = 2;
+
+    final private Program program;
+}
+
+
+/**
+ * 批量运行命令: sweep [汇总csv文件] [参数名]=[值1],[值2]... ...
+ * 按参数网格(所有取值的组合, 第一个参数变化最慢)生成若干组参数, 每组在当前参数的基础上用set命令设置,
+ * 一个值中的':'分隔set命令的多个参数(如workHours=8:0:17:0, VMG=1:2). 各组参数在大小为处理器个数的
+ * 线程池中并行求解(服务会话中作为一次求解提交到服务的求解线程池, 各组参数依次求解),
+ * 参数中没有GA.workers时每组使用1个工作线程, 相同的问题只加载一次.
+ * 汇总csv文件为'-'时只输出汇总表
+ * return 汇总表(正常) 或者 异常信息(不正常)
+ */
+class SweepCommand implements Command {
+    SweepCommand(Program program) {
+        this.program = program;
+    }
+
+    @Override
+    public String execute(String[] args) {
+        if (args.length < 2) {
+            return "Error: invalid sweep command: sweep [summary csv] [parameter name]=[value],[value]... ...";
+        }
+        if (!"GA".equals(program.algorithm)) {
+            return String.format("Error: unknown algorithm %s", program.algorithm);
+        }
+        String summaryCSV;
+        try {
+            summaryCSV = "-".equals(args[1]) ? null : program.filePath(args[1]);
+        } catch (IllegalArgumentException exception) {
+            return String.format("Error: invalid summary csv: %s", exception.getMessage());
+        }
+        // 参数网格: 参数名和所有取值
+        String[] names = new String[args.length - 2];
+        String[][] values = new String[args.length - 2][];
+        boolean setWorkers = false;
+        int configCount = 1;
+        for (int k = 0; k < names.length; ++k) {
+            int split = args[k + 2].indexOf('=');
+            if (split <= 0 || split == args[k + 2].length() - 1) {
+                return String.format("Error: invalid sweep parameter: %s", args[k + 2]);
+            }
+            names[k] = args[k + 2].substring(0, split);
+            values[k] = args[k + 2].substring(split + 1).split(",");
+            setWorkers |= names[k].equals("GA.workers");
+            configCount *= values[k].length;
+        }
+
+        // 按网格生成每组参数
+        Program[] configs = new Program[configCount];
+        String[] descriptions = new String[configCount];
+        ProblemCache problemCache = program.problemCache != null ?
+                program.problemCache : new ProblemCache(SWEEP_PROBLEM_CACHE_SIZE);
+        for (int c = 0; c < configCount; ++c) {
+            Program config = new Program(program);
+            config.verbose = false;
+            config.problemCache = problemCache;
+            if (!setWorkers) {
+                config.GAParameter.workers = 1;
+            }
+            StringBuilder description = new StringBuilder();
+            for (int k = names.length - 1, rest = c; k >= 0; rest /= values[k].length, --k) {
+                String value = values[k][rest % values[k].length];
+                String[] set = (String.format("set %s ", names[k]) + value.replace(':', ' ')).split(" ");
+                String report = config.execute(set);
+                if (report != null) {
+                    return report;
+                }
+                description.insert(0, String.format("%s=%s ", names[k], value));
+            }
+            configs[c] = config;
+            descriptions[c] = description.toString().trim();
+        }
+
+        // 每组参数的求解任务
+        double[] fitness = new double[configCount];
+        int[] generations = new int[configCount];
+        long[] millis = new long[configCount];
+        String[] errors = new String[configCount];
+        Runnable[] jobs = new Runnable[configCount];
+        for (int c = 0; c < configCount; ++c) {
+            final int index = c;
+            jobs[c] = () -> {
+                Program config = configs[index];
+                long begin = System.nanoTime();
+                try {
+                    Problem problem = problemCache.get(config, () -> StartCommand.loadProblem(config));
+                    Species.Parameter parameter = config.GAParameter;
+                    parameter.scheduleRule = config.scheduleRule;
+                    parameter.scheduleStrategy = config.scheduleStrategy;
+                    GeneticAlgorithm ga = new GeneticAlgorithm(problem, parameter);
+                    if (config.warmStart != null) {
+                        ga.setWarmStart(new CSVScheduleLoader(config.warmStart, config.encoding).load());
+                    }
+                    program.attach(ga);
+                    try {
+                        ga.solve();
+                    } finally {
+                        program.detach(ga);
+                    }
+                    fitness[index] = ga.getBestFitness();
+                    generations[index] = ga.getGenerations();
+                } catch (Exception exception) {
+                    errors[index] = String.valueOf(exception.getMessage());
+                } finally {
+                    // 构造之后没有运行到solve时, 线程上仍注册着引用物种的基因检测器和解码器
+                    GeneticAlgorithm.releaseCurrentThread();
+                }
+                millis[index] = (System.nanoTime() - begin) / 1000000;
+            };
+        }
+
+        if (program.fileDirectory != null) {
+            // 服务会话: 整个批量运行作为一次求解在服务的有界求解线程池中执行, 各组参数在该线程中依次求解
+            for (Runnable job : jobs) {
+                job.run();
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), runnable -> {
+                        Thread thread = new Thread(runnable, "JAAPSS-Sweep");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (Runnable job : jobs) {
+                    futures.add(executor.submit(job));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException | ExecutionException exception) {
+                return String.format("Sweep Error: %s", exception.getMessage());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // 汇总表
+        StringBuilder table = new StringBuilder(String.format("%-4s %16s %11s %10s  %s\n",
+                "#", "bestFitness", "generations", "time(ms)", "parameters"));
+        for (int c = 0; c < configCount; ++c) {
+            table.append(String.format("%-4d %16s %11s %10d  %s\n", c,
+                    errors[c] == null ? String.format("%.4f", fitness[c]) : "error",
+                    errors[c] == null ? String.valueOf(generations[c]) : "-",
+                    millis[c], errors[c] == null ? descriptions[c] : descriptions[c] + ": " + errors[c]));
+        }
+        if (summaryCSV != null) {
+            try (PrintWriter writer = new PrintWriter(summaryCSV, program.encoding)) {
+                writer.println("config,bestFitness,generations,timeMillis,parameters,error");
+                for (int c = 0; c < configCount; ++c) {
+                    writer.printf("%d,%s,%s,%d,%s,%s\n", c,
+                            errors[c] == null ? String.valueOf(fitness[c]) : "",
+                            errors[c] == null ? String.valueOf(generations[c]) : "",
+                            millis[c], descriptions[c],
+                            errors[c] == null ? "" : errors[c].replace(',', ';'));
+                }
+            } catch (IOException exception) {
+                return String.format("Error: write summary failed: %s", exception.getMessage());
+            }
+        }
+        return table.toString().trim();
+    }
+
+    // 批量运行且不在服务模式时最多缓存的问题个数
+    final private static int SWEEP_PROBLEM_CACHE_SIZE = 4;
+
+    final private Program program;
+}
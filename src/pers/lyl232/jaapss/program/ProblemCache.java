@@ -0,0 +1,97 @@
+package pers.lyl232.jaapss.program;
+
+import pers.lyl232.jaapss.problem.Problem;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 编译好的问题的缓存, 在服务模式下的多个会话之间共享. 键由输入文件(路径, 修改时间, 大小),
+ * 读取配置, 工作时间, 时间单位和虚拟设备组组成, 输入文件被修改后自动失效.
+ * 缓存的问题在加载时注册好虚拟设备组, 之后只读, 可以被多个求解同时使用.
+ * 同一个问题只加载一次, 不同问题的加载互不阻塞, 超过容量时淘汰最久未使用的问题
+ */
+class ProblemCache {
+
+    /**
+     * @param capacity 最多缓存的问题个数
+     */
+    ProblemCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 取得程序参数对应的问题, 不存在时加载
+     *
+     * @param program 程序参数
+     * @param loader  加载问题(不需要注册虚拟设备组)
+     * @return 已经注册虚拟设备组的问题
+     * @throws Exception 加载异常, 加载失败的问题不会被缓存
+     */
+    Problem get(Program program, Callable<Problem> loader) throws Exception {
+        String key = key(program);
+        Set<Integer> virtualMachineGroups = new HashSet<>(program.virtualMachineGroups);
+        FutureTask<Problem> task;
+        boolean owner = false;
+        synchronized (problems) {
+            task = problems.get(key);
+            if (task == null) {
+                task = new FutureTask<>(() -> {
+                    Problem problem = loader.call();
+                    problem.virtualMachineGroups.clear();
+                    problem.virtualMachineGroups.addAll(virtualMachineGroups);
+                    return problem;
+                });
+                problems.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException exception) {
+            synchronized (problems) {
+                problems.remove(key, task);
+            }
+            Throwable cause = exception.getCause();
+            throw cause instanceof Exception ? (Exception) cause : exception;
+        }
+    }
+
+    /**
+     * @return 缓存的问题个数
+     */
+    int size() {
+        synchronized (problems) {
+            return problems.size();
+        }
+    }
+
+    private static String key(Program program) {
+        List<Integer> groups = new ArrayList<>(program.virtualMachineGroups);
+        Collections.sort(groups);
+        return String.join("|", file(program.taskCSV), file(program.machineCSV),
+                String.valueOf(program.hasHeader), program.encoding,
+                String.valueOf(program.workHours), String.valueOf(program.timeunit), groups.toString());
+    }
+
+    private static String file(String path) {
+        File file = new File(path).getAbsoluteFile();
+        return String.format("%s:%d:%d", file.getPath(), file.lastModified(), file.length());
+    }
+
+    final private int capacity;
+    // 按访问顺序排列的问题, 正在加载的问题也在其中
+    final private Map<String, FutureTask<Problem>> problems =
+            new LinkedHashMap<String, FutureTask<Problem>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Problem>> eldest) {
+                    return size() > capacity;
+                }
+            };
+}
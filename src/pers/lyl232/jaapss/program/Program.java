@@ -1,35 +1,106 @@
 package pers.lyl232.jaapss.program;
 
+import pers.lyl232.jaapss.algorithm.Solver;
+import pers.lyl232.jaapss.algorithm.ga.SimulatedAnnealing;
 import pers.lyl232.jaapss.algorithm.ga.Species;
+import pers.lyl232.jaapss.algorithm.ga.TabuSearch;
 import pers.lyl232.jaapss.problem.DayHourMinute;
 import pers.lyl232.jaapss.problem.ScheduleRule;
 import pers.lyl232.jaapss.problem.ScheduleStrategy;
 import pers.lyl232.jaapss.problem.TimeUnit;
 
+import java.io.File;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Program {
 
     public static Program getInstance() {
         if (program == null) {
             program = new Program();
-            commandMap.put("help", new HelpCommand());
-            commandMap.put("start", new StartCommand(program));
-            commandMap.put("set", new SetCommand(program));
-            commandMap.put("showParameters", new ShowParametersCommand(program));
-            commandMap.put("SP", new ShowParametersCommand(program));
         }
         return program;
     }
 
+    /**
+     * 包访问权限构造函数: 除了单例以外, 服务模式的每个会话都有自己的参数
+     */
+    Program() {
+        GAParameter = new Species.Parameter();
+        TSParameter = new TabuSearch.Parameter();
+        SAParameter = new SimulatedAnnealing.Parameter();
+        registerCommands();
+    }
+
+    /**
+     * 包访问权限构造函数: 复制另一个程序的运行参数, 用于批量运行时给每组参数生成各自的程序
+     *
+     * @param other 被复制的程序
+     */
+    Program(Program other) {
+        taskCSV = other.taskCSV;
+        machineCSV = other.machineCSV;
+        problemSnapshot = other.problemSnapshot;
+        warmStart = other.warmStart;
+        outputCSV = other.outputCSV;
+        hasHeader = other.hasHeader;
+        encoding = other.encoding;
+        verbose = other.verbose;
+        scheduleRule = other.scheduleRule;
+        scheduleStrategy = other.scheduleStrategy;
+        workHours = other.workHours;
+        timeunit = other.timeunit;
+        outputFormat = other.outputFormat;
+        algorithm = other.algorithm;
+        GAParameter = new Species.Parameter(other.GAParameter);
+        TSParameter = new TabuSearch.Parameter(other.TSParameter);
+        SAParameter = new SimulatedAnnealing.Parameter(other.SAParameter);
+        virtualMachineGroups = new HashSet<>(other.virtualMachineGroups);
+        problemCache = other.problemCache;
+        fileDirectory = other.fileDirectory;
+        registerCommands();
+    }
+
+    private void registerCommands() {
+        commandMap.put("help", new HelpCommand());
+        commandMap.put("start", new StartCommand(this));
+        commandMap.put("set", new SetCommand(this));
+        commandMap.put("showParameters", new ShowParametersCommand(this));
+        commandMap.put("SP", new ShowParametersCommand(this));
+        commandMap.put("serve", new ServeCommand(this));
+        commandMap.put("sweep", new SweepCommand(this));
+    }
+
+    /**
+     * 先执行命令行参数给出的命令(如"serve 7000"), 再启动程序
+     *
+     * @param args 命令行参数, 为空时直接启动程序
+     */
+    public void run(String[] args) {
+        if (args.length > 0) {
+            String report = execute(args);
+            if (report != null && !report.equals("")) {
+                System.out.println(report);
+            }
+        }
+        run();
+    }
+
     /**
      * 启动程序
      */
     public void run() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "JAAPSS-Shutdown"));
         Scanner scanner = new Scanner(System.in, "UTF-8");
         try {
             while (true) {
                 System.out.print(":)");
+                if (server != null && !scanner.hasNextLine()) {
+                    // 标准输入已关闭(作为后台服务运行), 等待服务结束
+                    server.await();
+                    return;
+                }
                 String input = scanner.nextLine().trim();
                 String[] parts = input.split("\\s+");
                 if (parts[0].equals("exit")) {
@@ -38,12 +109,7 @@ public class Program {
                     continue;
                 }
 
-                Command command = commandMap.get(parts[0]);
-                if (command == null) {
-                    System.out.printf("unknown command: %s\n", parts[0]);
-                    continue;
-                }
-                String report = command.execute(parts);
+                String report = execute(parts);
                 if (report != null && !report.equals("")) {
                     System.out.println(report);
                 }
@@ -54,11 +120,96 @@ public class Program {
         }
     }
 
+    /**
+     * 程序被中断(Ctrl-C或SIGTERM)时停止正在运行的求解, 并等待它输出已经找到的最佳方案, 最多等待SHUTDOWN_WAIT_MILLIS
+     */
+    private void shutdown() {
+        stop();
+        long deadline = System.nanoTime() + SHUTDOWN_WAIT_MILLIS * 1000000L;
+        while (!running.isEmpty() && System.nanoTime() - deadline < 0) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException exception) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 执行一条命令
+     *
+     * @param parts 命令名和命令参数
+     * @return 需要输出的值, 如不需输出返回null
+     */
+    String execute(String[] parts) {
+        Command command = commandMap.get(parts[0]);
+        if (command == null) {
+            return String.format("unknown command: %s", parts[0]);
+        }
+        return command.execute(parts);
+    }
+
+    /**
+     * 检查文件路径: 服务会话的连接未经认证, 只允许读写上传目录中的文件
+     *
+     * @param path 文件路径, 服务会话中的相对路径相对于上传目录
+     * @return 可以使用的文件路径
+     * @throws IllegalArgumentException 服务会话中路径不在上传目录中
+     */
+    String filePath(String path) {
+        if (fileDirectory == null) {
+            return path;
+        }
+        Path directory = fileDirectory.toPath().toAbsolutePath().normalize(),
+                resolved = directory.resolve(path).normalize();
+        if (!resolved.startsWith(directory) || resolved.equals(directory)) {
+            throw new IllegalArgumentException(
+                    String.format("%s is outside the upload directory", path));
+        }
+        return resolved.toString();
+    }
+
+    /**
+     * 记录开始运行的求解器, 使stop可以停止它, 已经被要求停止时立即停止它
+     *
+     * @param solver 求解器
+     */
+    void attach(Solver solver) {
+        running.add(solver);
+        if (stopRequested) {
+            solver.stop();
+        }
+    }
+
+    /**
+     * 求解器运行结束(包括输出结果之后)
+     *
+     * @param solver 求解器
+     */
+    void detach(Solver solver) {
+        running.remove(solver);
+    }
+
+    /**
+     * 要求正在运行和之后开始的求解尽快停止, 可以在任意线程中调用, 被停止的求解仍然输出已经找到的最佳方案.
+     * 服务会话结束或者程序被中断时使用
+     */
+    void stop() {
+        stopRequested = true;
+        for (Solver solver : running) {
+            solver.stop();
+        }
+    }
+
     // 输入:
     // 任务信息csv文件路径
     String taskCSV = "./data/example-task.csv";
     // 设备信息csv文件路径
     String machineCSV = "./data/example-machine.csv";
+    // 问题快照文件路径, null表示不使用
+    String problemSnapshot = null;
+    // 热启动: 之前输出的调度方案csv文件路径, null表示不使用
+    String warmStart = null;
     // 输出:
     String outputCSV = "./data/output.csv";
     // 配置:
@@ -84,14 +235,33 @@ public class Program {
     String algorithm = "GA";
 
     // 遗传算法运行参数
-    final Species.Parameter GAParameter = new Species.Parameter();
+    final Species.Parameter GAParameter;
+
+    // 禁忌搜索运行参数
+    final TabuSearch.Parameter TSParameter;
+
+    // 并行回火模拟退火运行参数
+    final SimulatedAnnealing.Parameter SAParameter;
 
     // 虚拟设备组id集合: 分配到这些组的任务可以直接开始不必等待空余设备
     Set<Integer> virtualMachineGroups = new HashSet<>();
 
+    // 服务模式下正在运行的服务, 不在服务模式时为null
+    Server server = null;
+    // 服务会话中可以读写的文件所在的目录(上传目录), 为null时不限制
+    File fileDirectory = null;
+    // 编译好的问题的缓存, 服务模式下在会话之间共享, 为null时每次求解都重新加载问题
+    ProblemCache problemCache = null;
+
+    // 程序被中断时等待求解输出结果的最长时间(毫秒)
+    final private static long SHUTDOWN_WAIT_MILLIS = 10000;
+    // 正在运行的求解器, 是否被要求停止
+    final private Set<Solver> running = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopRequested = false;
+
     // 单例
     static private Program program = null;
     // 命令名对应的命令
-    final static private Map<String, Command> commandMap = new HashMap<>();
+    final private Map<String, Command> commandMap = new HashMap<>();
 
 }
@@ -0,0 +1,375 @@
+package pers.lyl232.jaapss.program;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 求解服务: 在本机回环地址的端口上监听, 进程常驻, 编译好的问题和JIT编译的代码在请求之间保留.
+ * <p>
+ * 每个连接是一个独立的会话, 有自己的参数, 使用与命令行相同的命令(help, set, SP, start, exit),
+ * 另外支持"upload [task|machine] [行数]": 之后的若干行是csv文件的内容(包括表头),
+ * 保存为以内容摘要命名的临时文件并设置为taskCSV或machineCSV, 内容相同的上传可以命中问题缓存;
+ * outputCSV设为"-"(会话的默认值)时start在连接上返回结果csv的内容.
+ * 连接未经认证, 会话中设置的文件路径(taskCSV, outputCSV等)只能位于上传目录中, 上传目录在服务结束时删除.
+ * <p>
+ * 协议按行进行(UTF-8): 服务端在可以接收下一条命令时发送一行":)", 命令的输出在它之前.
+ * start和sweep提交到有界的求解线程池中执行, 排队已满时立即返回错误. 求解期间连接断开或者收到exit时停止求解,
+ * 不让离开的会话一直占用求解线程
+ */
+class Server {
+
+    /**
+     * @param port    监听的端口
+     * @param solvers 同时进行的求解个数
+     */
+    Server(int port, int solvers) {
+        this.port = port;
+        AtomicInteger count = new AtomicInteger();
+        this.solvers = new ThreadPoolExecutor(solvers, solvers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(solvers * QUEUE_PER_SOLVER), runnable -> {
+            Thread thread = new Thread(runnable, "JAAPSS-Solver-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 开始监听, 在后台线程中接受连接
+     *
+     * @throws IOException 端口被占用等异常
+     */
+    void start() throws IOException {
+        uploadDirectory = Files.createTempDirectory("jaapss-uploads").toFile();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::deleteUploads, "JAAPSS-Server-Cleanup"));
+        serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::accept, "JAAPSS-Server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * 等待服务结束
+     */
+    void await() throws InterruptedException {
+        acceptor.join();
+    }
+
+    /**
+     * @return 监听的地址
+     */
+    String address() {
+        return String.format("%s:%d", serverSocket.getInetAddress().getHostAddress(),
+                serverSocket.getLocalPort());
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                if (!sessions.tryAcquire()) {
+                    try (Writer writer = new OutputStreamWriter(socket.getOutputStream(),
+                            StandardCharsets.UTF_8)) {
+                        writer.write("Error: too many sessions, please retry later.\n");
+                    } catch (IOException ignored) {
+                        // 连接已断开
+                    }
+                    socket.close();
+                    continue;
+                }
+                Thread thread = new Thread(() -> {
+                    try {
+                        session(socket);
+                    } finally {
+                        sessions.release();
+                    }
+                }, "JAAPSS-Session-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException exception) {
+            System.out.printf("server stopped: %s\n", exception.getMessage());
+        } finally {
+            solvers.shutdownNow();
+            deleteUploads();
+        }
+    }
+
+    /**
+     * 删除上传目录及其中的文件
+     */
+    private void deleteUploads() {
+        File[] files = uploadDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        uploadDirectory.delete();
+    }
+
+    /**
+     * 处理一个连接上的所有命令, 直到exit或者连接断开
+     */
+    private void session(Socket socket) {
+        Program program = new Program();
+        program.server = this;
+        program.problemCache = problemCache;
+        program.fileDirectory = uploadDirectory;
+        program.taskCSV = new File(uploadDirectory, "task.csv").getPath();
+        program.machineCSV = new File(uploadDirectory, "machine.csv").getPath();
+        program.outputCSV = "-";
+        try (socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            while (true) {
+                writer.write(":)\n");
+                writer.flush();
+                String line = reader.readLine();
+                if (line == null) {
+                    return;
+                }
+                String[] parts = line.trim().split("\\s+");
+                String report;
+                switch (parts[0]) {
+                    case "exit": {
+                        return;
+                    }
+                    case "": {
+                        continue;
+                    }
+                    case "upload": {
+                        report = upload(program, parts, reader);
+                        break;
+                    }
+                    case "start": {
+                        report = solve(program, parts, socket, reader, writer);
+                        break;
+                    }
+                    case "sweep": {
+                        report = submit(program, () -> program.execute(parts), socket, reader);
+                        break;
+                    }
+                    default: {
+                        report = program.execute(parts);
+                    }
+                }
+                if (report != null && !report.equals("")) {
+                    writer.write(report);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException ignored) {
+            // 连接已断开
+        } finally {
+            program.stop();
+        }
+    }
+
+    /**
+     * upload [task|machine] [行数]: 读取之后的若干行作为csv文件的内容
+     */
+    private String upload(Program program, String[] parts, BufferedReader reader) throws IOException {
+        if (parts.length < 3 || !(parts[1].equals("task") || parts[1].equals("machine"))) {
+            return "Error: invalid upload command: upload [task|machine] [line count]";
+        }
+        int lines;
+        try {
+            lines = Integer.parseInt(parts[2]);
+        } catch (NumberFormatException exception) {
+            return String.format("Error: invalid line count: %s", parts[2]);
+        }
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < lines; ++i) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new EOFException();
+            }
+            content.append(line).append('\n');
+        }
+
+        byte[] bytes;
+        try {
+            bytes = content.toString().getBytes(Charset.forName(program.encoding));
+        } catch (IllegalArgumentException exception) {
+            return String.format("Error: unsupported encoding: %s", program.encoding);
+        }
+        File file = new File(uploadDirectory, digest(bytes) + ".csv");
+        if (!file.exists()) {
+            // 先写入临时文件再改名, 同时上传相同内容的会话不会读到不完整的文件
+            File temp = File.createTempFile("upload", ".tmp", uploadDirectory);
+            Files.write(temp.toPath(), bytes);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (parts[1].equals("task")) {
+            program.taskCSV = file.getPath();
+        } else {
+            program.machineCSV = file.getPath();
+        }
+        return null;
+    }
+
+    /**
+     * start: 在求解线程池中执行, outputCSV为"-"时在连接上返回结果
+     */
+    private String solve(Program program, String[] parts, Socket socket, BufferedReader input,
+                         Writer writer) throws IOException {
+        String outputCSV = program.outputCSV;
+        File output = "-".equals(outputCSV) ?
+                File.createTempFile("output", ".csv", uploadDirectory) : null;
+        try {
+            if (output != null) {
+                program.outputCSV = output.getPath();
+            }
+            String report = submit(program, () -> program.execute(parts), socket, input);
+            if (report == null && output != null) {
+                try (BufferedReader reader = Files.newBufferedReader(output.toPath(),
+                        Charset.forName(program.encoding))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        writer.write(line);
+                        writer.write('\n');
+                    }
+                }
+            }
+            return report;
+        } finally {
+            program.outputCSV = outputCSV;
+            if (output != null) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * 在求解线程池中执行并等待结果, 排队已满时立即返回错误. 等待期间定时检查连接, 连接断开时抛出EOFException;
+     * 无论以何种方式返回, 还在排队的任务从线程池中移除, 正在运行的求解被要求停止并等待它结束
+     *
+     * @param program 会话的程序
+     * @param task    求解任务
+     * @param socket  连接
+     * @param input   连接的输入
+     * @return 任务的返回值或者异常信息
+     * @throws IOException 连接已断开
+     */
+    private String submit(Program program, Callable<String> task, Socket socket,
+                          BufferedReader input) throws IOException {
+        FutureTask<String> future = new FutureTask<>(task);
+        try {
+            solvers.execute(future);
+        } catch (RejectedExecutionException exception) {
+            return "Error: server is busy, please retry later.";
+        }
+        try {
+            while (true) {
+                try {
+                    return future.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException exception) {
+                    if (!connected(program, socket, input)) {
+                        throw new EOFException();
+                    }
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return "Error: solve interrupted.";
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause() != null ? exception.getCause() : exception;
+            return String.format("Solve Error: unknown exception %s",
+                    cause.getMessage() != null ? cause.getMessage() : cause);
+        } finally {
+            if (!future.isDone()) {
+                program.stop();
+                if (!solvers.remove(future)) {
+                    // 已经开始运行: 等待被停止的求解输出结果后再返回, 之后会话删除它的临时文件
+                    try {
+                        future.get();
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException ignored) {
+                        // 会话已经结束, 不再报告
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 求解期间检查连接: 读取已经到达的输入但不消耗它(求解结束后仍按命令处理), 读到输入结束表示连接已断开.
+     * 已经到达的输入中有exit时要求停止求解, 求解返回已经找到的最佳方案之后会话再处理exit
+     *
+     * @return 连接是否仍然存在
+     */
+    private boolean connected(Program program, Socket socket, BufferedReader input) throws IOException {
+        StringBuilder pending = new StringBuilder();
+        boolean closed = false;
+        socket.setSoTimeout(PEEK_MILLIS);
+        input.mark(PEEK_LIMIT);
+        try {
+            while (pending.length() < PEEK_LIMIT) {
+                int c = input.read();
+                if (c < 0) {
+                    closed = true;
+                    break;
+                }
+                pending.append((char) c);
+            }
+        } catch (SocketTimeoutException ignored) {
+            // 没有更多已经到达的输入
+        } finally {
+            input.reset();
+            socket.setSoTimeout(0);
+        }
+        for (String line : pending.toString().split("\n")) {
+            if (line.trim().equals("exit")) {
+                program.stop();
+            }
+        }
+        return !closed;
+    }
+
+    /**
+     * @return 内容的SHA-256摘要(十六进制)
+     */
+    private static String digest(byte[] bytes) {
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    // 每个求解线程最多排队的求解个数, 最多同时存在的会话个数, 未处理连接队列的长度, 最多缓存的问题个数
+    final private static int QUEUE_PER_SOLVER = 4, MAX_SESSIONS = 64, BACKLOG = 50, PROBLEM_CACHE_SIZE = 16;
+    // 求解期间检查连接的间隔(毫秒), 检查时等待输入的时间(毫秒), 检查时最多读取的已到达输入的字符数
+    final private static int POLL_MILLIS = 200, PEEK_MILLIS = 1, PEEK_LIMIT = 4096;
+
+    // 会话之间共享的问题缓存
+    final ProblemCache problemCache = new ProblemCache(PROBLEM_CACHE_SIZE);
+
+    final private int port;
+    // 有界的求解线程池
+    final private ThreadPoolExecutor solvers;
+    // 剩余可以建立的会话个数
+    final private Semaphore sessions = new Semaphore(MAX_SESSIONS);
+    // 上传的csv文件和返回结果的临时文件所在目录, 会话只能读写其中的文件
+    private File uploadDirectory;
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+}